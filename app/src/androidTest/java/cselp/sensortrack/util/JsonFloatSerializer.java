@@ -13,6 +13,8 @@ import java.math.RoundingMode;
 
 /**
  * Implementation of JsonSerializer, ensures valid float type serialization.
+ * Former serializer of track values, used by LegacyTrackJson only.
+ * Values are rounded by {@link FloatFormatter}, BigDecimal rounding is used only for unsupported values.
  */
 public class JsonFloatSerializer implements JsonSerializer<Float> {
     private int precision;
@@ -23,6 +25,9 @@ public class JsonFloatSerializer implements JsonSerializer<Float> {
 
     @Override
     public JsonElement serialize(Float src, Type typeOfSrc, JsonSerializationContext context) {
+        if (FloatFormatter.isSupported(src, precision)) {
+            return new JsonPrimitive(BigDecimal.valueOf(FloatFormatter.round(src, precision), precision));
+        }
         try {
             BigDecimal bigValue = BigDecimal.valueOf(src);
             bigValue = bigValue.setScale(precision, RoundingMode.HALF_EVEN);
@@ -0,0 +1,204 @@
+package cselp.sensortrack.util;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+
+import cselp.sensortrack.bean.LocationSeries;
+import cselp.sensortrack.bean.SensorSeries;
+import cselp.sensortrack.bean.TimeData;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackPart;
+
+/**
+ * Former JSONObject based presentation of tracks and track parts, reference for compatibility tests
+ * of streaming JSON output. Float values are rounded by BigDecimal, as JsonFloatSerializer did it.
+ */
+public class LegacyTrackJson {
+    private static final String[] SENSOR_FIELDS = {"x", "y", "z"};
+    private static final int[] SENSOR_COLUMNS = {SensorSeries.X, SensorSeries.Y, SensorSeries.Z};
+    private static final String[] ROTATION_FIELDS = {"cos", "acc", "x", "y", "z"};
+    private static final int[] ROTATION_COLUMNS = {SensorSeries.COS, SensorSeries.ACC,
+            SensorSeries.X, SensorSeries.Y, SensorSeries.Z};
+
+    /**
+     * Generates JSON presentation of TrackPart object
+     * @param part TrackPart object
+     * @return JSONObject representing of specified TrackPart object
+     */
+    public static JSONObject generateTrackPart(TrackPart part) {
+        Gson gson = new GsonBuilder().setExclusionStrategies(new LocationExclusionStrategy()).
+                registerTypeAdapter(Float.class, new JsonFloatSerializer(4)).
+                create();
+        JSONObject res = new JSONObject();
+        try {
+            res.put("uuid", part.uuid);
+            res.put("start", part.start);
+            res.put("end", part.end);
+            res.put("partNum", part.partNum);
+            res.put("partStart", part.partStart);
+            res.put("partEnd", part.partEnd);
+            res.put("partCount", part.partCount);
+            res.put("segment", part.segment);
+            res.put("sensorDataRate", part.sensorDataRate);
+            res.put("accelerationDelta", part.accelerationDelta);
+            res.put("gyroscopeDelta", part.gyroscopeDelta);
+            res.put("compassDelta", part.compassDelta);
+            res.put("rotationDelta", part.rotationDelta);
+            res.put("gravityDelta", part.gravityDelta);
+            res.put("altitudeDelta", part.altitudeDelta);
+            res.put("locationDelta", part.locationDelta);
+
+            putSeries(part.acceleration, "acceleration", res);
+            putSeries(part.gyroscope, "gyroscope", res);
+            putSeries(part.compass, "compass", res);
+            putSeries(part.rotation, "rotation", res);
+            putSeries(part.gravity, "gravity", res);
+            putSeries(part.altitude, "altitude", res);
+            putSeries(part.location, "location", res);
+            putArray(part.events, "events", gson, res);
+            //phone info;
+            JSONObject terminal = new JSONObject(gson.toJson(part.terminal));
+            res.put("terminal", terminal);
+        }
+        catch (Exception e) {
+            //document is cut at failed member, null terminal is skipped this way
+        }
+        return res;
+    }
+
+    private static void putArray(List<? extends TimeData> list, String key, Gson gson, JSONObject res)
+            throws JSONException {
+        if (!list.isEmpty()) {
+            JSONArray eventsJson = new JSONArray(gson.toJson(list));
+            res.put(key, eventsJson);
+        }
+    }
+
+    /**
+     * Puts JSON array of series samples to result object. Samples have the same presentation
+     * as SensorData (3 columns) or RotationVector (5 columns) objects serialized by Gson.
+     * @param series sensor data series
+     * @param key key of array in result object
+     * @param res result object
+     * @throws IOException
+     * @throws JSONException
+     */
+    private static void putSeries(SensorSeries series, String key, JSONObject res)
+            throws IOException, JSONException {
+        if (!series.isEmpty()) {
+            //Gson field order: subclass fields first, then superclass fields
+            String[] names = series.getColumns() == 5 ? ROTATION_FIELDS : SENSOR_FIELDS;
+            int[] columns = series.getColumns() == 5 ? ROTATION_COLUMNS : SENSOR_COLUMNS;
+            StringWriter sw = new StringWriter();
+            JsonWriter writer = new JsonWriter(sw);
+            writer.beginArray();
+            for (int i = 0; i < series.size(); i++) {
+                writer.beginObject();
+                for (int c = 0; c < columns.length; c++) {
+                    writer.name(names[c]);
+                    writeFloat(writer, series.get(i, columns[c]));
+                }
+                writer.name("t").value(series.getTime(i));
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.close();
+            res.put(key, new JSONArray(sw.toString()));
+        }
+    }
+
+    /**
+     * Puts JSON array of location samples to result object, in presentation of LocationData objects.
+     * @param series location series
+     * @param key key of array in result object
+     * @param res result object
+     * @throws IOException
+     * @throws JSONException
+     */
+    private static void putSeries(LocationSeries series, String key, JSONObject res)
+            throws IOException, JSONException {
+        if (!series.isEmpty()) {
+            StringWriter sw = new StringWriter();
+            JsonWriter writer = new JsonWriter(sw);
+            writer.setLenient(true);
+            writer.beginArray();
+            for (int i = 0; i < series.size(); i++) {
+                writer.beginObject();
+                writer.name("x").value(series.getX(i));
+                writer.name("y").value(series.getY(i));
+                writer.name("z").value(series.getZ(i));
+                writer.name("s").value(series.getS(i));
+                writer.name("t").value(series.getTime(i));
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.close();
+            res.put(key, new JSONArray(sw.toString()));
+        }
+    }
+
+    /**
+     * Generates String (JSON) presentation of TrackData object
+     * @param trackData TrackData object
+     * @return JSON presentation
+     */
+    public static String generateTrack(TrackData trackData) {
+        Gson gson = new GsonBuilder().setExclusionStrategies(new LocationExclusionStrategy()).
+                registerTypeAdapter(Float.class, new JsonFloatSerializer(4)).
+                create();
+        JSONObject res = new JSONObject();
+        try {
+            res.put("uuid", trackData.uuid);
+            res.put("start", trackData.start);
+            res.put("end", trackData.end);
+            res.put("partCount", trackData.partCount);
+            res.put("segment", trackData.segment);
+            res.put("sensorDataRate", trackData.sensorDataRate);
+            res.put("accelerationDelta", trackData.accelerationDelta);
+            res.put("gyroscopeDelta", trackData.gyroscopeDelta);
+            res.put("compassDelta", trackData.compassDelta);
+            res.put("rotationDelta", trackData.rotationDelta);
+            res.put("altitudeDelta", trackData.altitudeDelta);
+            res.put("locationDelta", trackData.locationDelta);
+            res.put("gravityDelta", trackData.gravityDelta);
+
+            putSeries(trackData.linearAcc, "linearAcc", res);
+
+            putSeries(trackData.acceleration, "acceleration", res);
+            putSeries(trackData.gyroscope, "gyroscope", res);
+            putSeries(trackData.compass, "compass", res);
+            putSeries(trackData.rotation, "rotation", res);
+            putSeries(trackData.gravity, "gravity", res);
+            putSeries(trackData.altitude, "altitude", res);
+            putSeries(trackData.location, "location", res);
+            putArray(trackData.events, "events", gson, res);
+            //phone info;
+            JSONObject terminal = new JSONObject(gson.toJson(trackData.terminal));
+            res.put("terminal", terminal);
+        }
+        catch (Exception e) {
+            //document is cut at failed member, null terminal is skipped this way
+        }
+        return res.toString();
+    }
+
+    private static void writeFloat(JsonWriter out, float value) throws IOException {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            out.value("NaN");
+        }
+        else {
+            out.value(BigDecimal.valueOf(value).setScale(4, RoundingMode.HALF_EVEN));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package cselp.sensortrack.util;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.bean.PhoneInfo;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackEvent;
+
+/**
+ * Byte-for-byte compatibility of streaming JSON writer with former JSONObject based output.
+ * Runs on device, as reference output depends on Android org.json implementation.
+ */
+public class TrackJsonWriterTest extends TestCase {
+
+    public void testSameAsGenerateTrack() throws Exception {
+        TrackData track = createTrack(3000);
+        assertSameOutput(track);
+    }
+
+    public void testSpecialValues() throws Exception {
+        TrackData track = createTrack(0);
+        float[] values = {0f, -0f, 1f, -1f, 0.5f, 0.00005f, 0.00015f, 0.00049f, -0.0005f, 12345.678f,
+                1e7f, 3e10f, Float.NaN, Float.POSITIVE_INFINITY, Float.MIN_VALUE, 0.1f, 2.00005f};
+        long t = track.start;
+        for (float v : values) {
+            t++;
+            track.acceleration.add(t, v, -v, v * 3);
+            track.rotation.add(t, v, 0.25f, -v, v / 7, -1f);
+        }
+        track.location.add(t, 30.1234567, 59.9, -0.0, 0);
+        track.location.add(t + 1, 30, -59.000001, 1e-7, 1e22);
+        track.terminal = new PhoneInfo("6.0/\"x\"", "MMB\\29M", "Nexus\t5\u0001", "\u041b\u0413 \ud83d\ude00");
+        assertSameOutput(track);
+    }
+
+    public void testEmptyTrackWithoutTerminal() throws Exception {
+        TrackData track = new TrackData();
+        track.start = 1;
+        track.end = 2;
+        assertSameOutput(track);
+    }
+
+    private static void assertSameOutput(TrackData track) throws Exception {
+        byte[] expected = LegacyTrackJson.generateTrack(track).getBytes("UTF-8");
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        JsonStreamWriter writer = new JsonStreamWriter(bos, 256);
+        TrackJsonWriter.writeTrack(track, writer);
+        writer.close();
+        byte[] actual = bos.toByteArray();
+        if (!Arrays.equals(expected, actual)) {
+            fail("Output differs:\nexpected " + new String(expected, "UTF-8") + "\nactual   " + new String(actual, "UTF-8"));
+        }
+    }
+
+    static TrackData createTrack(int size) {
+        Random random = new Random(size);
+        PhoneInfo phone = new PhoneInfo("6.0.1", "MMB29M", "Nexus 5", "LGE");
+        phone.setDeviceId("358240051111110");
+        TrackData track = new TrackData(phone);
+        track.start = 1470000000000L;
+        track.partCount = 3;
+        track.segment = 2;
+        track.sensorDataRate = 1;
+        long t = track.start;
+        for (int i = 0; i < size; i++) {
+            t += 5 + random.nextInt(20);
+            track.acceleration.add(t, (float) random.nextGaussian(), (float) random.nextGaussian(),
+                    9.81f + (float) random.nextGaussian() / 100);
+            if (i % 2 == 0) {
+                track.linearAcc.add(t, (float) random.nextGaussian(), random.nextFloat(), -random.nextFloat());
+                track.gyroscope.add(t, random.nextFloat() / 1000, random.nextFloat(), random.nextFloat());
+                track.gravity.add(t, random.nextFloat(), random.nextFloat(), 9.8f);
+            }
+            if (i % 3 == 0) {
+                track.compass.add(t, random.nextFloat() * 50, -random.nextFloat() * 50, 40);
+                track.rotation.add(t, random.nextFloat(), random.nextFloat(), random.nextFloat(),
+                        random.nextFloat(), -1);
+            }
+            if (i % 10 == 0) {
+                track.altitude.add(t, random.nextFloat(), 120 + random.nextFloat(), 998 + random.nextFloat());
+                track.location.add(t, 30 + random.nextDouble(), 59 + random.nextDouble(),
+                        random.nextInt(100), random.nextDouble() * 20);
+            }
+            if (i % 500 == 0) {
+                track.events.add(new TrackEvent(t, Const.TrackEventType.values()[random.nextInt(5)]));
+            }
+        }
+        track.end = t;
+        return track;
+    }
+}
@@ -0,0 +1,57 @@
+package cselp.sensortrack.util;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackPart;
+
+/**
+ * Compatibility of TrackPartEncoder with former JSONObject based part presentation
+ * and comparison of their speed.
+ * Runs on device, as reference output depends on Android org.json implementation.
+ */
+public class TrackPartEncoderTest extends TestCase {
+
+    public void testSameAsGenerateTrackPart() throws Exception {
+        TrackData track = TrackJsonWriterTest.createTrack(5500);
+        TrackPartEncoder encoder = new TrackPartEncoder();
+        for (TrackPart part : DataUtil.getTrackParts(track)) {
+            //JsonObjectRequest sends body as toString() of request object
+            byte[] expected = LegacyTrackJson.generateTrackPart(part).toString().getBytes("UTF-8");
+            byte[] actual = encoder.encode(part);
+            if (!Arrays.equals(expected, actual)) {
+                fail("Part " + part.partNum + " differs:\nexpected " + new String(expected, "UTF-8")
+                        + "\nactual   " + new String(actual, "UTF-8"));
+            }
+        }
+    }
+
+    public void testPartsPerSecond() throws Exception {
+        List<TrackPart> parts = DataUtil.getTrackParts(TrackJsonWriterTest.createTrack(20000));
+        TrackPartEncoder encoder = new TrackPartEncoder();
+        int rounds = 5;
+        long old = 0, encoded = 0;
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            for (TrackPart part : parts) {
+                LegacyTrackJson.generateTrackPart(part).toString().getBytes("UTF-8");
+            }
+            long t1 = System.nanoTime();
+            for (TrackPart part : parts) {
+                encoder.encode(part);
+            }
+            long t2 = System.nanoTime();
+            //skip first (warm up) round
+            if (r > 0) {
+                old += t1 - t0;
+                encoded += t2 - t1;
+            }
+        }
+        long count = (long) parts.size() * (rounds - 1);
+        System.out.println("Track part encoding: JSONObject " + count * 1000000000L / old
+                + " parts/sec, TrackPartEncoder " + count * 1000000000L / encoded + " parts/sec");
+    }
+}
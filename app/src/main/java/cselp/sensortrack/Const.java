@@ -21,16 +21,93 @@ public class Const {
 
     public static final int TRACK_PART_STEP = 1000;
     public static final int MAX_ACCELERATION_LIST_SIZE = 40000;
+    //capacity of ring buffer between sensor delivery and track processing threads
+    public static final int SENSOR_QUEUE_CAPACITY = 8192;
 
     public static final String APPLICATION_SETTINGS = "SENSOR_TRACK_APPLICATION_SETTINGS";
     public static final String TRACK_SERVER_URL_KEY = "TRACK_SERVER_URL_KEY";
     public static final String SENSOR_DELAY_KEY = "SENSOR_DELAY_KEY";
     public static final String ACCELERATION_DELTA_KEY = "ACCELERATION_DELTA_KEY";
+    public static final String TRACK_LOG_FLUSH_INTERVAL_KEY = "TRACK_LOG_FLUSH_INTERVAL_KEY";
+    //interval of track log flushes to storage, in ms of track time
+    public static final long TRACK_LOG_FLUSH_INTERVAL = 2000;
+    public static final int TRACK_LOG_BUFFER_SIZE = 64 * 1024;
+    //type of sample filter, see SampleFilters; setting key is suffixed by stream identifier
+    public static final String SAMPLE_FILTER_KEY = "SAMPLE_FILTER_KEY";
+    public static final String SAMPLE_FILTER = "deadband";
+    //window size of online RDP filter, max delay of stored samples
+    public static final int RDP_WINDOW = 64;
+    //max report latency of sensor events, microseconds; if not 0, events are batched in hardware FIFO
+    //and delivered in bursts. Burst of all sensors has to fit SENSOR_QUEUE_CAPACITY
+    public static final String SENSOR_REPORT_LATENCY_KEY = "SENSOR_REPORT_LATENCY_KEY";
+    public static final int SENSOR_REPORT_LATENCY = 0;
+    //max wait for delivery of batched events on track stop, ms
+    public static final long SENSOR_FLUSH_TIMEOUT = 2000;
+    //interval of sampling of wall clock offset from boot time, ms, see SensorClock
+    public static final long CLOCK_SYNC_INTERVAL = 60000;
+    //max rate of wall clock offset correction, ns per ms (ppm)
+    public static final long CLOCK_MAX_SLEW_PPM = 500;
+    //period of grid of resampled frames, ms (50 Hz), see TrackResampler
+    public static final long RESAMPLE_PERIOD = 20;
+    //max delay of resampled frame, streams lagging more hold last value; filters store samples at least so often
+    public static final long RESAMPLE_MAX_LAG = SENSOR_TIME_DELTA;
+    //adaptive sensor rate: accelerometer and gyroscope rate follows motion energy, see MotionRateController;
+    //not used when events are batched (SENSOR_REPORT_LATENCY_KEY > 0)
+    public static final String ADAPTIVE_RATE_KEY = "ADAPTIVE_RATE_KEY";
+    public static final boolean ADAPTIVE_RATE = false;
+    //sampling periods of low and high rate tiers, microseconds; normal tier is SENSOR_DELAY_KEY
+    public static final String SENSOR_DELAY_LOW_KEY = "SENSOR_DELAY_LOW_KEY";
+    public static final int SENSOR_DELAY_LOW = 500000; //2 Hz
+    public static final String SENSOR_DELAY_HIGH_KEY = "SENSOR_DELAY_HIGH_KEY";
+    public static final int SENSOR_DELAY_HIGH = 10000; //100 Hz
+    //motion energy (variance of acceleration magnitude) to enter normal and high tiers, (m/s^2)^2
+    public static final float MOTION_ENERGY_NORMAL = 0.01f;
+    public static final float MOTION_ENERGY_HIGH = 1.0f;
+    //time constant of motion energy averaging, ms
+    public static final long MOTION_ENERGY_WINDOW = 1000;
+    //time motion energy has to stay low before rate is lowered, ms
+    public static final long MOTION_RATE_HOLD_TIME = 5000;
+    //orientation fusion filter, see OrientationFilters; if set, gyroscope stream stores fused orientation
+    public static final String FUSION_FILTER_KEY = "FUSION_FILTER_KEY";
+    public static final String FUSION_FILTER = "none";
+    //time constant of complementary filter correction by accelerometer and magnetometer, ms
+    public static final long FUSION_TIME_CONSTANT = 1000;
+    //gradient step gain of Madgwick filter, rad/s
+    public static final float FUSION_MADGWICK_BETA = 0.1f;
+    //factor of compass, gravity and rotation vector tolerances when orientation is fused
+    public static final float FUSION_RAW_DELTA_FACTOR = 5;
+    public static final String UPLOAD_COMPRESSION_LEVEL_KEY = "UPLOAD_COMPRESSION_LEVEL_KEY";
+    //gzip level of uploaded track parts, 0 - no compression
+    public static final int UPLOAD_COMPRESSION_LEVEL = 6;
+    //format of uploaded track parts, setting key is suffixed by server url
+    public static final String UPLOAD_FORMAT_KEY = "UPLOAD_FORMAT_KEY";
+    public static final String UPLOAD_FORMAT_JSON = "json";
+    public static final String UPLOAD_FORMAT_BINARY = "binary";
+    public static final String UPLOAD_FORMAT = UPLOAD_FORMAT_JSON;
+    //directory of upload outbox in application files
+    public static final String OUTBOX_DIR = "outbox";
+    //size of parts appended to outbox which are forced to storage without waiting for sync
+    public static final int OUTBOX_SYNC_SIZE = 256 * 1024;
+    //max delay of outbox sync after change, in ms
+    public static final long OUTBOX_SYNC_DELAY = 1000;
+    //delays of upload retries, in ms
+    public static final long UPLOAD_RETRY_MIN_DELAY = 2000;
+    public static final long UPLOAD_RETRY_MAX_DELAY = 5 * 60 * 1000;
+    public static final String SERVER_HEALTH_TTL_KEY = "SERVER_HEALTH_TTL_KEY";
+    //max age of server ping result, in ms; parts are posted without ping while server is known healthy
+    public static final long SERVER_HEALTH_TTL = 60 * 1000;
+    public static final String UPLOAD_MAX_IN_FLIGHT_KEY = "UPLOAD_MAX_IN_FLIGHT_KEY";
+    //max count of part upload requests in flight
+    public static final int UPLOAD_MAX_IN_FLIGHT = 2;
+    //size of parts waiting for upload, which postpones cutting of new parts
+    public static final long UPLOAD_BACKLOG_SIZE = 4 * 1024 * 1024;
     //interval in which we want to get locations
     public static final long LOCATION_UPDATE_INTERVAL = 1000;  /* 1 secs */
     public static final long LOCATION_FASTEST_INTERVAL = 100; /* 0.1 sec */
 
     public static final String URL_ADD_TRACK_PART = "/track/part";
+    //url of multi-part requests, see ServerCapabilities.MAX_PARTS
+    public static final String URL_ADD_TRACK_PARTS = "/track/parts";
     public static final String URL_PING = "/ping";
 
     /**
@@ -44,6 +121,22 @@ public class Const {
         String COMMAND = "sensortrack.ACTION_COMMAND";
     }
 
+    /**
+     * Identifiers of track data streams, used in track files and binary formats.
+     */
+    public interface Stream {
+        int LINEAR_ACC = 0;
+        int ACCELERATION = 1;
+        int COMPASS = 2;
+        int GYROSCOPE = 3;
+        int GRAVITY = 4;
+        int ROTATION = 5;
+        int ALTITUDE = 6;
+        int LOCATION = 7;
+        int EVENTS = 8;
+        int COUNT = 9;
+    }
+
     /**
      * enumeration of allowed commands, see Actions.COMMAND
      */
@@ -58,7 +151,11 @@ public class Const {
         IRREGULARITY,
         HILL,
         STEP_UP,
-        STEP_DOWN
+        STEP_DOWN,
+        //sensor rate tier changes, see MotionRateController
+        RATE_LOW,
+        RATE_NORMAL,
+        RATE_HIGH
     }
 
 }
@@ -0,0 +1,109 @@
+package cselp.sensortrack.bean;
+
+import java.util.Arrays;
+
+/**
+ * Columnar time series of location data, replaces list of {@link LocationData}.
+ * Columns are double, to keep coordinates precision:
+ * x - longitude, y - latitude, z - altitude, s - speed.
+ */
+public class LocationSeries extends TimeSeries {
+    private static final long serialVersionUID = 7727903418831292012L;
+
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int Z = 2;
+    public static final int S = 3;
+    public static final int COLUMNS = 4;
+
+    //values[chunk][column][position]
+    private double[][][] values = new double[1][][];
+
+    /**
+     * Returns sample value
+     * @param i sample index
+     * @param column column index
+     * @return value
+     */
+    public double get(int i, int column) {
+        int j = i + offset;
+        return values[j >> CHUNK_SHIFT][column][j & CHUNK_MASK];
+    }
+
+    public double getX(int i) {
+        return get(i, X);
+    }
+
+    public double getY(int i) {
+        return get(i, Y);
+    }
+
+    public double getZ(int i) {
+        return get(i, Z);
+    }
+
+    public double getS(int i) {
+        return get(i, S);
+    }
+
+    /**
+     * Appends location sample.
+     * @param t timestamp
+     * @param x longitude
+     * @param y latitude
+     * @param z altitude
+     * @param s speed
+     */
+    public void add(long t, double x, double y, double z, double s) {
+        int i = append(t);
+        double[][] chunk = values[i >> CHUNK_SHIFT];
+        int pos = i & CHUNK_MASK;
+        chunk[X][pos] = x;
+        chunk[Y][pos] = y;
+        chunk[Z][pos] = z;
+        chunk[S][pos] = s;
+    }
+
+    /**
+     * Returns read-only view of range of samples, data is not copied.
+     * @param start start index, inclusive
+     * @param end end index, exclusive
+     * @return LocationSeries object sharing data with this series
+     */
+    public LocationSeries slice(int start, int end) {
+        LocationSeries res = new LocationSeries();
+        res.initView(this, start, end);
+        res.values = values;
+        return res;
+    }
+
+    @Override
+    public void addAll(TimeSeries from, int start, int end) {
+        LocationSeries s = (LocationSeries) from;
+        for (int i = start; i < end; i++) {
+            add(s.getTime(i), s.getX(i), s.getY(i), s.getZ(i), s.getS(i));
+        }
+    }
+
+    @Override
+    void growValueChunks(int chunks) {
+        values = Arrays.copyOf(values, chunks);
+    }
+
+    @Override
+    void allocateValues(int chunk, int capacity) {
+        values[chunk] = new double[COLUMNS][capacity];
+    }
+
+    @Override
+    void resizeValues(int chunk, int capacity) {
+        for (int c = 0; c < COLUMNS; c++) {
+            values[chunk][c] = Arrays.copyOf(values[chunk][c], capacity);
+        }
+    }
+
+    @Override
+    void clearValues() {
+        values = new double[1][][];
+    }
+}
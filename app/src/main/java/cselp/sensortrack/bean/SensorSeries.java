@@ -0,0 +1,146 @@
+package cselp.sensortrack.bean;
+
+import java.util.Arrays;
+
+/**
+ * Columnar time series of sensor data: timestamp and fixed count of float columns.
+ * Three columns (x, y, z) replace list of {@link SensorData},
+ * five columns (x, y, z, cos, acc) replace list of {@link RotationVector}.
+ */
+public class SensorSeries extends TimeSeries {
+    private static final long serialVersionUID = 7727903418831292011L;
+
+    public static final int X = 0;
+    public static final int Y = 1;
+    public static final int Z = 2;
+    //rotation vector columns
+    public static final int COS = 3;
+    public static final int ACC = 4;
+
+    private final int columns;
+    //values[chunk][column][position]
+    private float[][][] values = new float[1][][];
+
+    /**
+     * Constructor
+     * @param columns count of value columns
+     */
+    public SensorSeries(int columns) {
+        this.columns = columns;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns sample value
+     * @param i sample index
+     * @param column column index
+     * @return value
+     */
+    public float get(int i, int column) {
+        int j = i + offset;
+        return values[j >> CHUNK_SHIFT][column][j & CHUNK_MASK];
+    }
+
+    public float getX(int i) {
+        return get(i, X);
+    }
+
+    public float getY(int i) {
+        return get(i, Y);
+    }
+
+    public float getZ(int i) {
+        return get(i, Z);
+    }
+
+    /**
+     * Appends sample of three dimensional vector.
+     */
+    public void add(long t, float x, float y, float z) {
+        int i = append(t);
+        float[][] chunk = values[i >> CHUNK_SHIFT];
+        int pos = i & CHUNK_MASK;
+        chunk[X][pos] = x;
+        chunk[Y][pos] = y;
+        chunk[Z][pos] = z;
+    }
+
+    /**
+     * Appends sample of rotation vector.
+     */
+    public void add(long t, float x, float y, float z, float cos, float acc) {
+        int i = append(t);
+        float[][] chunk = values[i >> CHUNK_SHIFT];
+        int pos = i & CHUNK_MASK;
+        chunk[X][pos] = x;
+        chunk[Y][pos] = y;
+        chunk[Z][pos] = z;
+        chunk[COS][pos] = cos;
+        chunk[ACC][pos] = acc;
+    }
+
+    /**
+     * Appends sample, values of all columns are copied from array.
+     * @param t timestamp
+     * @param values array of at least columns values
+     */
+    public void add(long t, float[] values) {
+        int i = append(t);
+        float[][] chunk = this.values[i >> CHUNK_SHIFT];
+        int pos = i & CHUNK_MASK;
+        for (int c = 0; c < columns; c++) {
+            chunk[c][pos] = values[c];
+        }
+    }
+
+    /**
+     * Returns read-only view of range of samples, data is not copied.
+     * @param start start index, inclusive
+     * @param end end index, exclusive
+     * @return SensorSeries object sharing data with this series
+     */
+    public SensorSeries slice(int start, int end) {
+        SensorSeries res = new SensorSeries(columns);
+        res.initView(this, start, end);
+        res.values = values;
+        return res;
+    }
+
+    @Override
+    public void addAll(TimeSeries from, int start, int end) {
+        SensorSeries s = (SensorSeries) from;
+        for (int i = start; i < end; i++) {
+            int idx = append(s.getTime(i));
+            float[][] chunk = values[idx >> CHUNK_SHIFT];
+            int pos = idx & CHUNK_MASK;
+            for (int c = 0; c < columns; c++) {
+                chunk[c][pos] = s.get(i, c);
+            }
+        }
+    }
+
+    @Override
+    void growValueChunks(int chunks) {
+        values = Arrays.copyOf(values, chunks);
+    }
+
+    @Override
+    void allocateValues(int chunk, int capacity) {
+        values[chunk] = new float[columns][capacity];
+    }
+
+    @Override
+    void resizeValues(int chunk, int capacity) {
+        for (int c = 0; c < columns; c++) {
+            values[chunk][c] = Arrays.copyOf(values[chunk][c], capacity);
+        }
+    }
+
+    @Override
+    void clearValues() {
+        values = new float[1][][];
+    }
+}
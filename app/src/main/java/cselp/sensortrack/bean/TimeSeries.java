@@ -0,0 +1,174 @@
+package cselp.sensortrack.bean;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Base class of columnar (struct-of-arrays) time series container.
+ * Timestamps are stored in chunks of long[], values are stored by subclasses
+ * in chunked primitive arrays, one array per column.
+ * First chunk grows gradually to keep small series compact, next chunks are allocated
+ * with full size, so appending never copies previously stored data.
+ * Timestamps are expected to be in non-decreasing order.
+ * Slice of series is read-only view which shares chunks with source series, see {@link #initView}.
+ */
+public abstract class TimeSeries implements Serializable {
+    private static final long serialVersionUID = 7727903418831292010L;
+
+    static final int CHUNK_SHIFT = 10;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    long[][] time = new long[1][];
+    int size;
+    //index of first sample in chunks, not 0 for slice view
+    int offset;
+    //slice view shares chunks with source series and can not be appended
+    boolean view;
+
+    /**
+     * Returns count of samples.
+     * @return series size
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns sample timestamp
+     * @param i sample index
+     * @return timestamp, ms
+     */
+    public long getTime(int i) {
+        int j = i + offset;
+        return time[j >> CHUNK_SHIFT][j & CHUNK_MASK];
+    }
+
+    public long getFirstTime() {
+        return getTime(0);
+    }
+
+    public long getLastTime() {
+        return getTime(size - 1);
+    }
+
+    /**
+     * Finds end of samples with timestamp not greater than specified time, by binary search.
+     * @param t timestamp
+     * @param from start index of search
+     * @return index of first sample from start index with timestamp greater than t, size if there is no such sample
+     */
+    public int indexAfter(long t, int from) {
+        int low = from;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTime(mid) <= t) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public boolean isView() {
+        return view;
+    }
+
+    /**
+     * Removes all samples, allocated chunks are released. Cleared slice view becomes ordinary empty series.
+     */
+    public void clear() {
+        time = new long[1][];
+        size = 0;
+        offset = 0;
+        view = false;
+        clearValues();
+    }
+
+    /**
+     * Appends range of samples from other series of the same type.
+     * @param from source series
+     * @param start start index, inclusive
+     * @param end end index, exclusive
+     */
+    public abstract void addAll(TimeSeries from, int start, int end);
+
+    /**
+     * Makes this series read-only view of range of other series, value chunks are shared by subclass.
+     * Source series may be appended later: samples of range are never changed, and chunks replaced
+     * on growth keep the same values.
+     * @param from source series
+     * @param start start index, inclusive
+     * @param end end index, exclusive
+     */
+    void initView(TimeSeries from, int start, int end) {
+        if (start < 0 || end > from.size || start > end) {
+            throw new IndexOutOfBoundsException("Slice " + start + ".." + end + " of " + from.size);
+        }
+        time = from.time;
+        offset = from.offset + start;
+        size = end - start;
+        view = true;
+    }
+
+    /**
+     * Ensures capacity for next sample and stores its timestamp.
+     * @param t timestamp
+     * @return index of new sample
+     */
+    int append(long t) {
+        if (view) {
+            throw new IllegalStateException("Slice view is read-only");
+        }
+        int i = size;
+        int chunk = i >> CHUNK_SHIFT;
+        int pos = i & CHUNK_MASK;
+        if (chunk >= time.length) {
+            time = Arrays.copyOf(time, Math.max(time.length * 2, chunk + 1));
+            growValueChunks(time.length);
+        }
+        if (time[chunk] == null) {
+            int capacity = chunk == 0 ? INITIAL_CAPACITY : CHUNK_SIZE;
+            time[chunk] = new long[capacity];
+            allocateValues(chunk, capacity);
+        } else if (pos >= time[chunk].length) {
+            //only first chunk grows
+            int capacity = Math.min(time[chunk].length * 2, CHUNK_SIZE);
+            time[chunk] = Arrays.copyOf(time[chunk], capacity);
+            resizeValues(chunk, capacity);
+        }
+        time[chunk][pos] = t;
+        size++;
+        return i;
+    }
+
+    /**
+     * Resizes arrays of value chunk references.
+     * @param chunks new count of chunk references
+     */
+    abstract void growValueChunks(int chunks);
+
+    /**
+     * Allocates value arrays for specified chunk
+     * @param chunk chunk index
+     * @param capacity chunk capacity
+     */
+    abstract void allocateValues(int chunk, int capacity);
+
+    /**
+     * Resizes value arrays of specified chunk
+     * @param chunk chunk index
+     * @param capacity new chunk capacity
+     */
+    abstract void resizeValues(int chunk, int capacity);
+
+    abstract void clearValues();
+}
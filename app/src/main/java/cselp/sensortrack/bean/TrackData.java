@@ -10,6 +10,8 @@ import cselp.sensortrack.Const;
 
 /**
  * Container class to hold all track data from all sensors.
+ * Sensor streams are stored in columnar series, see {@link SensorSeries}.
+ * Streams are ordered by time, so time range of all streams is found by binary search, see {@link #slice}.
  */
 public class TrackData implements Serializable {
     private static final long serialVersionUID = 7727903418831292000L;
@@ -20,34 +22,37 @@ public class TrackData implements Serializable {
     //track end time
     public long end;
     public int partCount = -1;
+    //segment index, long tracks are recorded as sequence of segments with the same uuid
+    public int segment = 0;
+    //sensor delay setting; with adaptive rate it is rate of normal tier, tier changes are recorded as RATE_ events
     public int sensorDataRate = -1;
 
     //acceleration along each device axis, not including gravity
-    public List<SensorData> linearAcc = new ArrayList<>();
+    public SensorSeries linearAcc = new SensorSeries(3);
     //acceleration along each device axis, including gravity
-    public List<SensorData> acceleration = new ArrayList<>();
+    public SensorSeries acceleration = new SensorSeries(3);
     public float accelerationDelta = Const.ACCELERATION_DELTA;
     //geomagnetic field in the X, Y and Z axis, in micro-Tesla
-    public List<SensorData> compass = new ArrayList<>();
+    public SensorSeries compass = new SensorSeries(3);
     public float compassDelta = Const.COMPASS_DELTA;
     //gyroscope sensor values
-    public List<SensorData> gyroscope = new ArrayList<>();
+    public SensorSeries gyroscope = new SensorSeries(3);
     public float gyroscopeDelta = Const.GYROSCOPE_DELTA;
-    //SensorData contains three dimensional vector indicating the direction and magnitude of gravity
-    public List<SensorData> gravity = new ArrayList<>();
+    //three dimensional vector indicating the direction and magnitude of gravity
+    public SensorSeries gravity = new SensorSeries(3);
     public float gravityDelta = Const.GRAVITY_DELTA;
-    //rotation vector values
-    public List<RotationVector> rotation = new ArrayList<>();
+    //rotation vector values, columns x, y, z, cos, acc
+    public SensorSeries rotation = new SensorSeries(5);
     public float rotationDelta = Const.ROTATION_DELTA;
     /**
-     * SensorData contains: x - altitudeDelta,
+     * Series columns: x - altitudeDelta,
      * y - altitude, in meters,
      * z - Atmospheric pressure in hPa
      */
-    public List<SensorData> altitude = new ArrayList<>();
+    public SensorSeries altitude = new SensorSeries(3);
     public float altitudeDelta = Const.ALTITUDE_DELTA;
-    //location values
-    public List<LocationData> location = new ArrayList<>();
+    //location values, columns x - longitude, y - latitude, z - altitude, s - speed
+    public LocationSeries location = new LocationSeries();
     public double locationDelta = Const.LOCATION_DELTA;
 
     public List<TrackEvent> events = new ArrayList<>();
@@ -61,11 +66,112 @@ public class TrackData implements Serializable {
         this.terminal = phoneInfo;
     }
 
+    /**
+     * Returns series of specified stream.
+     * @param stream stream identifier, see Const.Stream
+     * @return series, null for events or unknown stream
+     */
+    public TimeSeries getSeries(int stream) {
+        switch (stream) {
+            case Const.Stream.LINEAR_ACC:
+                return linearAcc;
+            case Const.Stream.ACCELERATION:
+                return acceleration;
+            case Const.Stream.COMPASS:
+                return compass;
+            case Const.Stream.GYROSCOPE:
+                return gyroscope;
+            case Const.Stream.GRAVITY:
+                return gravity;
+            case Const.Stream.ROTATION:
+                return rotation;
+            case Const.Stream.ALTITUDE:
+                return altitude;
+            case Const.Stream.LOCATION:
+                return location;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns all streams in specified time range, e.g. data around track event.
+     * Time range of each stream is found by binary search, series of result are read-only views
+     * of series of this track, so data is not copied. Events are copied to own list, source list may grow.
+     * @param from start time, inclusive
+     * @param to end time, exclusive
+     * @return TrackData object with track metadata and streams in range
+     */
+    public TrackData slice(long from, long to) {
+        TrackData res = new TrackData();
+        res.initFrom(this);
+        res.linearAcc = slice(linearAcc, from, to);
+        res.acceleration = slice(acceleration, from, to);
+        res.compass = slice(compass, from, to);
+        res.gyroscope = slice(gyroscope, from, to);
+        res.gravity = slice(gravity, from, to);
+        res.rotation = slice(rotation, from, to);
+        res.altitude = slice(altitude, from, to);
+        res.location = slice(location, from, to);
+        int start = indexAfter(events, from - 1, 0);
+        res.events.addAll(events.subList(start, indexAfter(events, to - 1, start)));
+        return res;
+    }
+
+    private static SensorSeries slice(SensorSeries series, long from, long to) {
+        int start = series.indexAfter(from - 1, 0);
+        return series.slice(start, series.indexAfter(to - 1, start));
+    }
+
+    private static LocationSeries slice(LocationSeries series, long from, long to) {
+        int start = series.indexAfter(from - 1, 0);
+        return series.slice(start, series.indexAfter(to - 1, start));
+    }
+
+    /**
+     * Finds end of objects with timestamp not greater than specified time, by binary search.
+     * @param list list ordered by timestamp
+     * @param t timestamp
+     * @param from start index of search
+     * @param <T> class of list objects, extends TimeData
+     * @return index of first object from start index with timestamp greater than t, list size if there is no such object
+     */
+    public static <T extends TimeData> int indexAfter(List<T> list, long t, int from) {
+        int low = from;
+        int high = list.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (list.get(mid).t <= t) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Ends this segment at specified time and initializes next segment of the same track.
+     * @param next empty track object of next segment
+     * @param timestamp time of segment switch
+     * @param partCount count of track parts sent up to the end of this segment
+     */
+    public void rollOver(TrackData next, long timestamp, int partCount) {
+        end = timestamp;
+        this.partCount = partCount;
+        next.initFrom(this);
+        next.segment = segment + 1;
+        next.start = timestamp;
+        next.partCount = -1;
+    }
+
     public void initFrom(TrackData t) {
         uuid = t.uuid;
         start = t.start;
         end = t.end;
         partCount = t.partCount;
+        segment = t.segment;
         sensorDataRate = t.sensorDataRate;
         accelerationDelta = t.accelerationDelta;
         compassDelta = t.compassDelta;
@@ -5,7 +5,8 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class contains list of positions for all sensor data lists.
- * Used for filling of TrackPart object.
+ * Used for filling of TrackPart object. Positions mark data already cut into parts, not data
+ * received by server: cut parts are kept in upload outbox until server acknowledges them.
  */
 public class TrackPosition {
     public AtomicInteger partNum = new AtomicInteger(0);
@@ -35,4 +36,12 @@ public class TrackPosition {
         }
     }
 
+    public void copyData(TimeSeries from, TimeSeries to, AtomicInteger idx) {
+        int size = from.size();
+        if (idx.get() < size) {
+            int start = idx.getAndSet(size);
+            to.addAll(from, start, size);
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package cselp.sensortrack.filter;
+
+import cselp.sensortrack.bean.SensorSeries;
+
+/**
+ * Base class of sample filters: tolerance, max period between stored samples
+ * and count of compared dimensions.
+ */
+public abstract class AbstractSampleFilter implements SampleFilter {
+    protected float tolerance;
+    //max period between stored samples, sample is stored when period is exceeded
+    protected final long maxUnsavedPeriod;
+    //count of compared values, first columns of sample
+    protected final int dimension;
+    //count of stored values
+    protected final int columns;
+    //time of last stored sample
+    protected long storedTime;
+    protected boolean stored = false;
+
+    /**
+     * Constructor
+     * @param tolerance max error or deadband
+     * @param maxUnsavedPeriod max period between stored samples, ms
+     * @param dimension count of compared values
+     * @param columns count of values of target series
+     */
+    protected AbstractSampleFilter(float tolerance, long maxUnsavedPeriod, int dimension, int columns) {
+        this.tolerance = tolerance;
+        this.maxUnsavedPeriod = maxUnsavedPeriod;
+        this.dimension = dimension;
+        this.columns = columns;
+    }
+
+    @Override
+    public void setTolerance(float tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    @Override
+    public int flush(SensorSeries target) {
+        return 0;
+    }
+
+    @Override
+    public void clear() {
+        stored = false;
+        storedTime = 0;
+    }
+
+    /**
+     * Checks if max period from last stored sample is exceeded.
+     * @param t sample timestamp
+     * @return true if sample should be stored
+     */
+    protected boolean isExpired(long t) {
+        return !stored || t - storedTime >= maxUnsavedPeriod;
+    }
+
+    protected void store(SensorSeries target, long t, float[] values) {
+        target.add(t, values);
+        storedTime = t;
+        stored = true;
+    }
+
+    /**
+     * Returns Euclidean distance of compared dimensions.
+     */
+    protected float distance(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < dimension; i++) {
+            float d = a[i] - b[i];
+            sum += d * d;
+        }
+        return (float) Math.sqrt(sum);
+    }
+}
@@ -0,0 +1,72 @@
+package cselp.sensortrack.filter;
+
+import cselp.sensortrack.bean.SensorSeries;
+
+/**
+ * Deadband filter: sample is stored when its distance from last stored sample exceeds 'delta',
+ * or when maximum period between stored samples is exceeded.
+ * Optionally the previous (unchanged) sample is stored before changed one, so interpolation
+ * does not smear step changes over period of steady state.
+ */
+public class DeadbandFilter extends AbstractSampleFilter {
+    private final boolean storePrevious;
+    private long previousTime;
+    private final float[] previousData;
+    private boolean previousStored = true;
+    private long lastTime;
+    private final float[] lastData;
+    private boolean hasLast = false;
+    private boolean lastStored = true;
+    //values of last stored sample
+    private final float[] lastStoredData;
+
+    /**
+     * Constructor
+     * @param delta deadband, distance of compared dimensions
+     * @param maxUnsavedPeriod max period between stored samples, ms
+     * @param dimension count of compared values
+     * @param columns count of values of target series
+     * @param storePrevious store previous sample before changed one
+     */
+    public DeadbandFilter(float delta, long maxUnsavedPeriod, int dimension, int columns, boolean storePrevious) {
+        super(delta, maxUnsavedPeriod, dimension, columns);
+        this.storePrevious = storePrevious;
+        previousData = new float[columns];
+        lastData = new float[columns];
+        lastStoredData = new float[columns];
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        hasLast = false;
+        previousStored = true;
+        lastStored = true;
+    }
+
+    @Override
+    public int add(long t, float[] values, SensorSeries target) {
+        if (hasLast) {
+            previousTime = lastTime;
+            System.arraycopy(lastData, 0, previousData, 0, columns);
+            previousStored = lastStored;
+        }
+        lastTime = t;
+        System.arraycopy(values, 0, lastData, 0, columns);
+        hasLast = true;
+        lastStored = false;
+        if (!isExpired(t) && distance(lastStoredData, lastData) <= tolerance) {
+            return 0;
+        }
+        int count = 0;
+        if (storePrevious && !previousStored) {
+            target.add(previousTime, previousData);
+            previousStored = true;
+            count++;
+        }
+        store(target, lastTime, lastData);
+        lastStored = true;
+        System.arraycopy(lastData, 0, lastStoredData, 0, columns);
+        return count + 1;
+    }
+}
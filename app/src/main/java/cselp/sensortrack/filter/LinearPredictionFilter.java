@@ -0,0 +1,82 @@
+package cselp.sensortrack.filter;
+
+import cselp.sensortrack.bean.SensorSeries;
+
+/**
+ * Linear prediction filter: sample value is predicted by extrapolation of line through
+ * two last stored samples, sample is stored when its distance from prediction exceeds tolerance.
+ * Receiver which extrapolates the same way ({@link #extrapolate}) knows stream values within tolerance
+ * without delay. Linear interpolation between stored samples does not keep tolerance, error of interpolation
+ * can be several times larger.
+ */
+public class LinearPredictionFilter extends AbstractSampleFilter {
+    //two last stored samples, s1 is the latest
+    private long t0;
+    private final float[] s0;
+    private long t1;
+    private final float[] s1;
+    private boolean hasTwo = false;
+    private final float[] prediction;
+
+    /**
+     * Constructor
+     * @param tolerance max prediction error, distance of compared dimensions
+     * @param maxUnsavedPeriod max period between stored samples, ms
+     * @param dimension count of compared values
+     * @param columns count of values of target series
+     */
+    public LinearPredictionFilter(float tolerance, long maxUnsavedPeriod, int dimension, int columns) {
+        super(tolerance, maxUnsavedPeriod, dimension, columns);
+        s0 = new float[columns];
+        s1 = new float[columns];
+        prediction = new float[dimension];
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        hasTwo = false;
+    }
+
+    /**
+     * Reconstructs value of stream as it is predicted by filter: line through stored samples i - 1 and i
+     * is extrapolated to time t; value of sample i is held if it is the first one.
+     * @param stored series of stored samples
+     * @param i index of last stored sample not later than t
+     * @param t time of reconstructed value
+     * @param column column of value
+     * @return reconstructed value
+     */
+    public static float extrapolate(SensorSeries stored, int i, long t, int column) {
+        float s1 = stored.get(i, column);
+        if (i == 0) {
+            return s1;
+        }
+        long t0 = stored.getTime(i - 1);
+        long t1 = stored.getTime(i);
+        long span = t1 - t0;
+        float k = span > 0 ? (float) (t - t1) / span : 0;
+        return s1 + (s1 - stored.get(i - 1, column)) * k;
+    }
+
+    @Override
+    public int add(long t, float[] values, SensorSeries target) {
+        if (!isExpired(t)) {
+            long span = t1 - t0;
+            float k = hasTwo && span > 0 ? (float) (t - t1) / span : 0;
+            for (int i = 0; i < dimension; i++) {
+                prediction[i] = s1[i] + (s1[i] - s0[i]) * k;
+            }
+            if (distance(prediction, values) <= tolerance) {
+                return 0;
+            }
+        }
+        hasTwo = stored;
+        t0 = t1;
+        System.arraycopy(s1, 0, s0, 0, columns);
+        t1 = t;
+        System.arraycopy(values, 0, s1, 0, columns);
+        store(target, t, values);
+        return 1;
+    }
+}
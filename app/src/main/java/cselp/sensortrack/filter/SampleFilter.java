@@ -0,0 +1,43 @@
+package cselp.sensortrack.filter;
+
+import cselp.sensortrack.bean.SensorSeries;
+
+/**
+ * Strategy of sample compression: decides which samples of sensor stream are stored,
+ * to minimise volume of stored data while reconstruction error stays limited.
+ * Stream is reconstructed by linear interpolation between stored samples, except
+ * {@link LinearPredictionFilter}: its samples are reconstructed by extrapolation from two previous stored
+ * samples (see {@link LinearPredictionFilter#extrapolate}), tolerance does not hold for interpolation.
+ * Implementations keep state of single stream and do not allocate memory per sample.
+ */
+public interface SampleFilter {
+
+    /**
+     * Offers next sample of stream. Samples which should be stored are appended to target series,
+     * filter may store some of previously offered samples instead of (or together with) this one.
+     * @param t sample timestamp
+     * @param values sample values, array of at least target columns, only values of compared
+     *               dimensions are checked
+     * @param target series of stored samples
+     * @return count of appended samples
+     */
+    int add(long t, float[] values, SensorSeries target);
+
+    /**
+     * Appends samples held by filter at the end of stream, e.g. when track is stopped.
+     * @param target series of stored samples
+     * @return count of appended samples
+     */
+    int flush(SensorSeries target);
+
+    /**
+     * Sets max reconstruction error (deadband for {@link DeadbandFilter}).
+     * @param tolerance tolerance, in units of stream values
+     */
+    void setTolerance(float tolerance);
+
+    /**
+     * Drops filter state, next sample is stored.
+     */
+    void clear();
+}
@@ -0,0 +1,64 @@
+package cselp.sensortrack.filter;
+
+import cselp.sensortrack.Const;
+
+/**
+ * Factory of sample filters for track streams.
+ */
+public class SampleFilters {
+    //filter types, values of Const.SAMPLE_FILTER_KEY settings
+    public static final String DEADBAND = "deadband";
+    public static final String SWINGING_DOOR = "sdt";
+    public static final String RDP = "rdp";
+    //stream of this filter is reconstructed by extrapolation, see LinearPredictionFilter.extrapolate
+    public static final String LINEAR_PREDICTION = "prediction";
+
+    /**
+     * Creates filter of specified type for stream.
+     * Altitude stream is compared by altitude delta column only, rotation vector by x, y, z columns.
+     * Deadband filters of acceleration and gravity streams store previous sample before changed one.
+     * @param type filter type, unknown type means deadband
+     * @param stream stream identifier, see Const.Stream, except location and events
+     * @param tolerance max error or deadband
+     * @return SampleFilter object
+     */
+    public static SampleFilter create(String type, int stream, float tolerance) {
+        int dimension = stream == Const.Stream.ALTITUDE ? 1 : 3;
+        int columns = stream == Const.Stream.ROTATION ? 5 : 3;
+        long period = Const.SENSOR_TIME_DELTA;
+        if (SWINGING_DOOR.equals(type)) {
+            return new SwingingDoorFilter(tolerance, period, dimension, columns);
+        }
+        if (RDP.equals(type)) {
+            return new WindowedRdpFilter(tolerance, period, dimension, columns, Const.RDP_WINDOW);
+        }
+        if (LINEAR_PREDICTION.equals(type)) {
+            return new LinearPredictionFilter(tolerance, period, dimension, columns);
+        }
+        boolean storePrevious = stream == Const.Stream.ACCELERATION || stream == Const.Stream.LINEAR_ACC
+                || stream == Const.Stream.GRAVITY;
+        return new DeadbandFilter(tolerance, period, dimension, columns, storePrevious);
+    }
+
+    /**
+     * Returns default tolerance of stream, see Const deltas.
+     * @param stream stream identifier, see Const.Stream
+     * @return tolerance
+     */
+    public static float getDefaultTolerance(int stream) {
+        switch (stream) {
+            case Const.Stream.COMPASS:
+                return Const.COMPASS_DELTA;
+            case Const.Stream.GYROSCOPE:
+                return Const.GYROSCOPE_DELTA;
+            case Const.Stream.GRAVITY:
+                return Const.GRAVITY_DELTA;
+            case Const.Stream.ROTATION:
+                return Const.ROTATION_DELTA;
+            case Const.Stream.ALTITUDE:
+                return Const.ALTITUDE_DELTA;
+            default:
+                return Const.ACCELERATION_DELTA;
+        }
+    }
+}
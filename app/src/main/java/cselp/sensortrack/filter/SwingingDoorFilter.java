@@ -0,0 +1,141 @@
+package cselp.sensortrack.filter;
+
+import cselp.sensortrack.bean.SensorSeries;
+
+/**
+ * Swinging door trending (SDT) filter. For each compared dimension filter keeps "doors" -
+ * range of line slopes from last stored sample which pass within tolerance of all following samples.
+ * When doors of any dimension close, previous sample is stored and becomes new pivot.
+ * Stored value of previous sample is projected into doors, so every sample is reconstructed
+ * by linear interpolation with error not greater than tolerance in each dimension.
+ */
+public class SwingingDoorFilter extends AbstractSampleFilter {
+    //pivot, last stored sample
+    private long pivotTime;
+    private final float[] pivot;
+    //last offered sample
+    private long lastTime;
+    private final float[] last;
+    private boolean hasLast = false;
+    //door slopes of each dimension, per ms
+    private final double[] upper;
+    private final double[] lower;
+
+    /**
+     * Constructor
+     * @param tolerance max reconstruction error in each dimension
+     * @param maxUnsavedPeriod max period between stored samples, ms
+     * @param dimension count of compared values
+     * @param columns count of values of target series
+     */
+    public SwingingDoorFilter(float tolerance, long maxUnsavedPeriod, int dimension, int columns) {
+        super(tolerance, maxUnsavedPeriod, dimension, columns);
+        pivot = new float[columns];
+        last = new float[columns];
+        upper = new double[dimension];
+        lower = new double[dimension];
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        hasLast = false;
+    }
+
+    @Override
+    public int add(long t, float[] values, SensorSeries target) {
+        if (!stored) {
+            storePivot(target, t, values);
+            return 1;
+        }
+        int count = 0;
+        if (!isInDoors(t, values)) {
+            if (hasLast) {
+                //doors are closed, last sample is stored and becomes pivot
+                storeLast(target);
+                count++;
+            }
+            if (!isInDoors(t, values)) {
+                //sample at the time of pivot, out of tolerance
+                storePivot(target, t, values);
+                return count + 1;
+            }
+        }
+        narrowDoors(t, values);
+        lastTime = t;
+        System.arraycopy(values, 0, last, 0, columns);
+        hasLast = true;
+        if (isExpired(t)) {
+            storeLast(target);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public int flush(SensorSeries target) {
+        if (!hasLast) {
+            return 0;
+        }
+        //end of line
+        storeLast(target);
+        return 1;
+    }
+
+    /**
+     * Stores last sample as new pivot, its value is projected into doors.
+     */
+    private void storeLast(SensorSeries target) {
+        long dt = lastTime - pivotTime;
+        if (dt > 0) {
+            for (int i = 0; i < dimension; i++) {
+                double slope = (last[i] - pivot[i]) / (double) dt;
+                slope = Math.max(lower[i], Math.min(upper[i], slope));
+                last[i] = (float) (pivot[i] + slope * dt);
+            }
+        }
+        storePivot(target, lastTime, last);
+    }
+
+    private void storePivot(SensorSeries target, long t, float[] values) {
+        store(target, t, values);
+        pivotTime = t;
+        System.arraycopy(values, 0, pivot, 0, columns);
+        hasLast = false;
+        for (int i = 0; i < dimension; i++) {
+            upper[i] = Double.POSITIVE_INFINITY;
+            lower[i] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * Checks if sample keeps doors of all dimensions open.
+     */
+    private boolean isInDoors(long t, float[] values) {
+        long dt = t - pivotTime;
+        for (int i = 0; i < dimension; i++) {
+            if (dt <= 0) {
+                //sample at the time of pivot, no slope is defined
+                if (Math.abs(values[i] - pivot[i]) > tolerance) {
+                    return false;
+                }
+            }
+            else if (Math.max(lower[i], (values[i] - tolerance - pivot[i]) / (double) dt)
+                    > Math.min(upper[i], (values[i] + tolerance - pivot[i]) / (double) dt)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void narrowDoors(long t, float[] values) {
+        long dt = t - pivotTime;
+        if (dt <= 0) {
+            return;
+        }
+        for (int i = 0; i < dimension; i++) {
+            upper[i] = Math.min(upper[i], (values[i] + tolerance - pivot[i]) / (double) dt);
+            lower[i] = Math.max(lower[i], (values[i] - tolerance - pivot[i]) / (double) dt);
+        }
+    }
+}
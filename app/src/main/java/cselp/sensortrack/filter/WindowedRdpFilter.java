@@ -0,0 +1,170 @@
+package cselp.sensortrack.filter;
+
+import cselp.sensortrack.bean.SensorSeries;
+
+/**
+ * Online variant of Ramer-Douglas-Peucker simplification. Samples are collected in window
+ * which starts with last stored sample. When window is full, RDP is applied to it:
+ * vertices of simplified line are stored, except the window end, and window continues from last stored vertex.
+ * Error is distance of compared dimensions between sample and line at sample time, so every sample
+ * is reconstructed by linear interpolation with error not greater than tolerance.
+ * Samples are stored with delay up to window size, see {@link #flush(SensorSeries)}.
+ */
+public class WindowedRdpFilter extends AbstractSampleFilter {
+    private final int capacity;
+    //window samples, first one is stored
+    private final long[] times;
+    private final float[][] window;
+    private int count;
+    //vertices of simplified window and stack of RDP ranges
+    private final boolean[] keep;
+    private final int[] stack;
+
+    /**
+     * Constructor
+     * @param tolerance max reconstruction error, distance of compared dimensions
+     * @param maxUnsavedPeriod max period between stored samples, ms
+     * @param dimension count of compared values
+     * @param columns count of values of target series
+     * @param capacity window size, max delay of stored samples
+     */
+    public WindowedRdpFilter(float tolerance, long maxUnsavedPeriod, int dimension, int columns, int capacity) {
+        super(tolerance, maxUnsavedPeriod, dimension, columns);
+        this.capacity = Math.max(capacity, 3);
+        times = new long[this.capacity];
+        window = new float[this.capacity][columns];
+        keep = new boolean[this.capacity];
+        stack = new int[2 * this.capacity];
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        count = 0;
+    }
+
+    @Override
+    public int add(long t, float[] values, SensorSeries target) {
+        if (!stored) {
+            store(target, t, values);
+            times[0] = t;
+            System.arraycopy(values, 0, window[0], 0, columns);
+            count = 1;
+            return 1;
+        }
+        times[count] = t;
+        System.arraycopy(values, 0, window[count], 0, columns);
+        count++;
+        if (isExpired(t)) {
+            return flush(target);
+        }
+        if (count < capacity) {
+            return 0;
+        }
+        simplify();
+        int end = count - 1;
+        int last = 0;
+        for (int i = end - 1; i > 0; i--) {
+            if (keep[i]) {
+                last = i;
+                break;
+            }
+        }
+        if (last == 0) {
+            //whole window is within tolerance of single line
+            last = end;
+        }
+        int res = 0;
+        for (int i = 1; i <= last; i++) {
+            if (keep[i]) {
+                store(target, times[i], window[i]);
+                res++;
+            }
+        }
+        shift(last);
+        return res;
+    }
+
+    @Override
+    public int flush(SensorSeries target) {
+        if (count < 2) {
+            return 0;
+        }
+        simplify();
+        int res = 0;
+        for (int i = 1; i < count; i++) {
+            if (keep[i]) {
+                store(target, times[i], window[i]);
+                res++;
+            }
+        }
+        shift(count - 1);
+        return res;
+    }
+
+    /**
+     * Moves window start to specified sample.
+     */
+    private void shift(int start) {
+        for (int i = start; i < count; i++) {
+            int j = i - start;
+            times[j] = times[i];
+            float[] v = window[j];
+            window[j] = window[i];
+            window[i] = v;
+        }
+        count -= start;
+    }
+
+    /**
+     * Marks vertices of simplified window, window ends are always kept.
+     */
+    private void simplify() {
+        int end = count - 1;
+        for (int i = 0; i <= end; i++) {
+            keep[i] = false;
+        }
+        keep[0] = true;
+        keep[end] = true;
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = end;
+        while (top > 0) {
+            int to = stack[--top];
+            int from = stack[--top];
+            float max = 0;
+            int index = -1;
+            for (int i = from + 1; i < to; i++) {
+                float d = error(from, to, i);
+                if (d > max) {
+                    max = d;
+                    index = i;
+                }
+            }
+            if (index >= 0 && max > tolerance) {
+                keep[index] = true;
+                stack[top++] = from;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = to;
+            }
+        }
+    }
+
+    /**
+     * Returns distance between sample and line between window samples at sample time.
+     */
+    private float error(int from, int to, int i) {
+        long span = times[to] - times[from];
+        float k = span > 0 ? (float) (times[i] - times[from]) / span : 0;
+        float[] a = window[from];
+        float[] b = window[to];
+        float[] v = window[i];
+        float sum = 0;
+        for (int c = 0; c < dimension; c++) {
+            float d = a[c] + (b[c] - a[c]) * k - v[c];
+            sum += d * d;
+        }
+        return (float) Math.sqrt(sum);
+    }
+}
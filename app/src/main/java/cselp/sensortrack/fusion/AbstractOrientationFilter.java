@@ -0,0 +1,148 @@
+package cselp.sensortrack.fusion;
+
+import cselp.sensortrack.util.DataUtil;
+
+/**
+ * Base class of orientation filters: latest accelerometer and magnetometer samples, initialization
+ * of orientation from them and time steps of gyroscope samples.
+ */
+public abstract class AbstractOrientationFilter implements OrientationFilter {
+    //max time step of integration, ms; longer gaps (e.g. sensors paused) are skipped
+    protected static final long MAX_TIME_STEP = 1000;
+    //min magnitude of acceleration and of east vector to calculate orientation, see SensorManager.getRotationMatrix
+    private static final float MIN_ACCELERATION = 0.1f * 9.81f;
+    private static final float MIN_EAST = 0.1f;
+
+    //orientation quaternion: w, x, y, z
+    protected final double[] q = {1, 0, 0, 0};
+    protected final float[] acc = new float[3];
+    protected final float[] mag = new float[3];
+    protected boolean hasAcc = false;
+    protected boolean hasMag = false;
+    private boolean initialized = false;
+    private long lastTime;
+    //reusable buffer of rotation matrix
+    private final float[] matrix = new float[9];
+
+    @Override
+    public void updateAccelerometer(float ax, float ay, float az) {
+        acc[0] = ax;
+        acc[1] = ay;
+        acc[2] = az;
+        hasAcc = true;
+    }
+
+    @Override
+    public void updateMagnetometer(float mx, float my, float mz) {
+        mag[0] = mx;
+        mag[1] = my;
+        mag[2] = mz;
+        hasMag = true;
+    }
+
+    @Override
+    public void updateGyroscope(long t, float wx, float wy, float wz) {
+        if (!initialized) {
+            initialized = getAccMagOrientation(q);
+            lastTime = t;
+            return;
+        }
+        long dt = t - lastTime;
+        lastTime = t;
+        if (dt > 0 && dt <= MAX_TIME_STEP) {
+            step(dt / 1000.0, wx, wy, wz);
+        }
+    }
+
+    @Override
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    @Override
+    public void getQuaternion(double[] out) {
+        System.arraycopy(q, 0, out, 0, 4);
+    }
+
+    @Override
+    public void getOrientation(float[] values) {
+        DataUtil.quaternionToOrientation(q, values);
+    }
+
+    @Override
+    public void reset() {
+        initialized = false;
+        hasAcc = false;
+        hasMag = false;
+        q[0] = 1;
+        q[1] = 0;
+        q[2] = 0;
+        q[3] = 0;
+    }
+
+    /**
+     * Advances orientation by gyroscope sample and corrects it by latest accelerometer and magnetometer samples.
+     * @param dt time step, s
+     * @param wx angular speed around x axis, rad/s
+     * @param wy angular speed around y axis, rad/s
+     * @param wz angular speed around z axis, rad/s
+     */
+    protected abstract void step(double dt, float wx, float wy, float wz);
+
+    /**
+     * Calculates orientation of latest accelerometer and magnetometer samples,
+     * like SensorManager.getRotationMatrix.
+     * @param out output quaternion: w, x, y, z
+     * @return false if samples are missing or orientation is undefined (free fall, field along gravity)
+     */
+    protected boolean getAccMagOrientation(double[] out) {
+        if (!hasAcc || !hasMag) {
+            return false;
+        }
+        float ax = acc[0];
+        float ay = acc[1];
+        float az = acc[2];
+        float normA = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        //east = magnetic field x up
+        float hx = mag[1] * az - mag[2] * ay;
+        float hy = mag[2] * ax - mag[0] * az;
+        float hz = mag[0] * ay - mag[1] * ax;
+        float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        if (normA < MIN_ACCELERATION || normH < MIN_EAST) {
+            return false;
+        }
+        hx /= normH;
+        hy /= normH;
+        hz /= normH;
+        ax /= normA;
+        ay /= normA;
+        az /= normA;
+        //rows: east, north = up x east, up
+        matrix[0] = hx;
+        matrix[1] = hy;
+        matrix[2] = hz;
+        matrix[3] = ay * hz - az * hy;
+        matrix[4] = az * hx - ax * hz;
+        matrix[5] = ax * hy - ay * hx;
+        matrix[6] = ax;
+        matrix[7] = ay;
+        matrix[8] = az;
+        DataUtil.rotationMatrixToQuaternion(matrix, out);
+        return true;
+    }
+
+    /**
+     * Rotates quaternion by angular speed over time step, without normalization.
+     * @param q quaternion: w, x, y, z
+     * @param dt time step, s
+     */
+    protected static void integrate(double[] q, double dt, float wx, float wy, float wz) {
+        double speed = Math.sqrt(wx * wx + wy * wy + wz * wz);
+        if (speed == 0) {
+            return;
+        }
+        double thetaOverTwo = speed * dt / 2;
+        double k = Math.sin(thetaOverTwo) / speed;
+        DataUtil.rotateQuaternion(q, Math.cos(thetaOverTwo), k * wx, k * wy, k * wz);
+    }
+}
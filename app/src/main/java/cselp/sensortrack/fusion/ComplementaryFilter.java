@@ -0,0 +1,38 @@
+package cselp.sensortrack.fusion;
+
+import cselp.sensortrack.util.DataUtil;
+
+/**
+ * Complementary filter: orientation integrated from gyroscope is pulled towards orientation of accelerometer
+ * and magnetometer with time constant. Gyroscope defines orientation for changes faster than time constant,
+ * accelerometer and magnetometer for slower ones, so gyroscope drift is removed while accelerometer noise and
+ * short linear accelerations are smoothed.
+ */
+public class ComplementaryFilter extends AbstractOrientationFilter {
+    private final double timeConstant;
+    //reusable buffer of accelerometer and magnetometer orientation
+    private final double[] accMag = new double[4];
+
+    /**
+     * Constructor
+     * @param timeConstant time constant of correction, ms
+     */
+    public ComplementaryFilter(long timeConstant) {
+        this.timeConstant = timeConstant / 1000.0;
+    }
+
+    @Override
+    protected void step(double dt, float wx, float wy, float wz) {
+        integrate(q, dt, wx, wy, wz);
+        if (getAccMagOrientation(accMag)) {
+            double k = dt / (timeConstant + dt);
+            //q and -q are the same rotation, blend along shortest arc
+            double dot = q[0] * accMag[0] + q[1] * accMag[1] + q[2] * accMag[2] + q[3] * accMag[3];
+            double kAccMag = dot < 0 ? -k : k;
+            for (int i = 0; i < 4; i++) {
+                q[i] = (1 - k) * q[i] + kAccMag * accMag[i];
+            }
+        }
+        DataUtil.normalizeQuaternion(q);
+    }
+}
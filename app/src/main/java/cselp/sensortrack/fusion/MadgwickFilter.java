@@ -0,0 +1,111 @@
+package cselp.sensortrack.fusion;
+
+import cselp.sensortrack.util.DataUtil;
+
+/**
+ * Madgwick filter: rate of orientation from gyroscope is corrected by gradient descent step of error between
+ * measured gravity and magnetic field directions and their directions predicted by orientation.
+ * Step size beta is gyroscope error (rad/s) the filter compensates. Magnetic field reference is taken
+ * from measured field each step, so magnetic inclination does not need to be known and disturbances of field
+ * affect azimuth only.
+ * Algorithm is defined in world frame with x axis to magnetic north (north, west, up), orientation is
+ * converted from and to east-north-up frame of SensorManager around each step.
+ */
+public class MadgwickFilter extends AbstractOrientationFilter {
+    private static final double HALF_SQRT2 = Math.sqrt(0.5);
+    private final double beta;
+
+    /**
+     * Constructor
+     * @param beta gradient step gain, rad/s
+     */
+    public MadgwickFilter(float beta) {
+        this.beta = beta;
+    }
+
+    @Override
+    protected void step(double dt, float gx, float gy, float gz) {
+        //east-north-up to north-west-up: rotation by -90 degrees around z axis
+        double q0 = HALF_SQRT2 * (q[0] + q[3]);
+        double q1 = HALF_SQRT2 * (q[1] + q[2]);
+        double q2 = HALF_SQRT2 * (q[2] - q[1]);
+        double q3 = HALF_SQRT2 * (q[3] - q[0]);
+
+        //rate of change of quaternion from gyroscope
+        double qDot0 = 0.5 * (-q1 * gx - q2 * gy - q3 * gz);
+        double qDot1 = 0.5 * (q0 * gx + q2 * gz - q3 * gy);
+        double qDot2 = 0.5 * (q0 * gy - q1 * gz + q3 * gx);
+        double qDot3 = 0.5 * (q0 * gz + q1 * gy - q2 * gx);
+
+        double ax = acc[0];
+        double ay = acc[1];
+        double az = acc[2];
+        double mx = mag[0];
+        double my = mag[1];
+        double mz = mag[2];
+        double normA = Math.sqrt(ax * ax + ay * ay + az * az);
+        double normM = Math.sqrt(mx * mx + my * my + mz * mz);
+        if (hasAcc && hasMag && normA > 0 && normM > 0) {
+            ax /= normA;
+            ay /= normA;
+            az /= normA;
+            mx /= normM;
+            my /= normM;
+            mz /= normM;
+
+            double q0q0 = q0 * q0;
+            double q0q1 = q0 * q1;
+            double q0q2 = q0 * q2;
+            double q0q3 = q0 * q3;
+            double q1q1 = q1 * q1;
+            double q1q2 = q1 * q2;
+            double q1q3 = q1 * q3;
+            double q2q2 = q2 * q2;
+            double q2q3 = q2 * q3;
+            double q3q3 = q3 * q3;
+
+            //direction of magnetic field in world frame, reference has no west component
+            double hx = mx * (q0q0 + q1q1 - q2q2 - q3q3) + 2 * my * (q1q2 - q0q3) + 2 * mz * (q0q2 + q1q3);
+            double hy = 2 * mx * (q0q3 + q1q2) + my * (q0q0 - q1q1 + q2q2 - q3q3) + 2 * mz * (q2q3 - q0q1);
+            double bx = Math.sqrt(hx * hx + hy * hy);
+            double bz = 2 * mx * (q1q3 - q0q2) + 2 * my * (q0q1 + q2q3) + mz * (q0q0 - q1q1 - q2q2 + q3q3);
+
+            //errors of predicted gravity and magnetic field directions
+            double fax = 2 * (q1q3 - q0q2) - ax;
+            double fay = 2 * (q0q1 + q2q3) - ay;
+            double faz = 1 - 2 * (q1q1 + q2q2) - az;
+            double fmx = bx * (1 - 2 * (q2q2 + q3q3)) + 2 * bz * (q1q3 - q0q2) - mx;
+            double fmy = 2 * bx * (q1q2 - q0q3) + 2 * bz * (q0q1 + q2q3) - my;
+            double fmz = 2 * bx * (q0q2 + q1q3) + bz * (1 - 2 * (q1q1 + q2q2)) - mz;
+
+            //gradient of squared errors (transposed jacobian * errors)
+            double s0 = -2 * q2 * fax + 2 * q1 * fay
+                    - 2 * bz * q2 * fmx + 2 * (-bx * q3 + bz * q1) * fmy + 2 * bx * q2 * fmz;
+            double s1 = 2 * q3 * fax + 2 * q0 * fay - 4 * q1 * faz
+                    + 2 * bz * q3 * fmx + 2 * (bx * q2 + bz * q0) * fmy + 2 * (bx * q3 - 2 * bz * q1) * fmz;
+            double s2 = -2 * q0 * fax + 2 * q3 * fay - 4 * q2 * faz
+                    + 2 * (-2 * bx * q2 - bz * q0) * fmx + 2 * (bx * q1 + bz * q3) * fmy
+                    + 2 * (bx * q0 - 2 * bz * q2) * fmz;
+            double s3 = 2 * q1 * fax + 2 * q2 * fay
+                    + 2 * (-2 * bx * q3 + bz * q1) * fmx + 2 * (-bx * q0 + bz * q2) * fmy + 2 * bx * q1 * fmz;
+            double normS = Math.sqrt(s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3);
+            if (normS > 0) {
+                qDot0 -= beta * s0 / normS;
+                qDot1 -= beta * s1 / normS;
+                qDot2 -= beta * s2 / normS;
+                qDot3 -= beta * s3 / normS;
+            }
+        }
+        q0 += qDot0 * dt;
+        q1 += qDot1 * dt;
+        q2 += qDot2 * dt;
+        q3 += qDot3 * dt;
+
+        //north-west-up to east-north-up: rotation by 90 degrees around z axis
+        q[0] = HALF_SQRT2 * (q0 - q3);
+        q[1] = HALF_SQRT2 * (q1 - q2);
+        q[2] = HALF_SQRT2 * (q2 + q1);
+        q[3] = HALF_SQRT2 * (q3 + q0);
+        DataUtil.normalizeQuaternion(q);
+    }
+}
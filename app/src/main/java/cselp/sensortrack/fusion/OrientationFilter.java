@@ -0,0 +1,58 @@
+package cselp.sensortrack.fusion;
+
+/**
+ * Strategy of orientation fusion: gyroscope angular speed is integrated at sensor rate and its drift is
+ * corrected by accelerometer (direction of gravity) and magnetometer (direction of north).
+ * Orientation is rotation from device frame to world frame (x - east, y - north, z - up),
+ * as rotation matrix of SensorManager.getRotationMatrix.
+ * Implementations keep state of single device and do not allocate memory per sample. Not thread-safe.
+ */
+public interface OrientationFilter {
+
+    /**
+     * Sets latest accelerometer sample, used on next gyroscope sample.
+     * @param ax acceleration along x axis, m/s^2
+     * @param ay acceleration along y axis, m/s^2
+     * @param az acceleration along z axis, m/s^2
+     */
+    void updateAccelerometer(float ax, float ay, float az);
+
+    /**
+     * Sets latest magnetometer sample, used on next gyroscope sample.
+     * @param mx magnetic field along x axis, uT
+     * @param my magnetic field along y axis, uT
+     * @param mz magnetic field along z axis, uT
+     */
+    void updateMagnetometer(float mx, float my, float mz);
+
+    /**
+     * Advances orientation by gyroscope sample.
+     * @param t sample timestamp, ms
+     * @param wx angular speed around x axis, rad/s
+     * @param wy angular speed around y axis, rad/s
+     * @param wz angular speed around z axis, rad/s
+     */
+    void updateGyroscope(long t, float wx, float wy, float wz);
+
+    /**
+     * Checks if orientation is known, i.e. initial orientation was taken from accelerometer and magnetometer.
+     */
+    boolean isInitialized();
+
+    /**
+     * Copies orientation quaternion.
+     * @param q output array: w, x, y, z
+     */
+    void getQuaternion(double[] q);
+
+    /**
+     * Calculates orientation angles like SensorManager.getOrientation.
+     * @param values output array: [0] - azimuth, [1] - pitch, [2] - roll, rad
+     */
+    void getOrientation(float[] values);
+
+    /**
+     * Drops filter state, orientation is initialized again.
+     */
+    void reset();
+}
@@ -0,0 +1,28 @@
+package cselp.sensortrack.fusion;
+
+import cselp.sensortrack.Const;
+
+/**
+ * Factory of orientation fusion filters.
+ */
+public class OrientationFilters {
+    //filter types, values of Const.FUSION_FILTER_KEY settings
+    public static final String NONE = "none";
+    public static final String COMPLEMENTARY = "complementary";
+    public static final String MADGWICK = "madgwick";
+
+    /**
+     * Creates filter of specified type.
+     * @param type filter type
+     * @return OrientationFilter object, null for unknown type or NONE
+     */
+    public static OrientationFilter create(String type) {
+        if (COMPLEMENTARY.equals(type)) {
+            return new ComplementaryFilter(Const.FUSION_TIME_CONSTANT);
+        }
+        if (MADGWICK.equals(type)) {
+            return new MadgwickFilter(Const.FUSION_MADGWICK_BETA);
+        }
+        return null;
+    }
+}
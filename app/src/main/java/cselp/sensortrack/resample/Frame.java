@@ -0,0 +1,16 @@
+package cselp.sensortrack.resample;
+
+import cselp.sensortrack.Const;
+
+/**
+ * Values of all resampled streams at single time of grid, see {@link TrackResampler}.
+ * Frame object is reused by resampler, listener has to copy values it keeps.
+ */
+public class Frame {
+    //grid time, ms
+    public long t;
+    //values of streams indexed by stream identifier (see Const.Stream), null for streams not resampled
+    public final double[][] values = new double[Const.Stream.COUNT][];
+    //false if stream has no value at frame time, e.g. before its first sample
+    public final boolean[] valid = new boolean[Const.Stream.COUNT];
+}
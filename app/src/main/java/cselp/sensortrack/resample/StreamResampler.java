@@ -0,0 +1,116 @@
+package cselp.sensortrack.resample;
+
+/**
+ * State of single stream of TrackResampler: last sample and ring of values at grid times,
+ * which are not passed to frames yet. Memory does not depend on stream length.
+ */
+class StreamResampler {
+    //interpolation kinds
+    static final int LINEAR = 0;
+    //spherical linear interpolation of quaternion in columns x, y, z, cos; other columns are linear
+    static final int SLERP = 1;
+    //value of last sample not later than grid time
+    static final int HOLD = 2;
+    //quaternions closer than this are interpolated linearly and normalized
+    private static final double SLERP_THRESHOLD = 0.9995;
+
+    final int kind;
+    final int columns;
+    boolean started = false;
+    long lastTime;
+    final double[] last;
+    //index of next grid time to fill
+    long filled;
+    private final double[][] ring;
+    //reusable buffer of converted input values
+    final double[] input;
+
+    StreamResampler(int kind, int columns, int capacity) {
+        this.kind = kind;
+        this.columns = columns;
+        last = new double[columns];
+        input = new double[columns];
+        ring = new double[capacity][columns];
+    }
+
+    /**
+     * Returns ring slot of grid index.
+     */
+    double[] slot(long index) {
+        return ring[(int) (index % ring.length)];
+    }
+
+    void setLast(long t, double[] values) {
+        lastTime = t;
+        System.arraycopy(values, 0, last, 0, columns);
+    }
+
+    /**
+     * Completes input of SLERP stream: rotation vector without cos column has it calculated from x, y, z.
+     */
+    void prepareInput() {
+        if (kind == SLERP && input[3] == 0) {
+            input[3] = Math.sqrt(Math.max(0, 1 - input[0] * input[0] - input[1] * input[1] - input[2] * input[2]));
+        }
+    }
+
+    /**
+     * Calculates value at grid time between last sample and new one.
+     * @param g grid time, not earlier than last sample
+     * @param t time of new sample
+     * @param values values of new sample
+     * @param out output array
+     */
+    void interpolate(long g, long t, double[] values, double[] out) {
+        if (g >= t || t == lastTime) {
+            System.arraycopy(values, 0, out, 0, columns);
+            return;
+        }
+        if (kind == HOLD) {
+            System.arraycopy(last, 0, out, 0, columns);
+            return;
+        }
+        double k = (double) (g - lastTime) / (t - lastTime);
+        int from = 0;
+        if (kind == SLERP) {
+            slerp(last, values, k, out);
+            from = 4;
+        }
+        for (int c = from; c < columns; c++) {
+            out[c] = last[c] + (values[c] - last[c]) * k;
+        }
+    }
+
+    /**
+     * Interpolates unit quaternions (columns 0-3) along shortest arc.
+     */
+    static void slerp(double[] a, double[] b, double k, double[] out) {
+        double dot = a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3];
+        //q and -q are the same rotation
+        double sign = dot < 0 ? -1 : 1;
+        dot = Math.abs(dot);
+        double ka;
+        double kb;
+        if (dot > SLERP_THRESHOLD) {
+            ka = 1 - k;
+            kb = sign * k;
+        }
+        else {
+            double theta = Math.acos(dot);
+            double sin = Math.sin(theta);
+            ka = Math.sin((1 - k) * theta) / sin;
+            kb = sign * Math.sin(k * theta) / sin;
+        }
+        double norm = 0;
+        for (int c = 0; c < 4; c++) {
+            out[c] = ka * a[c] + kb * b[c];
+            norm += out[c] * out[c];
+        }
+        norm = Math.sqrt(norm);
+        if (norm > 0) {
+            for (int c = 0; c < 4; c++) {
+                out[c] /= norm;
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package cselp.sensortrack.resample;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.bean.LocationSeries;
+import cselp.sensortrack.bean.SensorSeries;
+import cselp.sensortrack.bean.TimeSeries;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.storage.TrackFile;
+
+/**
+ * Streaming resampler of track streams to aligned frames on fixed time grid (multiples of period).
+ * Vector streams are interpolated linearly, rotation vector quaternions by slerp, location holds last fix.
+ * Each stream fills values of grid times up to its last sample; frame is passed to listener when all started
+ * streams have value at frame time. Stream which lags more than maxLag behind others (e.g. deadband filter
+ * stores no samples while value does not change) holds its last value, so memory of each stream is
+ * bounded by maxLag / period values regardless of track length, and frames are delayed at most by maxLag.
+ * Samples are taken live by {@link #add(int, long, float[])} or from track, see {@link #resample(TrackData)}.
+ * Not thread-safe.
+ */
+public class TrackResampler {
+
+    /**
+     * Receiver of resampled frames.
+     */
+    public interface FrameListener {
+        /**
+         * Called for each grid time, in order.
+         * @param frame frame object, reused for next frames
+         */
+        void onFrame(Frame frame);
+    }
+
+    private final long period;
+    private final int capacity;
+    private final FrameListener listener;
+    private final StreamResampler[] streams = new StreamResampler[Const.Stream.COUNT];
+    private final Frame frame = new Frame();
+    private boolean framesStarted = false;
+    //grid index of next frame
+    private long nextFrame;
+    //source track of resample() and read positions of its streams
+    private TrackData source;
+    private final int[] positions = new int[Const.Stream.COUNT];
+
+    /**
+     * Constructor
+     * @param period grid period, ms
+     * @param maxLag max delay of frame after latest sample, ms
+     * @param streamIds identifiers of resampled streams, see Const.Stream, except events
+     * @param listener frames receiver
+     */
+    public TrackResampler(long period, long maxLag, int[] streamIds, FrameListener listener) {
+        this.period = Math.max(period, 1);
+        this.capacity = (int) (maxLag / this.period) + 1;
+        this.listener = listener;
+        for (int stream : streamIds) {
+            int kind = stream == Const.Stream.ROTATION ? StreamResampler.SLERP
+                    : stream == Const.Stream.LOCATION ? StreamResampler.HOLD : StreamResampler.LINEAR;
+            streams[stream] = new StreamResampler(kind, TrackFile.columns(stream), capacity);
+            frame.values[stream] = new double[TrackFile.columns(stream)];
+        }
+    }
+
+    /**
+     * Resampler of acceleration, gyroscope, gravity, rotation vector and location streams.
+     * @param period grid period, ms
+     * @param listener frames receiver
+     */
+    public TrackResampler(long period, FrameListener listener) {
+        this(period, Const.RESAMPLE_MAX_LAG, new int[]{Const.Stream.ACCELERATION, Const.Stream.GYROSCOPE,
+                Const.Stream.GRAVITY, Const.Stream.ROTATION, Const.Stream.LOCATION}, listener);
+    }
+
+    public long getPeriod() {
+        return period;
+    }
+
+    /**
+     * Adds sample of stream. Samples of each stream have to be ordered by time, earlier samples are ignored.
+     * @param stream stream identifier, see Const.Stream
+     * @param t sample time, ms
+     * @param values sample values
+     */
+    public void add(int stream, long t, float[] values) {
+        StreamResampler s = streams[stream];
+        if (s != null) {
+            for (int c = 0; c < s.columns; c++) {
+                s.input[c] = c < values.length ? values[c] : 0;
+            }
+            add(s, t);
+        }
+    }
+
+    /**
+     * Adds sample of stream with double values, e.g. location.
+     * @param stream stream identifier, see Const.Stream
+     * @param t sample time, ms
+     * @param values sample values
+     */
+    public void add(int stream, long t, double[] values) {
+        StreamResampler s = streams[stream];
+        if (s != null) {
+            for (int c = 0; c < s.columns; c++) {
+                s.input[c] = c < values.length ? values[c] : 0;
+            }
+            add(s, t);
+        }
+    }
+
+    /**
+     * Adds samples of track, which are added since previous call with the same track.
+     * Streams are merged by time, so lag of streams is small. Can be called repeatedly for growing track
+     * (live recording, on processing thread) or once for saved track; segments of one track are passed in order.
+     * @param track TrackData object
+     */
+    public void resample(TrackData track) {
+        if (track != source) {
+            source = track;
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = 0;
+            }
+        }
+        while (true) {
+            int next = -1;
+            long nextTime = Long.MAX_VALUE;
+            for (int stream = 0; stream < Const.Stream.COUNT; stream++) {
+                if (streams[stream] == null) {
+                    continue;
+                }
+                TimeSeries series = track.getSeries(stream);
+                int i = positions[stream];
+                if (i < series.size() && series.getTime(i) < nextTime) {
+                    next = stream;
+                    nextTime = series.getTime(i);
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            StreamResampler s = streams[next];
+            TimeSeries series = track.getSeries(next);
+            int i = positions[next]++;
+            for (int c = 0; c < s.columns; c++) {
+                s.input[c] = series instanceof LocationSeries ? ((LocationSeries) series).get(i, c)
+                        : ((SensorSeries) series).get(i, c);
+            }
+            add(s, nextTime);
+        }
+    }
+
+    /**
+     * Passes frames of remaining grid times, up to latest sample of any stream; lagging streams hold last value.
+     * Called at the end of track.
+     */
+    public void flush() {
+        long end = nextFrame;
+        for (StreamResampler s : streams) {
+            if (s != null && s.started) {
+                end = Math.max(end, s.filled);
+            }
+        }
+        while (nextFrame < end) {
+            emitFrame();
+        }
+    }
+
+    private void add(StreamResampler s, long t) {
+        s.prepareInput();
+        if (!s.started) {
+            s.started = true;
+            //first grid time not earlier than sample
+            s.filled = (t + period - 1) / period;
+            if (!framesStarted) {
+                framesStarted = true;
+                nextFrame = s.filled;
+            }
+            s.filled = Math.max(s.filled, nextFrame);
+            s.setLast(t, s.input);
+        }
+        else if (t < s.lastTime) {
+            return;
+        }
+        for (long k = s.filled; k * period <= t; k++) {
+            //ring is full, other streams lag too much
+            while (k - nextFrame >= capacity) {
+                emitFrame();
+            }
+            s.interpolate(k * period, t, s.input, s.slot(k));
+            s.filled = k + 1;
+        }
+        s.setLast(t, s.input);
+        emitReady();
+    }
+
+    /**
+     * Passes frames, which all started streams have values for.
+     */
+    private void emitReady() {
+        while (framesStarted) {
+            for (StreamResampler s : streams) {
+                if (s != null && s.started && s.filled <= nextFrame) {
+                    return;
+                }
+            }
+            emitFrame();
+        }
+    }
+
+    private void emitFrame() {
+        long k = nextFrame;
+        for (int stream = 0; stream < Const.Stream.COUNT; stream++) {
+            StreamResampler s = streams[stream];
+            if (s == null) {
+                continue;
+            }
+            frame.valid[stream] = s.started;
+            if (!s.started) {
+                continue;
+            }
+            if (s.filled > k) {
+                System.arraycopy(s.slot(k), 0, frame.values[stream], 0, s.columns);
+            }
+            else {
+                //stream lags, last value is held
+                System.arraycopy(s.last, 0, frame.values[stream], 0, s.columns);
+                s.filled = k + 1;
+            }
+        }
+        frame.t = k * period;
+        nextFrame++;
+        listener.onFrame(frame);
+    }
+}
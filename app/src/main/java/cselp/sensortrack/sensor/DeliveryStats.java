@@ -0,0 +1,74 @@
+package cselp.sensortrack.sensor;
+
+/**
+ * Counters of sensor event delivery. Events which arrive together (within BURST_GAP_NS of previous one)
+ * are counted as single delivery, so count of deliveries approximates count of application processor wakeups:
+ * without batching each event is delivered separately, with hardware FIFO batching events arrive in bursts.
+ * Latency is difference between arrival time and event time, back-dated events of batch have large latency.
+ * Not thread-safe, all methods are called from thread of sensor listener.
+ */
+public class DeliveryStats {
+    //max gap between arrivals of events of the same delivery
+    static final long BURST_GAP_NS = 1000000; //1 ms
+
+    private long eventCount;
+    private long deliveryCount;
+    private long flushCount;
+    private long lastArrival = Long.MIN_VALUE;
+    private long maxLatencyNs;
+
+    /**
+     * Counts event.
+     * @param eventTime event time, event.timestamp, ns
+     * @param arrivalTime arrival time in the same time base, ns
+     */
+    public void onEvent(long eventTime, long arrivalTime) {
+        eventCount++;
+        if (lastArrival == Long.MIN_VALUE || arrivalTime - lastArrival > BURST_GAP_NS) {
+            deliveryCount++;
+        }
+        lastArrival = arrivalTime;
+        maxLatencyNs = Math.max(maxLatencyNs, arrivalTime - eventTime);
+    }
+
+    /**
+     * Counts completed flush of sensor.
+     */
+    public void onFlushCompleted() {
+        flushCount++;
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    public long getDeliveryCount() {
+        return deliveryCount;
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    public long getMaxLatencyMs() {
+        return maxLatencyNs / 1000000;
+    }
+
+    /**
+     * Returns counters as text, deliveries are also given per hour.
+     * @param durationMs recording duration, ms
+     */
+    public String toString(long durationMs) {
+        long perHour = durationMs > 0 ? deliveryCount * 3600000 / durationMs : 0;
+        return "events " + eventCount + ", deliveries " + deliveryCount + " (" + perHour + "/hour), max latency "
+                + getMaxLatencyMs() + " ms";
+    }
+
+    public void reset() {
+        eventCount = 0;
+        deliveryCount = 0;
+        flushCount = 0;
+        lastArrival = Long.MIN_VALUE;
+        maxLatencyNs = 0;
+    }
+}
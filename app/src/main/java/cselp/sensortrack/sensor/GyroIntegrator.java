@@ -0,0 +1,78 @@
+package cselp.sensortrack.sensor;
+
+import cselp.sensortrack.util.DataUtil;
+
+/**
+ * Integrates gyroscope angular speed into device orientation.
+ * Orientation is kept as unit quaternion (w, x, y, z) updated in place, so integration does not allocate memory;
+ * quaternion corresponds to rotation matrix of SensorManager.getRotationMatrix (device to world frame).
+ * Rounding errors of repeated multiplications are removed by renormalization every RENORMALIZE_INTERVAL steps.
+ * Integration is open-loop, orientation drifts with gyroscope bias; see fusion filters for drift correction.
+ * Not thread-safe.
+ */
+public class GyroIntegrator {
+    //count of integration steps between renormalizations
+    static final int RENORMALIZE_INTERVAL = 64;
+
+    /**
+     * Angular speed, below which rotation axis is not normalized, to suppress gyroscope noise, rad/s.
+     * Values from the gyroscope are usually between 0 (stop) and 10 (rapid rotation), noise is usually
+     * smaller than 0.1. Slow rotation is then integrated with reduced angle.
+     */
+    private static final double EPSILON = 0.1f;
+
+    private final double[] q = {1, 0, 0, 0};
+    private int steps = 0;
+
+    /**
+     * Sets orientation from rotation matrix.
+     * @param r rotation matrix 3*3, e.g. from SensorManager.getRotationMatrix
+     */
+    public void setRotationMatrix(float[] r) {
+        DataUtil.rotationMatrixToQuaternion(r, q);
+        steps = 0;
+    }
+
+    /**
+     * Rotates orientation by angular speed over time step.
+     * @param wx angular speed around x axis, rad/s
+     * @param wy angular speed around y axis, rad/s
+     * @param wz angular speed around z axis, rad/s
+     * @param dt time step, s
+     */
+    public void integrate(float wx, float wy, float wz, float dt) {
+        double axisX = wx;
+        double axisY = wy;
+        double axisZ = wz;
+        double speed = Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+        if (speed > EPSILON) {
+            axisX /= speed;
+            axisY /= speed;
+            axisZ /= speed;
+        }
+        //delta rotation quaternion of axis-angle
+        double thetaOverTwo = speed * dt / 2;
+        double sin = Math.sin(thetaOverTwo);
+        DataUtil.rotateQuaternion(q, Math.cos(thetaOverTwo), sin * axisX, sin * axisY, sin * axisZ);
+        if (++steps >= RENORMALIZE_INTERVAL) {
+            steps = 0;
+            DataUtil.normalizeQuaternion(q);
+        }
+    }
+
+    /**
+     * Calculates orientation angles like SensorManager.getOrientation of rotation matrix.
+     * @param values output array: [0] - azimuth, [1] - pitch, [2] - roll, rad
+     */
+    public void getOrientation(float[] values) {
+        DataUtil.quaternionToOrientation(q, values);
+    }
+
+    /**
+     * Copies orientation quaternion.
+     * @param out output array: w, x, y, z
+     */
+    public void getQuaternion(double[] out) {
+        System.arraycopy(q, 0, out, 0, 4);
+    }
+}
@@ -4,6 +4,9 @@ import android.location.Location;
 
 /**
  * Interface of sensor data consumer.
+ * Value arrays passed to consumer methods are owned by the producer and reused
+ * between calls to avoid per-event allocations. Consumer must copy required values
+ * before return and must not keep references to supplied arrays.
  */
 
 public interface ISensorConsumer {
@@ -11,8 +14,10 @@ public interface ISensorConsumer {
     /**
      * Method to consume values from gyroscope sensor.
      * Gyroscope values recalculated into orientation values by SensorListener.
+     * Values array contains : 0-2 - orientation (azimuth, pitch, roll), rad, 3-5 - initial values
+     * (angular speed around x, y, z axis), rad/s
      * @param timestamp event timestamp, ms
-     * @param values array of orientation values.
+     * @param values array of orientation and angular speed values.
      */
     void setGyroscopeValues(long timestamp, float[] values);
 
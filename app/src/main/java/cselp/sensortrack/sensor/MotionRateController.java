@@ -0,0 +1,125 @@
+package cselp.sensortrack.sensor;
+
+/**
+ * Chooses sensor rate tier from motion energy - variance of acceleration vector (sum of variances
+ * of all axes) over short window, so vibrations across gravity are seen as well as along it.
+ * Mean and variance are exponential moving averages with time constant of window, so each sample
+ * is processed in constant time without allocations.
+ * Rate is raised as soon as energy exceeds threshold of higher tier. Rate is lowered only when energy
+ * stays below half of the tier threshold for hold time, so rate does not flap around threshold.
+ */
+public class MotionRateController {
+    public static final int TIER_LOW = 0;
+    public static final int TIER_NORMAL = 1;
+    public static final int TIER_HIGH = 2;
+    //energy to leave tier down is this part of energy to enter it
+    static final float HYSTERESIS = 0.5f;
+
+    private final float normalEnergy;
+    private final float highEnergy;
+    private final long window;
+    private final long holdTime;
+
+    private int tier = TIER_NORMAL;
+    private boolean started = false;
+    private long lastTime;
+    private float meanX;
+    private float meanY;
+    private float meanZ;
+    private float energy;
+    //start of period in which energy is below threshold of current tier, -1 if it is not
+    private long calmSince = -1;
+
+    /**
+     * Constructor
+     * @param normalEnergy energy to switch from low to normal tier, (m/s^2)^2
+     * @param highEnergy energy to switch to high tier, (m/s^2)^2
+     * @param window time constant of energy averaging, ms
+     * @param holdTime time energy has to stay low before rate is lowered, ms
+     */
+    public MotionRateController(float normalEnergy, float highEnergy, long window, long holdTime) {
+        this.normalEnergy = normalEnergy;
+        this.highEnergy = highEnergy;
+        this.window = Math.max(window, 1);
+        this.holdTime = holdTime;
+    }
+
+    /**
+     * Processes acceleration sample.
+     * @param t sample time, ms
+     * @param x acceleration along x axis, m/s^2
+     * @param y acceleration along y axis, m/s^2
+     * @param z acceleration along z axis, m/s^2
+     * @return new tier if tier is changed, -1 otherwise
+     */
+    public int add(long t, float x, float y, float z) {
+        if (!started) {
+            started = true;
+            lastTime = t;
+            meanX = x;
+            meanY = y;
+            meanZ = z;
+            return -1;
+        }
+        long dt = Math.max(t - lastTime, 0);
+        lastTime = t;
+        float alpha = (float) dt / (window + dt);
+        float dx = x - meanX;
+        float dy = y - meanY;
+        float dz = z - meanZ;
+        meanX += alpha * dx;
+        meanY += alpha * dy;
+        meanZ += alpha * dz;
+        energy = (1 - alpha) * (energy + alpha * (dx * dx + dy * dy + dz * dz));
+
+        int next = energy > highEnergy ? TIER_HIGH : energy > normalEnergy ? TIER_NORMAL : TIER_LOW;
+        if (next > tier) {
+            calmSince = -1;
+            return setTier(next);
+        }
+        //energy below threshold of current tier, with hysteresis
+        float threshold = tier == TIER_HIGH ? highEnergy : tier == TIER_NORMAL ? normalEnergy : 0;
+        if (energy >= threshold * HYSTERESIS) {
+            calmSince = -1;
+            return -1;
+        }
+        if (calmSince < 0) {
+            calmSince = t;
+        }
+        if (t - calmSince < holdTime) {
+            return -1;
+        }
+        calmSince = -1;
+        //one tier down, next tier is checked after next hold time
+        return setTier(tier - 1);
+    }
+
+    private int setTier(int tier) {
+        this.tier = tier;
+        return tier;
+    }
+
+    /**
+     * Returns current tier, one of TIER_ constants.
+     */
+    public int getTier() {
+        return tier;
+    }
+
+    /**
+     * Returns current motion energy, variance of acceleration vector, (m/s^2)^2.
+     */
+    public float getEnergy() {
+        return energy;
+    }
+
+    /**
+     * Resets averages and sets normal tier.
+     */
+    public void reset() {
+        tier = TIER_NORMAL;
+        started = false;
+        energy = 0;
+        calmSince = -1;
+    }
+}
@@ -0,0 +1,95 @@
+package cselp.sensortrack.sensor;
+
+/**
+ * Maps event times in boot time base (SystemClock.elapsedRealtimeNanos, event.timestamp,
+ * Location.getElapsedRealtimeNanos) to wall clock time with integer arithmetic, so precision
+ * does not degrade with uptime. Offset between clocks is sampled on first event and then once per
+ * sync interval; wall clock drift or adjustment is applied gradually, at most maxSlewPpm of elapsed time,
+ * so mapped times of stream never jump. Clocks are read by caller, see {@link #isSyncDue(long)}.
+ * Not thread-safe, used from thread of sensor listener.
+ */
+public class SensorClock {
+    static final long NS_PER_MS = 1000000;
+
+    private final long syncInterval;
+    private final long maxSlewPpm;
+    private boolean synced = false;
+    //applied offset: wall time - boot time, ns
+    private long offset;
+    //offset measured on last sync
+    private long targetOffset;
+    //boot time of latest mapped event, ns
+    private long lastTime;
+    private long nextSync;
+
+    /**
+     * Constructor
+     * @param syncIntervalMs interval of clock offset sampling, ms of boot time
+     * @param maxSlewPpm max rate of offset correction, ns per ms of boot time
+     */
+    public SensorClock(long syncIntervalMs, long maxSlewPpm) {
+        this.syncInterval = syncIntervalMs * NS_PER_MS;
+        this.maxSlewPpm = maxSlewPpm;
+    }
+
+    /**
+     * Checks if clock offset should be sampled.
+     * @param bootTime current boot time, ns
+     */
+    public boolean isSyncDue(long bootTime) {
+        return !synced || bootTime >= nextSync;
+    }
+
+    /**
+     * Sets clock offset sample, first sample is applied at once, next ones gradually.
+     * @param bootTime current boot time, ns
+     * @param wallTime current wall clock time, ms
+     */
+    public void sync(long bootTime, long wallTime) {
+        targetOffset = wallTime * NS_PER_MS - bootTime;
+        if (!synced) {
+            synced = true;
+            offset = targetOffset;
+            lastTime = bootTime;
+        }
+        nextSync = bootTime + syncInterval;
+    }
+
+    /**
+     * Maps boot time to wall clock time.
+     * @param bootTime event time in boot time base, ns
+     * @return wall clock time, ns since epoch
+     */
+    public long toWallNanos(long bootTime) {
+        long dt = bootTime - lastTime;
+        if (dt > 0) {
+            lastTime = bootTime;
+            long diff = targetOffset - offset;
+            if (diff != 0) {
+                long step = dt / NS_PER_MS * maxSlewPpm;
+                offset += Math.max(-step, Math.min(step, diff));
+            }
+        }
+        return bootTime + offset;
+    }
+
+    /**
+     * Maps boot time to wall clock time, see {@link #toWallNanos(long)}.
+     * @param bootTime event time in boot time base, ns
+     * @return wall clock time, ms since epoch
+     */
+    public long toWallMillis(long bootTime) {
+        return toWallNanos(bootTime) / NS_PER_MS;
+    }
+
+    /**
+     * Returns part of measured offset change, which is not applied yet, ns.
+     */
+    public long getPendingCorrection() {
+        return targetOffset - offset;
+    }
+
+    public boolean isSynced() {
+        return synced;
+    }
+}
@@ -0,0 +1,79 @@
+package cselp.sensortrack.sensor;
+
+import android.util.Log;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dedicated processing thread, drains SensorEventQueue and passes events to consumer.
+ * All consumer calls are made from this thread while holding supplied lock,
+ * so track data mutations are serialized with other lock holders.
+ * When queue is empty thread is parked until next event arrives.
+ */
+public class SensorEventProcessor extends Thread {
+    private static final String TAG = "SensorEventProcessor";
+    //max count of events processed under single lock acquisition
+    private static final int BATCH_SIZE = 256;
+
+    private final SensorEventQueue queue;
+    private final ISensorConsumer consumer;
+    private final Object lock;
+    private volatile boolean running = true;
+    private long processedCount = 0;
+    private long loggedErrorCount = 0;
+
+    /**
+     * Constructor
+     * @param queue sensor events queue
+     * @param consumer events consumer
+     * @param lock lock object, held while batch of events is processed
+     */
+    public SensorEventProcessor(SensorEventQueue queue, ISensorConsumer consumer, Object lock) {
+        super("sensor_processing");
+        this.queue = queue;
+        this.consumer = consumer;
+        this.lock = lock;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            int n;
+            try {
+                synchronized (lock) {
+                    n = queue.drain(consumer, BATCH_SIZE);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "sensor event processing error", e);
+                n = 0;
+            }
+            processedCount += n;
+            logErrors();
+            if (n == 0 && running) {
+                queue.await();
+            }
+        }
+        Log.d(TAG, "processing stopped, processed " + processedCount + " events, overflow "
+                + queue.getOverflowCount());
+    }
+
+    /**
+     * Logs events skipped by queue since last call, outside of lock.
+     */
+    private void logErrors() {
+        long errors = queue.getErrorCount();
+        if (errors != loggedErrorCount) {
+            Log.e(TAG, "sensor event processing error, skipped events " + (errors - loggedErrorCount),
+                    queue.getLastError());
+            loggedErrorCount = errors;
+        }
+    }
+
+    /**
+     * Stops processing loop, remaining events are not processed.
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(this);
+    }
+}
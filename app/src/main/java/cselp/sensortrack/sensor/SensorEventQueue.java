@@ -0,0 +1,279 @@
+package cselp.sensortrack.sensor;
+
+import android.location.Location;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer of sensor events.
+ * Implements ISensorConsumer, so it can be attached to SensorListener: events are
+ * copied into preallocated primitive slots (sensor type, timestamp, values) and
+ * returned immediately. Processing thread takes events with {@link #drain(ISensorConsumer, int)}
+ * and waits for next events in {@link #await()}, it is woken by producer, so idle queue causes no wakeups.
+ * When the ring is full new events are dropped and counted as overflow.
+ * Event which consumer fails to process is counted and skipped, it does not block following events.
+ */
+public class SensorEventQueue implements ISensorConsumer {
+    public static final int ACCELERATION = 0;
+    public static final int GYROSCOPE = 1;
+    public static final int GEOMAGNETIC = 2;
+    public static final int ROTATION = 3;
+    public static final int LINEAR_ACCELERATION = 4;
+    public static final int GRAVITY = 5;
+    public static final int PRESSURE = 6;
+    public static final int LOCATION = 7;
+    private static final int TYPE_COUNT = 8;
+
+    //max count of values in slot, acceleration event has 9 values
+    private static final int SLOT_VALUES = 9;
+
+    private final int capacity;
+    private final int mask;
+    private final int[] types;
+    private final long[] timestamps;
+    private final float[] values;
+    private final Location[] locations;
+
+    //next position to read, written by consumer only
+    private final AtomicLong head = new AtomicLong(0);
+    //next position to write, written by producer only
+    private final AtomicLong tail = new AtomicLong(0);
+    //consumer thread parked in await(), null while consumer is running
+    private volatile Thread waiter;
+    //producer copy of head, refreshed when ring looks full
+    private long cachedHead = 0;
+
+    private final AtomicLong overflow = new AtomicLong(0);
+    //count of events consumer failed to process, written by consumer only
+    private volatile long errorCount = 0;
+    private volatile RuntimeException lastError;
+    private final AtomicLongArray typeOverflow = new AtomicLongArray(TYPE_COUNT);
+    //producer side buffer for single pressure value
+    private final float[] pressure = new float[1];
+
+    //consumer side buffers, passed to target consumer
+    private final float[] acceleration = new float[9];
+    private final float[] gyroscope = new float[6];
+    private final float[] rotation = new float[5];
+    private final float[] vector = new float[3];
+    private float pressureValue;
+
+    /**
+     * Constructor
+     * @param capacity ring size, rounded up to power of 2
+     */
+    public SensorEventQueue(int capacity) {
+        int c = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.capacity = c;
+        this.mask = c - 1;
+        types = new int[c];
+        timestamps = new long[c];
+        values = new float[c * SLOT_VALUES];
+        locations = new Location[c];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns count of events waiting for processing.
+     * @return queue size
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * Returns count of events dropped because queue was full.
+     * @return total overflow count
+     */
+    public long getOverflowCount() {
+        return overflow.get();
+    }
+
+    /**
+     * Returns count of events skipped because consumer failed to process them.
+     * @return error count
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Returns last exception thrown by consumer.
+     * @return exception or null
+     */
+    public RuntimeException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Returns count of dropped events of specified type.
+     * @param type event type, one of ACCELERATION...LOCATION constants
+     * @return overflow count
+     */
+    public long getOverflowCount(int type) {
+        return typeOverflow.get(type);
+    }
+
+    private boolean offer(int type, long timestamp, float[] src, int count, Location location) {
+        long t = tail.get();
+        if (t - cachedHead >= capacity) {
+            cachedHead = head.get();
+            if (t - cachedHead >= capacity) {
+                overflow.incrementAndGet();
+                typeOverflow.incrementAndGet(type);
+                return false;
+            }
+        }
+        int slot = (int) t & mask;
+        types[slot] = type;
+        timestamps[slot] = timestamp;
+        if (src != null) {
+            System.arraycopy(src, 0, values, slot * SLOT_VALUES, count);
+        }
+        locations[slot] = location;
+        //publish slot to consumer; volatile write is ordered before read of waiter, so wakeup is not missed
+        tail.set(t + 1);
+        Thread w = waiter;
+        if (w != null) {
+            LockSupport.unpark(w);
+        }
+        return true;
+    }
+
+    /**
+     * Parks calling consumer thread until queue is not empty, or thread is unparked or interrupted.
+     * Must be called from single consumer thread, may return spuriously.
+     */
+    public void await() {
+        waiter = Thread.currentThread();
+        if (tail.get() == head.get()) {
+            LockSupport.park(this);
+        }
+        waiter = null;
+    }
+
+    /**
+     * Passes queued events to specified consumer, in order of arrival.
+     * Must be called from single consumer thread.
+     * @param target events consumer
+     * @param max maximum count of events to process
+     * @return count of processed events
+     */
+    public int drain(ISensorConsumer target, int max) {
+        long h = head.get();
+        long available = tail.get() - h;
+        int n = (int) Math.min(available, max);
+        for (int i = 0; i < n; i++) {
+            int slot = (int) (h + i) & mask;
+            int offset = slot * SLOT_VALUES;
+            long timestamp = timestamps[slot];
+            int type = types[slot];
+            Location location = locations[slot];
+            locations[slot] = null;
+            //values are copied out of slot before dispatch, so slot is released to producer in any case
+            switch (type) {
+                case ACCELERATION:
+                    System.arraycopy(values, offset, acceleration, 0, acceleration.length);
+                    break;
+                case GYROSCOPE:
+                    System.arraycopy(values, offset, gyroscope, 0, gyroscope.length);
+                    break;
+                case ROTATION:
+                    System.arraycopy(values, offset, rotation, 0, rotation.length);
+                    break;
+                case GEOMAGNETIC:
+                case LINEAR_ACCELERATION:
+                case GRAVITY:
+                    System.arraycopy(values, offset, vector, 0, vector.length);
+                    break;
+                case PRESSURE:
+                    pressureValue = values[offset];
+                    break;
+            }
+            head.lazySet(h + i + 1);
+            try {
+                dispatch(target, type, timestamp, location);
+            } catch (RuntimeException e) {
+                //event is skipped, following events are processed; error is logged by processing thread
+                lastError = e;
+                errorCount++;
+            }
+        }
+        return n;
+    }
+
+    private void dispatch(ISensorConsumer target, int type, long timestamp, Location location) {
+        switch (type) {
+            case ACCELERATION:
+                target.setAccelerationValues(timestamp, acceleration);
+                break;
+            case GYROSCOPE:
+                target.setGyroscopeValues(timestamp, gyroscope);
+                break;
+            case GEOMAGNETIC:
+                target.setGeomagneticValues(timestamp, vector);
+                break;
+            case ROTATION:
+                target.setRotationVector(timestamp, rotation);
+                break;
+            case LINEAR_ACCELERATION:
+                target.setLinearAccelerationValues(timestamp, vector);
+                break;
+            case GRAVITY:
+                target.setGravityValues(timestamp, vector);
+                break;
+            case PRESSURE:
+                target.setPressureValue(timestamp, pressureValue);
+                break;
+            case LOCATION:
+                target.setLocationValue(timestamp, location);
+                break;
+        }
+    }
+
+    @Override
+    public void setGyroscopeValues(long timestamp, float[] values) {
+        offer(GYROSCOPE, timestamp, values, 6, null);
+    }
+
+    @Override
+    public void setAccelerationValues(long timestamp, float[] values) {
+        offer(ACCELERATION, timestamp, values, 9, null);
+    }
+
+    @Override
+    public void setGeomagneticValues(long timestamp, float[] values) {
+        offer(GEOMAGNETIC, timestamp, values, 3, null);
+    }
+
+    @Override
+    public void setRotationVector(long timestamp, float[] values) {
+        offer(ROTATION, timestamp, values, 5, null);
+    }
+
+    @Override
+    public void setLinearAccelerationValues(long timestamp, float[] values) {
+        offer(LINEAR_ACCELERATION, timestamp, values, 3, null);
+    }
+
+    @Override
+    public void setGravityValues(long timestamp, float[] values) {
+        offer(GRAVITY, timestamp, values, 3, null);
+    }
+
+    @Override
+    public void setPressureValue(long timestamp, float value) {
+        pressure[0] = value;
+        offer(PRESSURE, timestamp, pressure, 1, null);
+    }
+
+    @Override
+    public void setLocationValue(long timestamp, Location value) {
+        offer(LOCATION, timestamp, null, 0, value);
+    }
+}
@@ -2,23 +2,24 @@ package cselp.sensortrack.sensor;
 
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.SensorEventListener2;
 import android.hardware.SensorManager;
 import android.location.Location;
+import android.os.SystemClock;
 
 import com.google.android.gms.location.LocationListener;
 
-import java.util.Arrays;
-
-import cselp.sensortrack.util.DataUtil;
+import cselp.sensortrack.Const;
 
 /**
  * Implementation of SensorEventListener and LocationListener,
  * to process Sensors API and Location API calls.
  * Data from accelerometer, gyroscope, pressure, GPS and magnetic sensors
  * are processed and sent to attached consumer.
+ * Sensors may be registered with report latency, then events are batched in hardware FIFO and
+ * delivered in bursts; time of each event is taken from event.timestamp, not from arrival time.
  */
-public class SensorListener implements SensorEventListener, LocationListener {
+public class SensorListener implements SensorEventListener2, LocationListener {
     private static final String TAG = "SensorEventListener";
 
     private ISensorConsumer consumer;
@@ -27,6 +28,12 @@ public class SensorListener implements SensorEventListener, LocationListener {
     private float[] acceleration = new float[3];
     private static final float GRAVITY_ALPHA = 0.8f;
 
+    //reusable buffers handed to consumer, see ISensorConsumer contract
+    private final float[] accelerationValues = new float[9];
+    private final float[] rotationValues = new float[5];
+    private final float[] linearAccelerationValues = new float[3];
+    private final float[] gravityValues = new float[3];
+
     private float[] geomagnetic = new float[3];
 
     /**
@@ -34,40 +41,29 @@ public class SensorListener implements SensorEventListener, LocationListener {
      */
     private long gyroTimestamp;
 
-    /**
-     * This is a filter-threshold for discarding Gyroscope measurements that are below a certain level and
-     * potentially are only noise and not real motion. Values from the gyroscope are usually between 0 (stop) and
-     * 10 (rapid rotation), so 0.1 seems to be a reasonable threshold to filter noise (usually smaller than 0.1) and
-     * real motion (usually > 0.1). Note that there is a chance of missing real motion, if the use is turning the
-     * device really slowly, so this value has to find a balance between accepting noise (threshold = 0) and missing
-     * slow user-action (threshold > 0.5). 0.1 seems to work fine for most applications.
-     *
-     */
-    private static final double EPSILON = 0.1f;
-
     /**
      * Constant specifying the factor between a Nano-second and a second
      */
     private static final float NS2S = 1.0f / 1000000000.0f;
-    // nanoseconds to milliseconds factor
-    private static final float NS2MS = 1.0f / 1000000.0f;
 
-    private final float[] deltaRotationVector = new float[4];
-    private final float[] deltaRotationMatrixCalibrated = new float[9];
-    private float[] currentRotationMatrixCalibrated = new float[9];
+    //orientation integrated from gyroscope, starts from accelerometer/magnetometer orientation
+    private final GyroIntegrator gyroIntegrator = new GyroIntegrator();
     private float[] initialRotationMatrix = new float[9];
-    private float[] gyroscopeOrientationCalibrated = new float[3];
-
-    //reference value of event.timestamp, filled after first event.
-    //To ensure precision, first events should be received with max_report_latency_ns. NOT IMPLEMENTED.
-    private long referenceEventTimestamp = 0;
-    //value of System.currentTimeMillis() when first event received
-    private long referenceStartTime;
-    //stuff for location events
-    private long referenceLocEventTimestamp = 0;
-    private long referenceLocStartTime;
-
-    private boolean stateInitializedCalibrated = false;
+    //0-2 - integrated orientation, 3-5 - angular speed
+    private final float[] gyroscopeValues = new float[6];
+
+    //max difference between event.timestamp and elapsed realtime, if they are in the same time base
+    private static final long MAX_CLOCK_SKEW_NS = 60000000000L; //1 min
+
+    //maps event times of all streams to wall clock
+    private final SensorClock clock;
+    //correction of event.timestamp to boot time base, not 0 if sensor uses other time base; filled on first event
+    private long eventTimeBase = 0;
+    private boolean hasEventTimeBase = false;
+    //counters of event deliveries, see DeliveryStats
+    private final DeliveryStats deliveryStats = new DeliveryStats();
+    //count of sensors, which have not completed requested flush
+    private int pendingFlushes = 0;
 
     private boolean hasInitialOrientation = false;
 
@@ -76,57 +72,69 @@ public class SensorListener implements SensorEventListener, LocationListener {
      * @param consumer sensor data consumer
      */
     public SensorListener(ISensorConsumer consumer) {
+        this(consumer, new SensorClock(Const.CLOCK_SYNC_INTERVAL, Const.CLOCK_MAX_SLEW_PPM));
+    }
+
+    /**
+     * Constructor
+     * @param consumer sensor data consumer
+     * @param clock clock of event times
+     */
+    public SensorListener(ISensorConsumer consumer, SensorClock clock) {
         this.consumer = consumer;
+        this.clock = clock;
     }
 
     @Override
     public void onLocationChanged(Location loc) {
+        long arrival = syncClock();
         long timestamp = loc.getElapsedRealtimeNanos();
-        if (referenceLocEventTimestamp == 0) {
-            referenceLocEventTimestamp = timestamp;
-            referenceLocStartTime = System.currentTimeMillis();
-        }
-        long locTimestamp = referenceLocStartTime + (int)((timestamp - referenceLocEventTimestamp) * NS2MS);
+        //location time is in boot time base, fix without it is taken at arrival
+        long locTimestamp = clock.toWallMillis(timestamp > 0 ? timestamp : arrival);
         consumer.setLocationValue(locTimestamp, loc);
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
-        if (referenceEventTimestamp == 0) {
-            referenceEventTimestamp = event.timestamp;
-            referenceStartTime = System.currentTimeMillis();
+        long arrival = syncClock();
+        if (!hasEventTimeBase) {
+            hasEventTimeBase = true;
+            long skew = arrival - event.timestamp;
+            eventTimeBase = Math.abs(skew) < MAX_CLOCK_SKEW_NS ? 0 : skew;
         }
-        //event timestamp, recalculated into milliseconds using referenceStartTime, referenceEventTimestamp and event.timestamp.
-        long eventTimestamp = referenceStartTime + (int)((event.timestamp - referenceEventTimestamp) * NS2MS);
+        deliveryStats.onEvent(event.timestamp + eventTimeBase, arrival);
+        //event timestamp in boot time base mapped to wall clock, ms
+        long eventTimestamp = clock.toWallMillis(event.timestamp + eventTimeBase);
         if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-            float[] result = calculateAcceleration(event);
-            //result : 0-2 - initial values, 3-5 - linear_acceleration, 6-8 - gravity
-            consumer.setAccelerationValues(eventTimestamp, result);
+            calculateAcceleration(event, accelerationValues);
+            //accelerationValues : 0-2 - initial values, 3-5 - linear_acceleration, 6-8 - gravity
+            consumer.setAccelerationValues(eventTimestamp, accelerationValues);
         }
         else if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
             if (acceleration[0] != 0 && geomagnetic[0] != 0 && !hasInitialOrientation) {
-                for (int i = 0; i < currentRotationMatrixCalibrated.length; i++) {
-                    currentRotationMatrixCalibrated[i] = 1;
-                }
                 calculateInitialOrientation();
             }
             calculateGyroscope(event);
-            consumer.setGyroscopeValues(eventTimestamp, Arrays.copyOf(gyroscopeOrientationCalibrated, gyroscopeOrientationCalibrated.length));
+            System.arraycopy(event.values, 0, gyroscopeValues, 3, 3);
+            consumer.setGyroscopeValues(eventTimestamp, gyroscopeValues);
         }
         else if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
             geomagnetic[0] = event.values[0];
             geomagnetic[1] = event.values[1];
             geomagnetic[2] = event.values[2];
-            consumer.setGeomagneticValues(eventTimestamp, Arrays.copyOf(geomagnetic, geomagnetic.length));
+            consumer.setGeomagneticValues(eventTimestamp, geomagnetic);
         }
         else if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-            consumer.setRotationVector(eventTimestamp, Arrays.copyOf(event.values, 5));
+            copyValues(event.values, rotationValues);
+            consumer.setRotationVector(eventTimestamp, rotationValues);
         }
         else if (event.sensor.getType() == Sensor.TYPE_LINEAR_ACCELERATION) {
-            consumer.setLinearAccelerationValues(eventTimestamp, Arrays.copyOf(event.values, 3));
+            copyValues(event.values, linearAccelerationValues);
+            consumer.setLinearAccelerationValues(eventTimestamp, linearAccelerationValues);
         }
         else if (event.sensor.getType() == Sensor.TYPE_GRAVITY) {
-            consumer.setGravityValues(eventTimestamp, Arrays.copyOf(event.values, 3));
+            copyValues(event.values, gravityValues);
+            consumer.setGravityValues(eventTimestamp, gravityValues);
         }
         else if (event.sensor.getType() == Sensor.TYPE_PRESSURE) {
             //values[0]: Atmospheric pressure in hPa (millibar)
@@ -135,13 +143,67 @@ public class SensorListener implements SensorEventListener, LocationListener {
         }
     }
 
+    /**
+     * Returns current boot time, samples clock offset when it is due.
+     * @return boot time, ns
+     */
+    private long syncClock() {
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (clock.isSyncDue(now)) {
+            clock.sync(now, System.currentTimeMillis());
+        }
+        return now;
+    }
+
     @Override
     public void onAccuracyChanged(Sensor sensor, int accuracy) {
         //nothing to do
     }
 
     /**
-     * Calculates phone orientation using initialRotationMatrix,
+     * Called when events of sensor batched before flush request are delivered.
+     * @param sensor flushed sensor
+     */
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        deliveryStats.onFlushCompleted();
+        if (pendingFlushes > 0) {
+            pendingFlushes--;
+        }
+    }
+
+    /**
+     * Requests delivery of all events batched in hardware FIFO of sensors registered with this listener.
+     * Completion is checked by {@link #isFlushCompleted()}.
+     * @param sensorManager SensorManager
+     * @param sensorCount count of registered sensors
+     * @return false if flush request failed
+     */
+    public boolean flush(SensorManager sensorManager, int sensorCount) {
+        pendingFlushes = sensorCount;
+        boolean res = sensorManager.flush(this);
+        if (!res) {
+            pendingFlushes = 0;
+        }
+        return res;
+    }
+
+    /**
+     * Checks if all sensors completed requested flush.
+     */
+    public boolean isFlushCompleted() {
+        return pendingFlushes == 0;
+    }
+
+    /**
+     * Returns counters of event deliveries, should be read in thread of listener.
+     */
+    public DeliveryStats getDeliveryStats() {
+        return deliveryStats;
+    }
+
+    /**
+     * Calculates phone orientation, integrating gyroscope angular speed from initial orientation.
      * @param event gyroscope sensor event
      */
     private void calculateGyroscope(SensorEvent event) {
@@ -149,54 +211,10 @@ public class SensorListener implements SensorEventListener, LocationListener {
         if (!hasInitialOrientation) {
             return;
         }
-        // Initialization of the gyroscope based rotation matrix
-        if (!stateInitializedCalibrated) {
-            currentRotationMatrixCalibrated = DataUtil.matrixMultiplication(
-                    currentRotationMatrixCalibrated, initialRotationMatrix);
-
-            stateInitializedCalibrated = true;
-        }
-        // This timestep's delta rotation to be multiplied by the current rotation
-        // after computing it from the gyro sample data.
         if (gyroTimestamp != 0) {
             final float dT = (event.timestamp - gyroTimestamp) * NS2S;
-            // Axis of the rotation sample, not normalized yet.
-            float axisX = event.values[0];
-            float axisY = event.values[1];
-            float axisZ = event.values[2];
-
-            // Calculate the angular speed of the sample
-            double gyroscopeRotationVelocity = Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
-
-            // Normalize the rotation vector if it's big enough to get the axis
-            if (gyroscopeRotationVelocity > EPSILON) {
-                axisX /= gyroscopeRotationVelocity;
-                axisY /= gyroscopeRotationVelocity;
-                axisZ /= gyroscopeRotationVelocity;
-            }
-
-            // Integrate around this axis with the angular speed by the timestep
-            // in order to get a delta rotation from this sample over the timestep
-            // We will convert this axis-angle representation of the delta rotation
-            // into a quaternion before turning it into the rotation matrix.
-            double thetaOverTwo = gyroscopeRotationVelocity * dT / 2.0f;
-            double sinThetaOverTwo = Math.sin(thetaOverTwo);
-            double cosThetaOverTwo = Math.cos(thetaOverTwo);
-            deltaRotationVector[0] = (float)sinThetaOverTwo * axisX;
-            deltaRotationVector[1] = (float)sinThetaOverTwo * axisY;
-            deltaRotationVector[2] = (float)sinThetaOverTwo * axisZ;
-            deltaRotationVector[3] = (float)cosThetaOverTwo;
-
-            SensorManager.getRotationMatrixFromVector(
-                    deltaRotationMatrixCalibrated,
-                    deltaRotationVector);
-
-            currentRotationMatrixCalibrated = DataUtil.matrixMultiplication(
-                    currentRotationMatrixCalibrated,
-                    deltaRotationMatrixCalibrated);
-
-            SensorManager.getOrientation(currentRotationMatrixCalibrated,
-                    gyroscopeOrientationCalibrated);
+            gyroIntegrator.integrate(event.values[0], event.values[1], event.values[2], dT);
+            gyroIntegrator.getOrientation(gyroscopeValues);
         }
         gyroTimestamp = event.timestamp;
     }
@@ -205,9 +223,9 @@ public class SensorListener implements SensorEventListener, LocationListener {
      * Calculates linear acceleration and gravity.
      * Can be replaced with TYPE_LINEAR_ACCELERATION and TYPE_GRAVITY sensors.
      * @param event acceleration sensor event
-     * @return float array, [0]:[2] - initial values, [3]:[5] - linear_acceleration, [6]:[8] - gravity
+     * @param result float array to fill, [0]:[2] - initial values, [3]:[5] - linear_acceleration, [6]:[8] - gravity
      */
-    private float[] calculateAcceleration(SensorEvent event) {
+    private void calculateAcceleration(SensorEvent event, float[] result) {
         // In this example, GRAVITY_ALPHA is calculated as t / (t + dT),
         // where t is the low-pass filter's time-constant and
         // dT is the event delivery rate.
@@ -224,12 +242,24 @@ public class SensorListener implements SensorEventListener, LocationListener {
         linear_acceleration[1] = event.values[1] - gravity[1];
         linear_acceleration[2] = event.values[2] - gravity[2];
 
-        float[] result = new float[9];
         System.arraycopy(event.values, 0, result, 0, 3);
         System.arraycopy(linear_acceleration, 0, result, 3, 3);
         System.arraycopy(gravity, 0, result, 6, 3);
         //result : 0-2 - initial values, 3-5 - linear_acceleration, 6-8 - gravity
-        return result;
+    }
+
+    /**
+     * Copies event values into reusable buffer. Some devices deliver
+     * shorter arrays (e.g. rotation vector without accuracy), missing values are set to 0.
+     * @param values event values
+     * @param buffer destination buffer
+     */
+    private static void copyValues(float[] values, float[] buffer) {
+        int l = Math.min(values.length, buffer.length);
+        System.arraycopy(values, 0, buffer, 0, l);
+        for (int i = l; i < buffer.length; i++) {
+            buffer[i] = 0;
+        }
     }
 
     /**
@@ -239,7 +269,9 @@ public class SensorListener implements SensorEventListener, LocationListener {
     {
         hasInitialOrientation = SensorManager.getRotationMatrix(
                 initialRotationMatrix, null, acceleration, geomagnetic);
-
+        if (hasInitialOrientation) {
+            gyroIntegrator.setRotationMatrix(initialRotationMatrix);
+        }
     }
 
 }
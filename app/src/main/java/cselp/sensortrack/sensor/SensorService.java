@@ -21,6 +21,8 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
@@ -43,31 +45,49 @@ import com.google.android.gms.location.LocationServices;
 
 import org.json.JSONObject;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import cselp.sensortrack.Const;
 import cselp.sensortrack.R;
-import cselp.sensortrack.bean.DataHolder;
 import cselp.sensortrack.bean.LocationData;
-import cselp.sensortrack.bean.RotationVector;
-import cselp.sensortrack.bean.SensorData;
+import cselp.sensortrack.bean.LocationSeries;
+import cselp.sensortrack.bean.SensorSeries;
 import cselp.sensortrack.bean.TimeData;
+import cselp.sensortrack.bean.TimeSeries;
 import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackEvent;
 import cselp.sensortrack.bean.TrackPart;
 import cselp.sensortrack.bean.TrackPosition;
+import cselp.sensortrack.filter.SampleFilter;
+import cselp.sensortrack.filter.SampleFilters;
+import cselp.sensortrack.fusion.OrientationFilter;
+import cselp.sensortrack.fusion.OrientationFilters;
+import cselp.sensortrack.storage.TrackFile;
+import cselp.sensortrack.storage.TrackFileReader;
+import cselp.sensortrack.storage.TrackFileWriter;
+import cselp.sensortrack.storage.TrackLog;
+import cselp.sensortrack.upload.Backoff;
+import cselp.sensortrack.upload.PartAck;
+import cselp.sensortrack.upload.ServerCapabilities;
+import cselp.sensortrack.upload.ServerHealth;
+import cselp.sensortrack.upload.TrackPartRequest;
+import cselp.sensortrack.upload.UploadOutbox;
+import cselp.sensortrack.upload.UploadQueue;
 import cselp.sensortrack.util.DataUtil;
+import cselp.sensortrack.util.JsonStreamWriter;
+import cselp.sensortrack.util.TrackJsonWriter;
 
 /**
  * The service class to process data from mobile device sensors,
@@ -78,9 +98,14 @@ public class SensorService extends Service implements ISensorConsumer,
         GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
     private static final String TAG = "SensorService";
 
+    //interval of checks of flush completion on track stop, ms
+    private static final long FLUSH_CHECK_INTERVAL = 20;
+
     private static final SimpleDateFormat fTime = new SimpleDateFormat("hh:mm:ss", Locale.US);
 
-    public static final String TRACK_FILE_FORMAT = "bin";
+    //track file format: TrackLog.EXTENSION - streaming track log,
+    //TrackFile.EXTENSION - compact binary, "bin" or "json" - whole track saved on stop
+    public static final String TRACK_FILE_FORMAT = TrackLog.EXTENSION;
 
     private final LocalBinder binder = new LocalBinder();
     private final ThreadLocal<SimpleDateFormat> sdf = new ThreadLocal<SimpleDateFormat>() {
@@ -91,32 +116,68 @@ public class SensorService extends Service implements ISensorConsumer,
     };
 
     private int sensorDelayValue = SensorManager.SENSOR_DELAY_NORMAL;
+    //max delay of event delivery, sensor events are batched in hardware FIFO if it is not 0, microseconds
+    private int reportLatencyUs = Const.SENSOR_REPORT_LATENCY;
+    //count of sensors registered with sensorListener
+    private int registeredSensors = 0;
+    //track stop waits for flush of batched events
+    private boolean flushing = false;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    //process cpu time at track start, ms
+    private long startCpuTime;
     private float accDeltaValue = Const.ACCELERATION_DELTA;
     private SensorListener sensorListener = null;
+    private SensorEventQueue eventQueue;
+    private SensorEventProcessor eventProcessor;
 
     private GoogleApiClient googleApiClient;
 
     private LocalBroadcastManager broadcastManager;
+    //created in onCreate, before outbox worker which uses it is started
     private RequestQueue requestQueue;
-    private SuccessListener successListener = new SuccessListener();
-    private ErrorListener errorListener = new ErrorListener();
+    //persistent queue of part uploads, null if it can not be opened
+    private UploadOutbox outbox;
+    //cached result of server ping
+    private volatile ServerHealth serverHealth = new ServerHealth(Const.SERVER_HEALTH_TTL);
     private String serverUrl = null;
 
     private TrackData trackData;
+    //empty track object, replaces trackData on segment switch
+    private TrackData standbyTrack;
     private TrackPosition trackPosition;
+    //streaming log of active track segment, null if other file format used
+    private TrackLog trackLog;
+    private long trackLogFlushInterval = Const.TRACK_LOG_FLUSH_INTERVAL;
+    //gzip level of part uploads, used if server supports it
+    private int uploadCompressionLevel = Const.UPLOAD_COMPRESSION_LEVEL;
+    //background executor for saving and sending of finished track segments
+    private final ExecutorService flushExecutor = Executors.newSingleThreadExecutor();
     private boolean trackStarted = false;
     private boolean sendToServer = false;
     private long accCount = 0;
 
-    private DataHolder lAccHolder = new DataHolder(Const.ACCELERATION_DELTA, Const.SENSOR_TIME_DELTA);
-    private DataHolder accHolder = new DataHolder(Const.ACCELERATION_DELTA, Const.SENSOR_TIME_DELTA);
-    private DataHolder cLAccHolder = new DataHolder(Const.ACCELERATION_DELTA, Const.SENSOR_TIME_DELTA);
-    private DataHolder gravHolder = new DataHolder(Const.GRAVITY_DELTA, Const.SENSOR_TIME_DELTA);
-    private DataHolder cGravHolder = new DataHolder(Const.GRAVITY_DELTA, Const.SENSOR_TIME_DELTA);
+    //sample filters indexed by stream identifier, created on track start; null for location and events
+    private final SampleFilter[] filters = new SampleFilter[Const.Stream.COUNT];
+    //reusable buffer of reordered or calculated sample values
+    private final float[] sampleValues = new float[5];
+    //orientation fusion filter, created on track start; null if gyroscope orientation is stored as is
+    private OrientationFilter fusion;
+    //reusable buffer of fused orientation
+    private final float[] fusedOrientation = new float[3];
+
+    //rate tier controller, null if adaptive rate is off; sampling periods of tiers, see MotionRateController
+    private MotionRateController rateController;
+    private final int[] tierDelays = new int[3];
+    //sampling period accelerometer and gyroscope are registered with
+    private int motionSensorDelay = SensorManager.SENSOR_DELAY_NORMAL;
+
+    //reusable buffer for location distance calculation
+    private final float[] distanceResult = new float[1];
 
     private float altitudeZero = 0;
     private float altitudeZeroCount = 0;
 
+    //guards track data, held by event processing thread while events are processed
     private final Object lock = new Object();
     private PowerManager.WakeLock wakeLock;
 
@@ -144,13 +205,19 @@ public class SensorService extends Service implements ISensorConsumer,
         super.onCreate();
         Log.d(TAG, "onCreate");
         if (sensorListener == null) {
-            sensorListener = new SensorListener(this);
+            //sensor events are delivered into queue and processed by dedicated thread
+            eventQueue = new SensorEventQueue(Const.SENSOR_QUEUE_CAPACITY);
+            sensorListener = new SensorListener(eventQueue);
+            eventProcessor = new SensorEventProcessor(eventQueue, this, lock);
+            eventProcessor.start();
         }
         googleApiClient = new GoogleApiClient.Builder(this)
                 .addApi(LocationServices.API)
                 .addConnectionCallbacks(this)
                 .addOnConnectionFailedListener(this).build();
         broadcastManager = LocalBroadcastManager.getInstance(this);
+        requestQueue = Volley.newRequestQueue(getApplicationContext());
+        openOutbox();
     }
 
     @Override
@@ -158,9 +225,13 @@ public class SensorService extends Service implements ISensorConsumer,
         Log.d(TAG, "onStartCommand");
         final SharedPreferences sPref = getSharedPreferences(Const.APPLICATION_SETTINGS, MODE_PRIVATE);
         sensorDelayValue = sPref.getInt(Const.SENSOR_DELAY_KEY, SensorManager.SENSOR_DELAY_NORMAL);
+        reportLatencyUs = sPref.getInt(Const.SENSOR_REPORT_LATENCY_KEY, Const.SENSOR_REPORT_LATENCY);
+        unregisterListener();
         registerSensorsEventListener();
         accDeltaValue = sPref.getFloat(Const.ACCELERATION_DELTA_KEY, Const.ACCELERATION_DELTA);
-        accHolder.setDelta(accDeltaValue);
+        trackLogFlushInterval = sPref.getLong(Const.TRACK_LOG_FLUSH_INTERVAL_KEY, Const.TRACK_LOG_FLUSH_INTERVAL);
+        uploadCompressionLevel = sPref.getInt(Const.UPLOAD_COMPRESSION_LEVEL_KEY, Const.UPLOAD_COMPRESSION_LEVEL);
+        serverHealth = new ServerHealth(sPref.getLong(Const.SERVER_HEALTH_TTL_KEY, Const.SERVER_HEALTH_TTL));
         connectLocationClient();
 
         return super.onStartCommand(intent, flags, startId);
@@ -190,6 +261,14 @@ public class SensorService extends Service implements ISensorConsumer,
         releaseWakeLock();
         unregisterListener();
         unregisterLocationListener();
+        if (eventProcessor != null) {
+            eventProcessor.shutdown();
+        }
+        flushExecutor.shutdown();
+        if (outbox != null) {
+            outbox.shutdown();
+        }
+        requestQueue.stop();
         super.onDestroy();
     }
 
@@ -203,19 +282,49 @@ public class SensorService extends Service implements ISensorConsumer,
 
     /**
      * Registers sensorListener instance for required sensor types.
+     * With report latency, events are batched in hardware FIFO of sensors which have it.
      */
     private void registerSensorsEventListener() {
         // Get the default sensor for the sensor type from the SenorManager
         SensorManager mgr = (SensorManager) getSystemService(Activity.SENSOR_SERVICE);
 
-        DataUtil.registerListener(mgr, Sensor.TYPE_ACCELEROMETER, sensorListener, sensorDelayValue, 0);
-        DataUtil.registerListener(mgr, Sensor.TYPE_GYROSCOPE, sensorListener, sensorDelayValue, 0);
-        DataUtil.registerListener(mgr, Sensor.TYPE_MAGNETIC_FIELD, sensorListener, sensorDelayValue, 0);
-        DataUtil.registerListener(mgr, Sensor.TYPE_ROTATION_VECTOR, sensorListener, sensorDelayValue, 0);
-        DataUtil.registerListener(mgr, Sensor.TYPE_LINEAR_ACCELERATION, sensorListener, sensorDelayValue, 0);
-        DataUtil.registerListener(mgr, Sensor.TYPE_PRESSURE, sensorListener, sensorDelayValue, 0);
-        DataUtil.registerListener(mgr, Sensor.TYPE_GRAVITY, sensorListener, SensorManager.SENSOR_DELAY_NORMAL, 0);
-        Log.d(TAG, "registerSensorsEventListener, sensorDelayValue=" + sensorDelayValue);
+        int[] types = {Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GYROSCOPE, Sensor.TYPE_MAGNETIC_FIELD,
+                Sensor.TYPE_ROTATION_VECTOR, Sensor.TYPE_LINEAR_ACCELERATION, Sensor.TYPE_PRESSURE};
+        registeredSensors = 0;
+        for (int type : types) {
+            if (DataUtil.registerListener(mgr, type, sensorListener, sensorDelayValue, reportLatencyUs)) {
+                registeredSensors++;
+            }
+        }
+        if (DataUtil.registerListener(mgr, Sensor.TYPE_GRAVITY, sensorListener,
+                SensorManager.SENSOR_DELAY_NORMAL, reportLatencyUs)) {
+            registeredSensors++;
+        }
+        motionSensorDelay = sensorDelayValue;
+        Log.d(TAG, "registerSensorsEventListener, sensorDelayValue=" + sensorDelayValue
+                + ", reportLatencyUs=" + reportLatencyUs);
+    }
+
+    /**
+     * Re-registers accelerometer and gyroscope with specified sampling period, other sensors are not touched.
+     * Listener has to be unregistered first, sensor manager rejects second registration of the same sensor.
+     * Called on main thread: registration takes binder calls, it must not block event processing.
+     * @param delay sampling period, microseconds or SensorManager.SENSOR_DELAY_ constant
+     */
+    private void setMotionSensorDelay(int delay) {
+        if (delay == motionSensorDelay) {
+            return;
+        }
+        SensorManager mgr = (SensorManager) getSystemService(Activity.SENSOR_SERVICE);
+        for (int type : new int[]{Sensor.TYPE_ACCELEROMETER, Sensor.TYPE_GYROSCOPE}) {
+            Sensor sensor = mgr.getDefaultSensor(type);
+            if (sensor != null) {
+                mgr.unregisterListener(sensorListener, sensor);
+                DataUtil.registerListener(mgr, type, sensorListener, delay, reportLatencyUs);
+            }
+        }
+        motionSensorDelay = delay;
+        Log.d(TAG, "motion sensors delay=" + delay);
     }
 
     /**
@@ -251,34 +360,33 @@ public class SensorService extends Service implements ISensorConsumer,
         //values : 0-2 - initial values, 3-5 - linear_acceleration, 6-8 - gravity
         if (trackStarted) {
             accCount++;
-            //todo synchronize
-            accHolder.setLastData(timestamp, values);
-            if (accHolder.shouldStore()) {
-                SensorData[] data = accHolder.valuesToStore();
-                for (SensorData sd : data) {
-                    trackData.acceleration.add(sd);
-                    //status message - recording progress
-                    if (trackData.acceleration.size() % 10 == 0) {
-                        sendStatusMsg("Recorded " + trackData.acceleration.size() + " acceleration points.");
-                        Log.d(TAG, fTime.format(new Date()) + " - Recorded " + trackData.acceleration.size() + " acceleration points.");
-                        int ratio = (int) (100.0 * trackData.acceleration.size() / accCount);
-                        sendFilterRatioMsg(ratio + "%");
-                    }
+            if (fusion != null) {
+                fusion.updateAccelerometer(values[0], values[1], values[2]);
+            }
+            if (rateController != null) {
+                int tier = rateController.add(timestamp, values[0], values[1], values[2]);
+                if (tier >= 0) {
+                    setRateTier(tier, timestamp);
+                }
+            }
+            int stored = storeSample(Const.Stream.ACCELERATION, timestamp, values, trackData.acceleration);
+            if (stored > 0) {
+                int size = trackData.acceleration.size();
+                //status message - recording progress, each 10 points
+                if (size / 10 != (size - stored) / 10) {
+                    sendStatusMsg("Recorded " + size + " acceleration points.");
+                    Log.d(TAG, fTime.format(new Date()) + " - Recorded " + size + " acceleration points.");
+                    int ratio = (int) (100.0 * size / accCount);
+                    sendFilterRatioMsg(ratio + "%");
                 }
             }
-            //check acceleration list size, if > predefined value - stop track
+            //check acceleration list size, if > predefined value - switch to next track segment
             if (trackData.acceleration.size() > Const.MAX_ACCELERATION_LIST_SIZE) {
-                Log.d(TAG, "Stop track recording: acceleration list size " + trackData.acceleration.size());
-                stopTrack();
-                Timer t = new Timer("restart_track");
-                t.schedule(new TimerTask() {
-                    @Override
-                    public void run() {
-                        startTrack(sendToServer);
-                    }
-                }, 1000);
-                Log.d(TAG, "Restart track recording");
-            } else if (sendToServer && (trackData.acceleration.size() - trackPosition.accIdx.get()) >= Const.TRACK_PART_STEP) {
+                Log.d(TAG, "Roll over track segment: acceleration list size " + trackData.acceleration.size());
+                rollOverSegment(timestamp);
+            } else if (sendToServer && (trackData.acceleration.size() - trackPosition.accIdx.get()) >= Const.TRACK_PART_STEP
+                    && !isUploadBackpressured()) {
+                //while outbox is backpressured, part is not cut, so next part is larger
                 sendNextPart(trackData, trackPosition, false);
             }
         }
@@ -294,17 +402,10 @@ public class SensorService extends Service implements ISensorConsumer,
     @Override
     public void setGeomagneticValues(long timestamp, float[] values) {
         if (trackStarted) {
-            List<SensorData> list = trackData.compass;
-            if (!list.isEmpty()) {
-                SensorData last = list.get(list.size() - 1);
-                //check if new sensor values > (previous + delta) or time interval exceed specified delta
-                if (DataUtil.distance(last.x, last.y, last.z, values[0], values[1], values[2]) > Const.COMPASS_DELTA ||
-                        (timestamp - last.t) > Const.SENSOR_TIME_DELTA) {
-                    list.add(new SensorData(timestamp, values[0], values[1], values[2]));
-                }
-            } else {
-                list.add(new SensorData(System.currentTimeMillis(), values[0], values[1], values[2]));
+            if (fusion != null) {
+                fusion.updateMagnetometer(values[0], values[1], values[2]);
             }
+            storeSample(Const.Stream.COMPASS, timestamp, values, trackData.compass);
         }
     }
 
@@ -318,19 +419,16 @@ public class SensorService extends Service implements ISensorConsumer,
     @Override
     public void setGravityValues(long timestamp, float[] values) {
         if (trackStarted) {
-            //todo synchronize
-            gravHolder.setLastData(timestamp, values);
-            if (gravHolder.shouldStore()) {
-                Collections.addAll(trackData.gravity, gravHolder.valuesToStore());
-            }
+            storeSample(Const.Stream.GRAVITY, timestamp, values, trackData.gravity);
         }
     }
 
     /**
      * Implementation of ISensorConsumer method, to process values from gyroscope sensor.
      * Gyroscope values recalculated into orientation values by SensorListener.
+     * If fusion filter is set, orientation of filter is stored instead.
      * @param timestamp event timestamp, ms
-     * @param values array of orientation values.
+     * @param values array of orientation and angular speed values.
      */
     @Override
     public void setGyroscopeValues(long timestamp, float[] values) {
@@ -341,17 +439,19 @@ public class SensorService extends Service implements ISensorConsumer,
                     return;
                 }
             }
-            List<SensorData> list = trackData.gyroscope;
-            if (!list.isEmpty()) {
-                SensorData last = list.get(list.size() - 1);
-                //Gyroscope format: values[0] - Z, values[1] - X, values[2] - Y
-                if (DataUtil.distance(last.x, last.y, last.z, values[1], values[2], values[0]) > Const.GYROSCOPE_DELTA ||
-                        (timestamp - last.t) > Const.SENSOR_TIME_DELTA) {
-                    list.add(new SensorData(System.currentTimeMillis(), values[1], values[2], values[0]));
+            if (fusion != null) {
+                fusion.updateGyroscope(timestamp, values[3], values[4], values[5]);
+                if (!fusion.isInitialized()) {
+                    return;
                 }
-            } else {
-                list.add(new SensorData(System.currentTimeMillis(), values[1], values[2], values[0]));
+                fusion.getOrientation(fusedOrientation);
+                values = fusedOrientation;
             }
+            //Gyroscope format: values[0] - Z, values[1] - X, values[2] - Y
+            sampleValues[0] = values[1];
+            sampleValues[1] = values[2];
+            sampleValues[2] = values[0];
+            storeSample(Const.Stream.GYROSCOPE, timestamp, sampleValues, trackData.gyroscope);
         }
     }
 
@@ -365,11 +465,7 @@ public class SensorService extends Service implements ISensorConsumer,
     @Override
     public void setLinearAccelerationValues(long timestamp, float[] values) {
         if (trackStarted) {
-            //todo synchronize
-            lAccHolder.setLastData(timestamp, values);
-            if (lAccHolder.shouldStore()) {
-                Collections.addAll(trackData.linearAcc, lAccHolder.valuesToStore());
-            }
+            storeSample(Const.Stream.LINEAR_ACC, timestamp, values, trackData.linearAcc);
         }
     }
 
@@ -383,19 +479,35 @@ public class SensorService extends Service implements ISensorConsumer,
         sendLocationMsg(value);
         if (trackStarted) {
             //store values to track data
-            if (trackData.location.isEmpty()) {
-                trackData.location.add(new LocationData(timestamp, value));
+            LocationSeries list = trackData.location;
+            if (list.isEmpty()) {
+                addLocation(list, timestamp, value);
             } else {
                 //check delta changes
-                LocationData last = trackData.location.get(trackData.location.size() - 1);
-                if ((Math.abs(value.distanceTo(last.l)) > Const.LOCATION_DELTA) ||
-                        ((timestamp - last.t) > Const.SENSOR_TIME_DELTA)) {
-                    trackData.location.add(new LocationData(timestamp, value));
+                int last = list.size() - 1;
+                Location.distanceBetween(list.getY(last), list.getX(last),
+                        value.getLatitude(), value.getLongitude(), distanceResult);
+                if ((Math.abs(distanceResult[0]) > Const.LOCATION_DELTA) ||
+                        ((timestamp - list.getTime(last)) > Const.SENSOR_TIME_DELTA)) {
+                    addLocation(list, timestamp, value);
                 }
             }
         }
     }
 
+    /**
+     * Appends location values to series, see {@link LocationData#LocationData(long, Location)}
+     * @param list location series
+     * @param timestamp event timestamp, ms
+     * @param value Location object
+     */
+    private void addLocation(LocationSeries list, long timestamp, Location value) {
+        list.add(timestamp, value.getLongitude(), value.getLatitude(),
+                value.hasAltitude() ? value.getAltitude() : 0,
+                value.hasSpeed() ? value.getSpeed() : 0);
+        logLast(Const.Stream.LOCATION, list);
+    }
+
     /**
      * Implementation of ISensorConsumer method, to process values from TYPE_PRESSURE sensor.
      * Recalculates into SensorData values:
@@ -420,17 +532,10 @@ public class SensorService extends Service implements ISensorConsumer,
                     altitudeZero /= Const.ALTITUDE_MEAN_COUNT;
                 }
             } else {
-                float altitudeDelta = altitude - altitudeZero;
-                List<SensorData> list = trackData.altitude;
-                if (!list.isEmpty()) {
-                    SensorData last = list.get(list.size() - 1);
-                    if ((Math.abs(last.x - altitudeDelta) > Const.ALTITUDE_DELTA) ||
-                            ((timestamp - last.t) > Const.SENSOR_TIME_DELTA)) {
-                        list.add(new SensorData(timestamp, altitudeDelta, altitude, value));
-                    }
-                } else {
-                    list.add(new SensorData(timestamp, altitudeDelta, altitude, value));
-                }
+                sampleValues[0] = altitude - altitudeZero;
+                sampleValues[1] = altitude;
+                sampleValues[2] = value;
+                storeSample(Const.Stream.ALTITUDE, timestamp, sampleValues, trackData.altitude);
             }
         }
     }
@@ -449,21 +554,205 @@ public class SensorService extends Service implements ISensorConsumer,
     @Override
     public void setRotationVector(long timestamp, float[] values) {
         if (trackStarted) {
-            List<RotationVector> list = trackData.rotation;
-            if (!list.isEmpty()) {
-                RotationVector last = list.get(list.size() - 1);
-                if (DataUtil.distance(last.x, last.y, last.z, values[0], values[1], values[2]) > Const.ROTATION_DELTA ||
-                        (timestamp - last.t) > Const.SENSOR_TIME_DELTA) {
-                    list.add(new RotationVector(System.currentTimeMillis(),
-                            values[0], values[1], values[2], values[3], values[4]));
+            storeSample(Const.Stream.ROTATION, timestamp, values, trackData.rotation);
+        }
+    }
+
+    /**
+     * Offers sample to filter of stream, appends stored samples to track log.
+     * @param stream stream identifier, see Const.Stream
+     * @param timestamp sample timestamp, ms
+     * @param values sample values
+     * @param series series of stored samples
+     * @return count of stored samples
+     */
+    private int storeSample(int stream, long timestamp, float[] values, SensorSeries series) {
+        int stored = filters[stream].add(timestamp, values, series);
+        if (stored > 0) {
+            logSamples(stream, series, series.size() - stored);
+        }
+        return stored;
+    }
+
+    /**
+     * Switches accelerometer and gyroscope to sampling period of rate tier and records tier change as track event.
+     * Called from sensor processing thread, sensors are re-registered on main thread.
+     * @param tier tier, see MotionRateController
+     * @param timestamp time of change
+     */
+    private void setRateTier(int tier, long timestamp) {
+        final int delay = tierDelays[tier];
+        final MotionRateController controller = rateController;
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                //skipped if track is stopped or restarted meanwhile
+                if (rateController == controller) {
+                    setMotionSensorDelay(delay);
                 }
-            } else {
-                list.add(new RotationVector(System.currentTimeMillis(),
-                        values[0], values[1], values[2], values[3], values[4]));
+            }
+        });
+        addEvent(new TrackEvent(timestamp, getRateEventType(tier)));
+        Log.d(TAG, "rate tier " + tier + ", motion energy " + rateController.getEnergy());
+    }
+
+    private static Const.TrackEventType getRateEventType(int tier) {
+        switch (tier) {
+            case MotionRateController.TIER_LOW:
+                return Const.TrackEventType.RATE_LOW;
+            case MotionRateController.TIER_HIGH:
+                return Const.TrackEventType.RATE_HIGH;
+            default:
+                return Const.TrackEventType.RATE_NORMAL;
+        }
+    }
+
+    /**
+     * Appends event to track and track log.
+     * @param event TrackEvent object
+     */
+    private void addEvent(TrackEvent event) {
+        trackData.events.add(event);
+        if (trackLog != null) {
+            try {
+                trackLog.append(event);
+            } catch (IOException e) {
+                Log.e(TAG, "track log write error", e);
+                postToastMessage("Track log write error. " + e.getLocalizedMessage());
+                closeTrackLog(trackLog);
+                trackLog = null;
             }
         }
     }
 
+    /**
+     * Creates rate tier controller if adaptive rate is enabled in settings.
+     * Adaptive rate is not used with batching of sensor events: re-registration of sensor discards events
+     * waiting in its hardware FIFO, so each tier change would lose up to report latency of data.
+     * @param sPref application settings
+     */
+    private void createRateController(SharedPreferences sPref) {
+        rateController = null;
+        if (!sPref.getBoolean(Const.ADAPTIVE_RATE_KEY, Const.ADAPTIVE_RATE)) {
+            return;
+        }
+        if (reportLatencyUs > 0) {
+            Log.w(TAG, "adaptive sensor rate is off, sensor events are batched");
+            return;
+        }
+        tierDelays[MotionRateController.TIER_LOW] = sPref.getInt(Const.SENSOR_DELAY_LOW_KEY, Const.SENSOR_DELAY_LOW);
+        tierDelays[MotionRateController.TIER_NORMAL] = sensorDelayValue;
+        tierDelays[MotionRateController.TIER_HIGH] = sPref.getInt(Const.SENSOR_DELAY_HIGH_KEY, Const.SENSOR_DELAY_HIGH);
+        rateController = new MotionRateController(Const.MOTION_ENERGY_NORMAL, Const.MOTION_ENERGY_HIGH,
+                Const.MOTION_ENERGY_WINDOW, Const.MOTION_RATE_HOLD_TIME);
+    }
+
+    /**
+     * Creates sample filters of track streams, filter types are read from settings.
+     * @param sPref application settings
+     */
+    private void createFilters(SharedPreferences sPref) {
+        for (int stream = 0; stream < Const.Stream.COUNT; stream++) {
+            if (stream == Const.Stream.LOCATION || stream == Const.Stream.EVENTS) {
+                continue;
+            }
+            String type = sPref.getString(Const.SAMPLE_FILTER_KEY + stream, Const.SAMPLE_FILTER);
+            float tolerance = stream == Const.Stream.ACCELERATION
+                    ? accDeltaValue : SampleFilters.getDefaultTolerance(stream);
+            if (fusion != null && (stream == Const.Stream.COMPASS || stream == Const.Stream.GRAVITY
+                    || stream == Const.Stream.ROTATION)) {
+                //drift of orientation is corrected on the fly, raw orientation data are stored sparser
+                tolerance *= Const.FUSION_RAW_DELTA_FACTOR;
+            }
+            filters[stream] = SampleFilters.create(type, stream, tolerance);
+        }
+    }
+
+    /**
+     * Appends samples held by filters to track streams, called before track or segment is closed.
+     */
+    private void flushFilters() {
+        for (int stream = 0; stream < Const.Stream.COUNT; stream++) {
+            if (filters[stream] != null) {
+                SensorSeries series = (SensorSeries) trackData.getSeries(stream);
+                int stored = filters[stream].flush(series);
+                if (stored > 0) {
+                    logSamples(stream, series, series.size() - stored);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends stored samples to track log, if track log is used.
+     * @param stream stream identifier, see Const.Stream
+     * @param series series of stored samples
+     * @param from index of first sample to append
+     */
+    private void logSamples(int stream, TimeSeries series, int from) {
+        if (trackLog != null) {
+            try {
+                trackLog.append(stream, series, from);
+            } catch (IOException e) {
+                Log.e(TAG, "track log write error", e);
+                postToastMessage("Track log write error. " + e.getLocalizedMessage());
+                closeTrackLog(trackLog);
+                trackLog = null;
+            }
+        }
+    }
+
+    private void logLast(int stream, TimeSeries series) {
+        logSamples(stream, series, series.size() - 1);
+    }
+
+    /**
+     * Creates track log file for specified track, if track log format is used.
+     * @param track track or track segment
+     * @return TrackLog object or null
+     */
+    private TrackLog openTrackLog(TrackData track) {
+        if (!TrackLog.EXTENSION.equals(TRACK_FILE_FORMAT)) {
+            return null;
+        }
+        File file = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS),
+                getTrackFileName(track, TrackLog.EXTENSION));
+        try {
+            Log.d(TAG, "-----open track log " + file.getName());
+            return new TrackLog(file, track, Const.TRACK_LOG_BUFFER_SIZE, trackLogFlushInterval,
+                    flushExecutor);
+        } catch (IOException e) {
+            Log.e(TAG, "track log creation error", e);
+            postToastMessage("File " + file.getName() + " store exception. " + e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes footer of finished track log.
+     * @param log TrackLog object
+     * @param track finished track or track segment
+     */
+    private void finishTrackLog(TrackLog log, TrackData track) {
+        try {
+            log.finish(track.end, track.partCount);
+            Log.d(TAG, "------close track log " + log.getFile().getName() + ", records " + log.getRecordCount());
+            sendBroadcast(new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, Uri.fromFile(log.getFile())));
+            postToastMessage("File " + log.getFile().getPath() + " stored.");
+        } catch (IOException e) {
+            Log.e(TAG, "track log finish error", e);
+            closeTrackLog(log);
+        }
+    }
+
+    private void closeTrackLog(TrackLog log) {
+        try {
+            log.close();
+        } catch (IOException e) {
+            Log.e(TAG, "track log close error", e);
+        }
+    }
+
     /**
      * Implementation of GoogleApiClient.ConnectionCallbacks method.
      * Called when the connect request has successfully completed.
@@ -623,8 +912,8 @@ public class SensorService extends Service implements ISensorConsumer,
         if (accDeltaValue != delta) {
             accDeltaValue = delta;
         }
-        if (!trackStarted) {
-            accHolder.setDelta(accDeltaValue);
+        if (!trackStarted && filters[Const.Stream.ACCELERATION] != null) {
+            filters[Const.Stream.ACCELERATION].setTolerance(accDeltaValue);
         }
     }
 
@@ -646,30 +935,139 @@ public class SensorService extends Service implements ISensorConsumer,
         serverUrl = null;
 
         accCount = 0;
-
-        lAccHolder.clear();
-        cLAccHolder.clear();
-        accHolder.clear();
-        gravHolder.clear();
-        cGravHolder.clear();
-
-        trackData = new TrackData(DataUtil.getPhoneInfo((TelephonyManager)getSystemService(Context.TELEPHONY_SERVICE)));
-        trackData.start = System.currentTimeMillis();
-        trackPosition = new TrackPosition();
-        trackData.sensorDataRate = sensorDelayValue;
-        trackStarted = true;
+        sensorListener.getDeliveryStats().reset();
+        startCpuTime = Process.getElapsedCpuTime();
+
+        SharedPreferences sPref = getSharedPreferences(Const.APPLICATION_SETTINGS, MODE_PRIVATE);
+        fusion = OrientationFilters.create(sPref.getString(Const.FUSION_FILTER_KEY, Const.FUSION_FILTER));
+        createFilters(sPref);
+        createRateController(sPref);
+
+        TrackData track = new TrackData(DataUtil.getPhoneInfo((TelephonyManager)getSystemService(Context.TELEPHONY_SERVICE)));
+        track.start = System.currentTimeMillis();
+        track.sensorDataRate = sensorDelayValue;
+        TrackLog log = openTrackLog(track);
+        synchronized (lock) {
+            trackData = track;
+            trackPosition = new TrackPosition();
+            standbyTrack = new TrackData();
+            trackLog = log;
+            trackStarted = true;
+        }
         //send command - track stopped
         sendCommand(Const.Command.TRACK_START);
     }
 
+    /**
+     * Replaces active track segment with standby one, without stopping of recording.
+     * New segment keeps track uuid, part numbering and filters state, so streams have no gap.
+     * Rest of the old segment is sent and saved to file in background.
+     * Called from sensor processing thread.
+     * @param timestamp time of segment switch
+     */
+    private void rollOverSegment(long timestamp) {
+        flushFilters();
+        final TrackData old = trackData;
+        final TrackPosition oldPos = trackPosition;
+        TrackData next = standbyTrack;
+        standbyTrack = null;
+        if (next == null) {
+            next = new TrackData();
+        }
+        old.end = timestamp;
+        TrackPosition nextPos = new TrackPosition();
+        //cut rest of old segment now, to continue part numbering in new segment
+        final TrackPart part = sendToServer ? getTrackPart(old, oldPos, false) : null;
+        //part count is written to file of old segment
+        old.rollOver(next, timestamp, oldPos.partNum.get());
+        nextPos.partNum.set(oldPos.partNum.get());
+        trackData = next;
+        trackPosition = nextPos;
+        final TrackLog oldLog = trackLog;
+        trackLog = openTrackLog(next);
+        if (rateController != null && rateController.getTier() != MotionRateController.TIER_NORMAL) {
+            //segment starts with rate of the old one
+            addEvent(new TrackEvent(timestamp, getRateEventType(rateController.getTier())));
+        }
+
+        flushExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (part != null) {
+                    sendPart(part);
+                }
+                if (oldLog != null) {
+                    finishTrackLog(oldLog, old);
+                }
+                else {
+                    saveTrack(old);
+                }
+                prepareStandbyTrack();
+            }
+        });
+        sendStatusMsg("Track segment " + next.segment + " started");
+    }
+
+    /**
+     * Creates empty track object for next segment switch, called in background.
+     */
+    private void prepareStandbyTrack() {
+        TrackData standby = new TrackData();
+        synchronized (lock) {
+            if (standbyTrack == null) {
+                standbyTrack = standby;
+            }
+        }
+    }
+
     /**
      * Ends the track recording, stores track to file and send it to external server.
+     * If sensor events are batched, recording ends after delivery of events waiting in hardware FIFO
+     * and their processing, or after flush timeout.
      */
     public void stopTrack() {
         sendCommand(Const.Command.TRACK_STOPPING);
+        if (reportLatencyUs > 0 && trackStarted) {
+            if (!flushing) {
+                flushing = true;
+                SensorManager mgr = (SensorManager) getSystemService(Activity.SENSOR_SERVICE);
+                if (sensorListener.flush(mgr, registeredSensors)) {
+                    final long deadline = SystemClock.elapsedRealtime() + Const.SENSOR_FLUSH_TIMEOUT;
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            //flush completion and processing of delivered events are checked on main thread
+                            if ((sensorListener.isFlushCompleted() && eventQueue.size() == 0)
+                                    || SystemClock.elapsedRealtime() > deadline) {
+                                finishTrack();
+                            }
+                            else {
+                                handler.postDelayed(this, FLUSH_CHECK_INTERVAL);
+                            }
+                        }
+                    });
+                    return;
+                }
+                Log.w(TAG, "sensor flush request failed");
+            }
+            else {
+                //flush is in progress
+                return;
+            }
+        }
+        finishTrack();
+    }
+
+    /**
+     * Ends the track recording, called by stopTrack after flush of batched sensor events.
+     */
+    private void finishTrack() {
+        flushing = false;
         try {
             final TrackData track;
             TrackPosition trackPos;
+            TrackLog log;
+            boolean resetRate;
             synchronized (lock) {
                 trackStarted = false;
                 if (trackData == null) {
@@ -678,22 +1076,43 @@ public class SensorService extends Service implements ISensorConsumer,
                     Log.w(TAG, "trackData is null, track recording already stopped");
                     return;
                 }
+                flushFilters();
                 trackData.end = System.currentTimeMillis();
                 track = trackData;
                 trackData = null;
                 trackPos = trackPosition;
                 trackPosition = null;
+                log = trackLog;
+                trackLog = null;
+                resetRate = rateController != null;
+                rateController = null;
             }
+            if (resetRate) {
+                setMotionSensorDelay(sensorDelayValue);
+            }
+            Log.d(TAG, "Sensor queue overflow count: " + eventQueue.getOverflowCount()
+                    + ", processing errors: " + eventQueue.getErrorCount());
+            long duration = track.end - track.start;
+            long cpuTime = Process.getElapsedCpuTime() - startCpuTime;
+            Log.d(TAG, "Sensor delivery: " + sensorListener.getDeliveryStats().toString(duration)
+                    + ", flushes " + sensorListener.getDeliveryStats().getFlushCount()
+                    + ", cpu " + (duration > 0 ? cpuTime * 3600000 / duration : 0) + " ms/hour");
 
             track.partCount = trackPos.partNum.get() + 1;
             //write data to file
-            //todo save file on bg thread
-            saveTrackToFile(track);
+            if (log != null) {
+                //samples are already in log, only footer is written
+                finishTrackLog(log, track);
+                playTone();
+            }
+            else {
+                saveTrackToFile(track);
+            }
             if (sendToServer) {
                 sendNextPart(track, trackPos, true);
                 String msg = "Sent track to server: " + track.uuid;
                 sendStatusMsg(msg);
-                Toast.makeText(getApplicationContext(), msg, Toast.LENGTH_LONG).show();
+                postToastMessage(msg);
             }
         } catch (Exception e) {
             Log.e(TAG, "stopTrack error", e);
@@ -708,26 +1127,57 @@ public class SensorService extends Service implements ISensorConsumer,
 
 
     /**
-     * Converts track to json object or binary object and save it to file.
+     * Converts track to json object or binary object and save it to file, in background.
      * @param track TrackData object
      */
     private void saveTrackToFile(final TrackData track) {
         Runnable r = new Runnable() {
             @Override
             public void run() {
-                if (TRACK_FILE_FORMAT.equals("json")) {
-                    saveTrackAsJson(track);
-                }
-                else {
-                    Log.d(TAG, "-----saveTrackAsBinary");
-                    saveTrackAsBinary(track);
-                }
-                ToneGenerator toneG = new ToneGenerator(AudioManager.STREAM_ALARM, ToneGenerator.MAX_VOLUME);
-                toneG.startTone(ToneGenerator.TONE_CDMA_ALERT_CALL_GUARD, 400);
+                saveTrack(track);
+                playTone();
             }
         };
-        Thread t = new Thread(r);
-        t.start();
+        flushExecutor.execute(r);
+    }
+
+    /**
+     * Plays short tone, signals that track is stored.
+     */
+    private void playTone() {
+        ToneGenerator toneG = new ToneGenerator(AudioManager.STREAM_ALARM, ToneGenerator.MAX_VOLUME);
+        toneG.startTone(ToneGenerator.TONE_CDMA_ALERT_CALL_GUARD, 400);
+    }
+
+    /**
+     * Converts track to json object or binary object and save it to file.
+     * @param track TrackData object
+     */
+    private void saveTrack(TrackData track) {
+        if (TRACK_FILE_FORMAT.equals("json")) {
+            saveTrackAsJson(track);
+        }
+        else if (TRACK_FILE_FORMAT.equals(TrackFile.EXTENSION)) {
+            saveTrackAsCompact(track);
+        }
+        else {
+            Log.d(TAG, "-----saveTrackAsBinary");
+            saveTrackAsBinary(track);
+        }
+    }
+
+    /**
+     * Returns name of file for specified track, segment number is added for continued tracks.
+     * @param track TrackData object
+     * @param extension file extension
+     * @return file name
+     */
+    private String getTrackFileName(TrackData track, String extension) {
+        String name = "sensorTrack_" + sdf.get().format(new Date(track.start));
+        if (track.segment > 0) {
+            name += "_" + track.segment;
+        }
+        return name + "." + extension;
     }
 
     /**
@@ -735,7 +1185,7 @@ public class SensorService extends Service implements ISensorConsumer,
      * @param track TrackData object
      */
     private void saveTrackAsBinary(TrackData track) {
-        String filename = "sensorTrack_" + sdf.get().format(new Date()) + ".bin";
+        String filename = getTrackFileName(track, "bin");
         File file = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), filename);
         try {
             FileOutputStream fos = new FileOutputStream(file);
@@ -755,22 +1205,38 @@ public class SensorService extends Service implements ISensorConsumer,
         }
     }
 
+    /**
+     * Save track to file in compact binary format, see {@link TrackFile}.
+     * @param track TrackData object
+     */
+    private void saveTrackAsCompact(TrackData track) {
+        String filename = getTrackFileName(track, TrackFile.EXTENSION);
+        File file = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), filename);
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            Log.d(TAG, "-----write to file " + file.getName());
+            TrackFileWriter.write(track, fos.getChannel());
+            sendBroadcast(new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, Uri.fromFile(file)));
+            postToastMessage("File " + file.getPath() + " stored.");
+        } catch (IOException e) {
+            Log.e(TAG, "FileOutputStream creation error", e);
+            postToastMessage("File " + filename + " store exception. " + e.getLocalizedMessage());
+        }
+    }
+
     /**
      * Save track to file as json object.
      * @param track TrackData object
      */
     private void saveTrackAsJson(TrackData track) {
-        String filename = "sensorTrack_" + sdf.get().format(new Date()) + ".json";
+        String filename = getTrackFileName(track, "json");
         File file = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS), filename);
-        try (FileWriter fw = new FileWriter(file);
-             BufferedWriter writer = new BufferedWriter(fw)) {
-            String sTrack = DataUtil.generateTrack(track);
-            writer.write(sTrack);
+        try (JsonStreamWriter writer = new JsonStreamWriter(new FileOutputStream(file), Const.TRACK_LOG_BUFFER_SIZE)) {
+            TrackJsonWriter.writeTrack(track, writer);
             writer.flush();
             sendBroadcast(new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, Uri.fromFile(file)));
             postToastMessage("File " + file.getPath() + " stored.");
         } catch (IOException e) {
-            Log.e(TAG, "FileWriter creation error", e);
+            Log.e(TAG, "FileOutputStream creation error", e);
             postToastMessage("File " + filename + " store exception. " + e.getLocalizedMessage());
         }
     }
@@ -803,6 +1269,15 @@ public class SensorService extends Service implements ISensorConsumer,
         return serverUrl;
     }
 
+    /**
+     * Returns format of track parts uploaded to current server.
+     * @return Const.UPLOAD_FORMAT_JSON or Const.UPLOAD_FORMAT_BINARY
+     */
+    private String getUploadFormat() {
+        SharedPreferences sPref = getSharedPreferences(Const.APPLICATION_SETTINGS, MODE_PRIVATE);
+        return sPref.getString(Const.UPLOAD_FORMAT_KEY + getServerUrl(), Const.UPLOAD_FORMAT);
+    }
+
     /**
      * Requests Wake lock level: Ensures that the CPU is running;
      * when screen turned off, sensor services should remain active.
@@ -826,33 +1301,82 @@ public class SensorService extends Service implements ISensorConsumer,
     }
 
     /**
-     * Returns instance of the Volley request dispatch queue, uses singleton pattern.
+     * Returns instance of the Volley request dispatch queue, created with the service.
+     * Called from main thread and from outbox worker thread.
      * @return RequestQueue entity
      */
     public RequestQueue getRequestQueue() {
-        if (requestQueue == null) {
-            requestQueue = Volley.newRequestQueue(getApplicationContext());
-        }
         return requestQueue;
     }
 
     private void sendNextPart(final TrackData data, TrackPosition trackPos, boolean last) {
         String url = getServerUrl();
         if (url == null || url.trim().length() == 0) {
-            Toast.makeText(getApplicationContext(), "Server url undefined, use setup screen.", Toast.LENGTH_LONG).show();
+            postToastMessage("Server url undefined, use setup screen.");
         } else {
-            //test ping then send part
             TrackPart part = getTrackPart(data, trackPos, last);
             if (part != null) {
-                String pingUrl = url + Const.URL_PING;
-                String addPartUrl = url + Const.URL_ADD_TRACK_PART;
-                PingSuccessListener pingSuccess = new PingSuccessListener(part, addPartUrl);
-                PingErrorListener pingError = new PingErrorListener(part);
-                JsonObjectRequest request = new JsonObjectRequest(Request.Method.GET, pingUrl, null, pingSuccess, pingError);
-                getRequestQueue().add(request);
+                sendPart(part);
             }
+        }
+    }
 
+    /**
+     * Opens upload outbox and starts sending of parts left from previous runs.
+     */
+    private void openOutbox() {
+        try {
+            UploadQueue queue = new UploadQueue(new File(getFilesDir(), Const.OUTBOX_DIR), Const.OUTBOX_SYNC_SIZE);
+            Backoff backoff = new Backoff(Const.UPLOAD_RETRY_MIN_DELAY, Const.UPLOAD_RETRY_MAX_DELAY, new Random());
+            SharedPreferences sPref = getSharedPreferences(Const.APPLICATION_SETTINGS, MODE_PRIVATE);
+            int maxInFlight = sPref.getInt(Const.UPLOAD_MAX_IN_FLIGHT_KEY, Const.UPLOAD_MAX_IN_FLIGHT);
+            outbox = new UploadOutbox(queue, new OutboxSender(), backoff, Const.OUTBOX_SYNC_DELAY,
+                    maxInFlight, Const.UPLOAD_BACKLOG_SIZE);
+            outbox.start();
+            if (queue.getDepth() > 0) {
+                Log.i(TAG, "Upload outbox: " + queue.getDepth() + " parts, " + queue.getBytesPending() + " bytes");
+            }
+        }
+        catch (IOException e) {
+            Log.e(TAG, "Upload outbox open error", e);
+            postToastMessage("Upload outbox open error. " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Checks if upload backlog is exceeded, new parts should be postponed.
+     * @return true if outbox is backpressured
+     */
+    private boolean isUploadBackpressured() {
+        return outbox != null && outbox.isBackpressured();
+    }
+
+    /**
+     * Returns count of track parts waiting for upload.
+     * @return count of parts
+     */
+    public int getOutboxDepth() {
+        return outbox != null ? outbox.getDepth() : 0;
+    }
+
+    /**
+     * Returns size of encoded track parts waiting for upload.
+     * @return size in bytes
+     */
+    public long getOutboxBytesPending() {
+        return outbox != null ? outbox.getBytesPending() : 0;
+    }
+
+    /**
+     * Puts track part to upload outbox, part is sent in background and retried on failure.
+     * @param part TrackPart object
+     */
+    private void sendPart(TrackPart part) {
+        if (outbox == null) {
+            Log.w(TAG, "Upload outbox is not available, part " + part.partNum + " is not sent");
+            return;
         }
+        outbox.add(part);
     }
 
     /**
@@ -930,6 +1454,14 @@ public class SensorService extends Service implements ISensorConsumer,
         return current;
     }
 
+    public long getStart(long current, TimeSeries series) {
+        if (!series.isEmpty()) {
+            long s = series.getFirstTime();
+            return (s < current) ? s : current;
+        }
+        return current;
+    }
+
     public <T extends TimeData> long getEnd(long current, List<T> list) {
         if (!list.isEmpty()) {
             long e = list.get(list.size() - 1).t;
@@ -938,13 +1470,77 @@ public class SensorService extends Service implements ISensorConsumer,
         return current;
     }
 
+    public long getEnd(long current, TimeSeries series) {
+        if (!series.isEmpty()) {
+            long e = series.getLastTime();
+            return (e > current) ? e : current;
+        }
+        return current;
+    }
+
+    /**
+     * Sender of outbox parts: tests ping then sends part.
+     */
+    class OutboxSender implements UploadOutbox.Sender {
+
+        @Override
+        public void send(List<byte[]> data, UploadOutbox.Callback callback) {
+            String url = getServerUrl();
+            if (url == null || url.trim().length() == 0) {
+                Log.w(TAG, "Server url undefined, part upload is postponed");
+                callback.onFailure();
+                return;
+            }
+            List<TrackPart> parts = new ArrayList<>(data.size());
+            try {
+                for (byte[] part : data) {
+                    parts.add(TrackFileReader.readPart(ByteBuffer.wrap(part)));
+                }
+            }
+            catch (IOException e) {
+                //record passed checksum, so it is not expected
+                Log.e(TAG, "Outbox part decoding error", e);
+                callback.onFailure();
+                return;
+            }
+            if (!serverHealth.isPingNeeded(url, SystemClock.elapsedRealtime())) {
+                //server is known healthy, parts are posted without ping
+                postParts(parts, url, serverHealth.getCapabilities(), callback);
+                return;
+            }
+            String pingUrl = url + Const.URL_PING;
+            PingSuccessListener pingSuccess = new PingSuccessListener(parts, url, callback);
+            PingErrorListener pingError = new PingErrorListener(parts.get(0), callback);
+            JsonObjectRequest request = new JsonObjectRequest(Request.Method.GET, pingUrl, null, pingSuccess, pingError);
+            getRequestQueue().add(request);
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            //multi-part requests are used only if server advertised them in recent ping
+            return serverHealth.isHealthy() ? serverHealth.getCapabilities().getMaxParts() : 1;
+        }
+
+        @Override
+        public void onQueueError(String message, IOException e) {
+            Log.e(TAG, message, e);
+            postToastMessage(message + ". " + e.getLocalizedMessage());
+        }
+    }
+
     /**
      * Implementation of Response.Listener to create TJsonRequest entity
      */
     class SuccessListener implements Response.Listener<JSONObject> {
+        private UploadOutbox.Callback callback;
+
+        public SuccessListener(UploadOutbox.Callback callback) {
+            this.callback = callback;
+        }
 
         @Override
         public void onResponse(final JSONObject response) {
+            callback.onSuccess(PartAck.fromResponse(response));
             String msg = "Sent track to server: " + response;
             sendStatusMsg(msg);
             //Toast.makeText(getApplicationContext(), msg, Toast.LENGTH_LONG).show();
@@ -956,18 +1552,24 @@ public class SensorService extends Service implements ISensorConsumer,
      * Implementation of Response.ErrorListener to create TJsonRequest entity
      */
     class ErrorListener implements Response.ErrorListener {
+        private UploadOutbox.Callback callback;
+
+        public ErrorListener(UploadOutbox.Callback callback) {
+            this.callback = callback;
+        }
 
         @Override
         public void onErrorResponse(final VolleyError error) {
-            // Handle error
+            //part stays in outbox and is sent again later, after ping
+            serverHealth.onFailure();
+            callback.onFailure();
             String msg = "Error: send track to server. ";
             NetworkResponse response = error.networkResponse;
             if (response != null) {
                 msg += "Status: " + response.statusCode + ". ";
             }
-            msg += error.getLocalizedMessage();
+            msg += error.getLocalizedMessage() + ". Parts in outbox: " + getOutboxDepth();
             sendStatusMsg(msg);
-            Toast.makeText(getApplicationContext(), msg, Toast.LENGTH_LONG).show();
             Log.e(TAG, "Error: send track to server", error);
         }
     }
@@ -976,43 +1578,71 @@ public class SensorService extends Service implements ISensorConsumer,
      * Implementation of Response.Listener for ping request
      */
     class PingSuccessListener implements Response.Listener<JSONObject> {
-        private TrackPart part;
+        private List<TrackPart> parts;
         private String url;
+        private UploadOutbox.Callback callback;
 
-        public PingSuccessListener(TrackPart part, String url) {
-            this.part = part;
+        public PingSuccessListener(List<TrackPart> parts, String url, UploadOutbox.Callback callback) {
+            this.parts = parts;
             this.url = url;
+            this.callback = callback;
         }
 
         @Override
         public void onResponse(final JSONObject response) {
             Log.d(TAG, "Server ping success: " + response);
-            if (part != null) {
-                JSONObject jsonPart = DataUtil.generateTrackPart(part);
-                JsonObjectRequest request = new JsonObjectRequest(Request.Method.POST, url, jsonPart, successListener, errorListener);
-                getRequestQueue().add(request);
+            ServerCapabilities capabilities = ServerCapabilities.fromPing(response);
+            serverHealth.onPingSuccess(capabilities, SystemClock.elapsedRealtime());
+            if (parts.size() > capabilities.getMaxParts()) {
+                //server does not accept such batch anymore, parts are sent again in smaller batches
+                Log.w(TAG, "Server accepts up to " + capabilities.getMaxParts() + " parts per request");
+                callback.onFailure();
+                return;
             }
+            postParts(parts, url, capabilities, callback);
         }
     }
 
+    /**
+     * Posts track parts to server, several parts are posted to multi-part url.
+     * @param parts list of parts
+     * @param url server url
+     * @param capabilities server capabilities
+     * @param callback outbox callback
+     */
+    private void postParts(List<TrackPart> parts, String url, ServerCapabilities capabilities,
+                           UploadOutbox.Callback callback) {
+        //compress part only if server declared gzip support
+        int level = capabilities.isGzipSupported() ? uploadCompressionLevel : 0;
+        boolean binary = Const.UPLOAD_FORMAT_BINARY.equals(getUploadFormat());
+        String addPartUrl = url + (parts.size() > 1 ? Const.URL_ADD_TRACK_PARTS : Const.URL_ADD_TRACK_PART);
+        TrackPartRequest request = new TrackPartRequest(addPartUrl, parts, binary, level,
+                new SuccessListener(callback), new ErrorListener(callback));
+        getRequestQueue().add(request);
+    }
+
     /**
      * * Implementation of Response.ErrorListener for ping request
      */
     class PingErrorListener implements Response.ErrorListener {
         private TrackPart part;
+        private UploadOutbox.Callback callback;
 
-        public PingErrorListener(TrackPart part) {
+        public PingErrorListener(TrackPart part, UploadOutbox.Callback callback) {
             this.part = part;
+            this.callback = callback;
         }
 
         @Override
         public void onErrorResponse(final VolleyError error) {
             // Handle error
-            Log.e(TAG, "Server ping error. Part [" + part.partNum + ":" + part.uuid + "] do not sent", error);
-            String msg = "Server ping error. Part ["  + part.partNum + ":" + part.uuid + "] " + error.getLocalizedMessage();
+            //part stays in outbox and is sent again later
+            serverHealth.onFailure();
+            callback.onFailure();
+            Log.e(TAG, "Server ping error. Part [" + part.partNum + ":" + part.uuid + "] postponed", error);
+            String msg = "Server ping error. Part ["  + part.partNum + ":" + part.uuid + "] " + error.getLocalizedMessage()
+                    + ". Parts in outbox: " + getOutboxDepth();
             sendStatusMsg(msg);
-            Toast.makeText(getApplicationContext(), msg, Toast.LENGTH_LONG).show();
-            //todo set part to queue to send later
         }
     }
 }
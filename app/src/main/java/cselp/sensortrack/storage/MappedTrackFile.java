@@ -0,0 +1,322 @@
+package cselp.sensortrack.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.bean.LocationSeries;
+import cselp.sensortrack.bean.SensorSeries;
+import cselp.sensortrack.bean.TimeSeries;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackEvent;
+
+/**
+ * Random-access reader of compact track files (see {@link TrackFile}), backed by memory-mapped file.
+ * Opening reads only header and section directory, stream data is decoded lazily
+ * by {@link Cursor} objects, so reading single stream or time range does not touch rest of file.
+ * Cursor seeks time by binary search in block index of section (version 2 files), so time range
+ * is found in O(log n) time; sections without index are scanned from start.
+ */
+public class MappedTrackFile {
+    private final ByteBuffer buffer;
+    //track metadata, streams are empty
+    private final TrackData track = new TrackData();
+    //sections indexed by stream identifier, null for missing streams
+    private final TrackFile.Section[] sections = new TrackFile.Section[Const.Stream.COUNT];
+
+    /**
+     * Maps track file and reads its header.
+     * @param file track file
+     * @return MappedTrackFile object
+     * @throws IOException on read error or wrong file format
+     */
+    public static MappedTrackFile open(File file) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file);
+             FileChannel channel = fis.getChannel()) {
+            //mapping stays valid after channel is closed
+            return new MappedTrackFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Creates reader over track file content.
+     * @param buffer file content
+     * @throws IOException on wrong format
+     */
+    public MappedTrackFile(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        for (TrackFile.Section section : TrackFileReader.readHeader(this.buffer, track)) {
+            if (section.stream >= 0 && section.stream < sections.length) {
+                sections[section.stream] = section;
+            }
+        }
+    }
+
+    /**
+     * Returns track metadata: uuid, times, deltas, phone info. Streams of returned object are empty.
+     * @return TrackData object
+     */
+    public TrackData getTrack() {
+        return track;
+    }
+
+    /**
+     * Returns count of samples in stream.
+     * @param stream stream identifier, see Const.Stream
+     * @return count of samples, 0 if stream is absent
+     */
+    public int getCount(int stream) {
+        TrackFile.Section section = sections[stream];
+        return section == null ? 0 : section.count;
+    }
+
+    /**
+     * Creates cursor over stream samples. Cursors are independent, single cursor is not thread-safe.
+     * @param stream stream identifier, see Const.Stream
+     * @return Cursor object, positioned before first sample
+     */
+    public Cursor cursor(int stream) {
+        return new Cursor(stream, sections[stream]);
+    }
+
+    /**
+     * Reads samples of stream in specified time range.
+     * @param stream stream identifier, see Const.Stream, except events
+     * @param from start time, inclusive
+     * @param to end time, exclusive
+     * @return new series with samples in range
+     */
+    public TimeSeries read(int stream, long from, long to) {
+        TimeSeries series = stream == Const.Stream.LOCATION
+                ? new LocationSeries() : new SensorSeries(TrackFile.columns(stream));
+        read(stream, from, to, series);
+        return series;
+    }
+
+    private void read(int stream, long from, long to, TimeSeries series) {
+        Cursor cursor = cursor(stream);
+        if (cursor.seek(from)) {
+            do {
+                if (cursor.getTime() >= to) {
+                    break;
+                }
+                cursor.copyTo(series);
+            } while (cursor.next());
+        }
+    }
+
+    /**
+     * Reads all streams in specified time range, e.g. data around track event.
+     * Only samples of range and O(log n) index entries are decoded.
+     * @param from start time, inclusive
+     * @param to end time, exclusive
+     * @return TrackData object with track metadata and samples in range
+     */
+    public TrackData slice(long from, long to) {
+        TrackData res = new TrackData();
+        res.initFrom(track);
+        for (int stream = 0; stream < Const.Stream.COUNT; stream++) {
+            if (stream == Const.Stream.EVENTS) {
+                res.events = readEvents(from, to);
+            }
+            else if (sections[stream] != null) {
+                read(stream, from, to, res.getSeries(stream));
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Reads track events in specified time range.
+     * @param from start time, inclusive
+     * @param to end time, exclusive
+     * @return list of events
+     */
+    public List<TrackEvent> readEvents(long from, long to) {
+        List<TrackEvent> events = new ArrayList<>();
+        Cursor cursor = cursor(Const.Stream.EVENTS);
+        if (cursor.seek(from)) {
+            do {
+                if (cursor.getTime() >= to) {
+                    break;
+                }
+                events.add(new TrackEvent(cursor.getTime(), cursor.getEventType()));
+            } while (cursor.next());
+        }
+        return events;
+    }
+
+    /**
+     * Forward cursor over samples of single stream. Timestamps are decoded on move,
+     * values are read directly from mapped buffer on request.
+     */
+    public class Cursor {
+        private final int stream;
+        private final TrackFile.Section section;
+        private final int count;
+        private final int valueSize;
+        //own view of mapped buffer, cursors do not share position
+        private final ByteBuffer buf = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        //position of next timestamp delta
+        private int timePosition;
+        private int index = -1;
+        private long time;
+
+        Cursor(int stream, TrackFile.Section section) {
+            this.stream = stream;
+            this.section = section;
+            count = section == null ? 0 : section.count;
+            valueSize = TrackFile.valueSize(stream);
+            reset();
+        }
+
+        public int getStream() {
+            return stream;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns index of current sample, -1 if cursor is before first sample.
+         * @return sample index
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Moves cursor before first sample.
+         */
+        public void reset() {
+            index = -1;
+            time = track.start;
+            timePosition = section == null ? 0 : section.offset;
+        }
+
+        /**
+         * Moves cursor to next sample.
+         * @return false if there are no more samples
+         */
+        public boolean next() {
+            if (index + 1 >= count) {
+                index = count;
+                return false;
+            }
+            buf.position(timePosition);
+            time += VarInt.getSigned(buf);
+            timePosition = buf.position();
+            index++;
+            return true;
+        }
+
+        /**
+         * Moves cursor to first sample with time not less than specified.
+         * Cursor is moved backward (reset) only if target time is before current sample.
+         * @param t target time
+         * @return false if there is no such sample
+         */
+        public boolean seek(long t) {
+            if (index >= count || (index >= 0 && time > t)) {
+                reset();
+            }
+            if (index >= 0 && time >= t) {
+                return true;
+            }
+            jump(t);
+            while (next()) {
+                if (time >= t) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Moves cursor forward to the last indexed sample with time less than specified,
+         * by binary search in block index. Cursor is not moved if there is no such sample after current one.
+         * @param t target time
+         */
+        private void jump(long t) {
+            int size = section == null ? 0 : section.getIndexSize();
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (buf.getLong(section.indexOffset + mid * TrackFile.INDEX_ENTRY_SIZE) < t) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            int sample = low * TrackFile.INDEX_STEP;
+            if (low > 0 && sample > index) {
+                int entry = section.indexOffset + (low - 1) * TrackFile.INDEX_ENTRY_SIZE;
+                index = sample;
+                time = buf.getLong(entry);
+                timePosition = section.offset + buf.getInt(entry + 8);
+            }
+        }
+
+        /**
+         * Returns time of current sample.
+         * @return timestamp
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns value of current sample.
+         * @param column column index, see SensorSeries and LocationSeries constants
+         * @return value
+         */
+        public double get(int column) {
+            int offset = section.getColumnOffset(column) + index * valueSize;
+            return valueSize == 8 ? buf.getDouble(offset) : buf.getFloat(offset);
+        }
+
+        /**
+         * Returns float value of current sample, not applicable to location stream.
+         * @param column column index, see SensorSeries constants
+         * @return value
+         */
+        public float getFloat(int column) {
+            return buf.getFloat(section.getColumnOffset(column) + index * valueSize);
+        }
+
+        /**
+         * Returns type of current event, applicable to events stream only.
+         * @return event type
+         */
+        public Const.TrackEventType getEventType() {
+            return Const.TrackEventType.values()[buf.get(section.getColumnOffset(0) + index)];
+        }
+
+        /**
+         * Appends current sample to series.
+         * @param series SensorSeries or LocationSeries of the same stream
+         */
+        public void copyTo(TimeSeries series) {
+            if (series instanceof LocationSeries) {
+                ((LocationSeries) series).add(time, get(LocationSeries.X), get(LocationSeries.Y),
+                        get(LocationSeries.Z), get(LocationSeries.S));
+            }
+            else if (((SensorSeries) series).getColumns() == 5) {
+                ((SensorSeries) series).add(time, getFloat(0), getFloat(1), getFloat(2),
+                        getFloat(3), getFloat(4));
+            }
+            else {
+                ((SensorSeries) series).add(time, getFloat(0), getFloat(1), getFloat(2));
+            }
+        }
+    }
+}
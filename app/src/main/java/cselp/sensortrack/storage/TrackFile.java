@@ -0,0 +1,106 @@
+package cselp.sensortrack.storage;
+
+import cselp.sensortrack.Const;
+
+/**
+ * Compact binary track file format.
+ * File layout (little-endian):
+ * <li>magic (int), version (short), track metadata (see {@link TrackHeader}),
+ * end time (long), part count (int)</li>
+ * <li>section count (byte) and section directory, see {@link Section}</li>
+ * <li>stream sections: timestamps as zig-zag varint deltas (first delta from track start),
+ * followed by value columns, each column is array of raw floats (doubles for location).
+ * Events section contains timestamps and event type ordinals (one byte each).</li>
+ * <li>since version 2, stream sections of track file end with sparse block index: for every INDEX_STEP-th
+ * sample (except first) time of sample (long) and offset of next timestamp delta from section start (int).
+ * Reader finds block of time by binary search in index and decodes at most INDEX_STEP deltas.</li>
+ * Track parts are uploaded in the same layout with magic PART_MAGIC, part number (int),
+ * part start (long) and part end (long) follow part count in header.
+ * Several parts in single upload are concatenated, each part is preceded by its length (int).
+ * Parts are written in version 1 (without block index and its directory field), readers accept both versions.
+ */
+public class TrackFile {
+    public static final int MAGIC = 0x4B525453; //"STRK"
+    public static final int PART_MAGIC = 0x50525453; //"STRP"
+    public static final short VERSION = 2;
+    //version of part wire format, parts are small and have no block index
+    public static final short PART_VERSION = 1;
+    public static final String EXTENSION = "trk";
+    //size of section directory entry
+    static final int SECTION_ENTRY_SIZE = 1 + 5 * 4;
+    //size of section directory entry of version 1
+    static final int SECTION_ENTRY_SIZE_V1 = 1 + 4 * 4;
+    //count of samples in block of index
+    public static final int INDEX_STEP = 256;
+    //size of index entry: time and delta offset
+    static final int INDEX_ENTRY_SIZE = 8 + 4;
+
+    /**
+     * Entry of section directory.
+     */
+    public static class Section {
+        //stream identifier, see Const.Stream
+        public int stream;
+        //count of samples
+        public int count;
+        //offset of section from file start
+        public int offset;
+        //length of timestamps block
+        public int timeLength;
+        //section length
+        public int length;
+        //offset of block index from file start, 0 if section has no index
+        public int indexOffset;
+
+        /**
+         * Returns offset of specified value column.
+         * @param column column index
+         * @return offset from file start
+         */
+        public int getColumnOffset(int column) {
+            return offset + timeLength + column * count * valueSize(stream);
+        }
+
+        /**
+         * Returns count of block index entries.
+         * @return count of entries, 0 if section has no index
+         */
+        public int getIndexSize() {
+            return indexOffset == 0 ? 0 : (count - 1) / INDEX_STEP;
+        }
+    }
+
+    /**
+     * Returns count of value columns of stream.
+     * @param stream stream identifier, see Const.Stream
+     * @return count of columns
+     */
+    public static int columns(int stream) {
+        switch (stream) {
+            case Const.Stream.ROTATION:
+                return 5;
+            case Const.Stream.LOCATION:
+                return 4;
+            case Const.Stream.EVENTS:
+                return 1;
+            default:
+                return 3;
+        }
+    }
+
+    /**
+     * Returns size of single value in column.
+     * @param stream stream identifier, see Const.Stream
+     * @return value size in bytes
+     */
+    public static int valueSize(int stream) {
+        switch (stream) {
+            case Const.Stream.LOCATION:
+                return 8;
+            case Const.Stream.EVENTS:
+                return 1;
+            default:
+                return 4;
+        }
+    }
+}
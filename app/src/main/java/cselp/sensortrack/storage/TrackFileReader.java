@@ -0,0 +1,199 @@
+package cselp.sensortrack.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.bean.LocationSeries;
+import cselp.sensortrack.bean.SensorSeries;
+import cselp.sensortrack.bean.TimeSeries;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackEvent;
+import cselp.sensortrack.bean.TrackPart;
+
+/**
+ * Reader of compact binary track files and track parts, see {@link TrackFile} for format description.
+ */
+public class TrackFileReader {
+
+    /**
+     * Reads whole track from file.
+     * @param file track file
+     * @return TrackData object
+     * @throws IOException on read error or wrong file format
+     */
+    public static TrackData read(File file) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file);
+             FileChannel channel = fis.getChannel()) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads whole track from buffer.
+     * @param buf file content
+     * @return TrackData object
+     * @throws IOException on wrong format
+     */
+    public static TrackData read(ByteBuffer buf) throws IOException {
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        TrackData track = new TrackData();
+        TrackFile.Section[] sections = readHeader(buf, track);
+        for (TrackFile.Section section : sections) {
+            readSection(buf, track, section);
+        }
+        return track;
+    }
+
+    /**
+     * Decodes track part from binary wire format. The decoder depends on bean classes only
+     * and can be used on server side.
+     * @param buf encoded part
+     * @return TrackPart object
+     * @throws IOException on wrong format
+     */
+    public static TrackPart readPart(ByteBuffer buf) throws IOException {
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        if (buf.remaining() < 4 || buf.getInt(buf.position()) != TrackFile.PART_MAGIC) {
+            throw new IOException("Not a track part");
+        }
+        TrackPart part = new TrackPart();
+        TrackFile.Section[] sections = readHeader(buf, part);
+        for (TrackFile.Section section : sections) {
+            readSection(buf, part, section);
+        }
+        return part;
+    }
+
+    /**
+     * Decodes several track parts of single upload, see {@link TrackFileWriter#joinParts(List)}.
+     * @param buf encoded parts
+     * @return list of parts
+     * @throws IOException on wrong format
+     */
+    public static List<TrackPart> readParts(ByteBuffer buf) throws IOException {
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        List<TrackPart> parts = new ArrayList<>();
+        while (buf.hasRemaining()) {
+            int length = buf.remaining() < 4 ? -1 : buf.getInt();
+            if (length < 0 || length > buf.remaining()) {
+                throw new IOException("Wrong length of track part");
+            }
+            ByteBuffer part = buf.slice();
+            part.limit(length);
+            parts.add(readPart(part));
+            buf.position(buf.position() + length);
+        }
+        return parts;
+    }
+
+    /**
+     * Reads file header: track metadata and section directory.
+     * @param buf file content, position is moved to the end of header
+     * @param track TrackData object, metadata fields are filled (part fields too, for TrackPart of part buffer)
+     * @return section directory
+     * @throws IOException on wrong format
+     */
+    public static TrackFile.Section[] readHeader(ByteBuffer buf, TrackData track) throws IOException {
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        int magic = buf.remaining() < 6 ? 0 : buf.getInt();
+        if (magic != TrackFile.MAGIC && magic != TrackFile.PART_MAGIC) {
+            throw new IOException("Not a track file");
+        }
+        short version = buf.getShort();
+        if (version != TrackFile.VERSION && version != TrackFile.PART_VERSION) {
+            throw new IOException("Unsupported track file version " + version);
+        }
+        TrackHeader.read(buf, track);
+        track.end = buf.getLong();
+        track.partCount = buf.getInt();
+        if (magic == TrackFile.PART_MAGIC) {
+            int partNum = buf.getInt();
+            long partStart = buf.getLong();
+            long partEnd = buf.getLong();
+            if (track instanceof TrackPart) {
+                TrackPart part = (TrackPart) track;
+                part.partNum = partNum;
+                part.partStart = partStart;
+                part.partEnd = partEnd;
+            }
+        }
+        int count = buf.get();
+        TrackFile.Section[] sections = new TrackFile.Section[count];
+        for (int i = 0; i < count; i++) {
+            TrackFile.Section section = new TrackFile.Section();
+            section.stream = buf.get();
+            section.count = buf.getInt();
+            section.offset = buf.getInt();
+            section.timeLength = buf.getInt();
+            section.length = buf.getInt();
+            if (version >= 2) {
+                section.indexOffset = buf.getInt();
+            }
+            sections[i] = section;
+        }
+        return sections;
+    }
+
+    private static void readSection(ByteBuffer buf, TrackData track, TrackFile.Section section)
+            throws IOException {
+        int count = section.count;
+        long[] times = new long[count];
+        buf.position(section.offset);
+        long t = track.start;
+        for (int i = 0; i < count; i++) {
+            t += VarInt.getSigned(buf);
+            times[i] = t;
+        }
+        if (section.stream == Const.Stream.EVENTS) {
+            Const.TrackEventType[] types = Const.TrackEventType.values();
+            for (int i = 0; i < count; i++) {
+                track.events.add(new TrackEvent(times[i], types[buf.get(section.getColumnOffset(0) + i)]));
+            }
+            return;
+        }
+        TimeSeries series = track.getSeries(section.stream);
+        if (series instanceof SensorSeries) {
+            SensorSeries s = (SensorSeries) series;
+            int x = section.getColumnOffset(0);
+            int y = section.getColumnOffset(1);
+            int z = section.getColumnOffset(2);
+            if (s.getColumns() == 5) {
+                int cos = section.getColumnOffset(3);
+                int acc = section.getColumnOffset(4);
+                for (int i = 0; i < count; i++) {
+                    int o = i * 4;
+                    s.add(times[i], buf.getFloat(x + o), buf.getFloat(y + o), buf.getFloat(z + o),
+                            buf.getFloat(cos + o), buf.getFloat(acc + o));
+                }
+            }
+            else {
+                for (int i = 0; i < count; i++) {
+                    int o = i * 4;
+                    s.add(times[i], buf.getFloat(x + o), buf.getFloat(y + o), buf.getFloat(z + o));
+                }
+            }
+        }
+        else if (series instanceof LocationSeries) {
+            LocationSeries s = (LocationSeries) series;
+            int x = section.getColumnOffset(LocationSeries.X);
+            int y = section.getColumnOffset(LocationSeries.Y);
+            int z = section.getColumnOffset(LocationSeries.Z);
+            int sp = section.getColumnOffset(LocationSeries.S);
+            for (int i = 0; i < count; i++) {
+                int o = i * 8;
+                s.add(times[i], buf.getDouble(x + o), buf.getDouble(y + o), buf.getDouble(z + o),
+                        buf.getDouble(sp + o));
+            }
+        }
+        else {
+            throw new IOException("Unknown stream " + section.stream);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package cselp.sensortrack.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.bean.LocationSeries;
+import cselp.sensortrack.bean.SensorSeries;
+import cselp.sensortrack.bean.TimeSeries;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackEvent;
+import cselp.sensortrack.bean.TrackPart;
+
+/**
+ * Writer of compact binary track files and track parts, see {@link TrackFile} for format description.
+ */
+public class TrackFileWriter {
+    //max size of varint encoded long
+    private static final int MAX_VARINT_SIZE = 10;
+    //header size without strings of metadata
+    private static final int HEADER_SIZE = 128;
+
+    /**
+     * Writes track to channel.
+     * @param track TrackData object
+     * @param channel output channel
+     * @throws IOException on write error
+     */
+    public static void write(TrackData track, WritableByteChannel channel) throws IOException {
+        write(track, TrackFile.MAGIC, channel);
+    }
+
+    /**
+     * Encodes track part in binary wire format, see {@link TrackFile}.
+     * @param part TrackPart object
+     * @return encoded part
+     */
+    public static byte[] encodePart(TrackPart part) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            write(part, TrackFile.PART_MAGIC, Channels.newChannel(out));
+        }
+        catch (IOException e) {
+            //not thrown by ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encodes several track parts for single upload, each part is preceded by its length.
+     * @param parts list of encoded parts, see {@link #encodePart(TrackPart)}
+     * @return encoded parts
+     */
+    public static byte[] joinParts(List<byte[]> parts) {
+        int size = 0;
+        for (byte[] part : parts) {
+            size += 4 + part.length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        for (byte[] part : parts) {
+            buf.putInt(part.length);
+            buf.put(part);
+        }
+        return buf.array();
+    }
+
+    private static void write(TrackData track, int magic, WritableByteChannel channel) throws IOException {
+        List<ByteBuffer> sections = new ArrayList<>();
+        List<TrackFile.Section> entries = new ArrayList<>();
+        boolean indexed = magic == TrackFile.MAGIC;
+        for (int stream = 0; stream < Const.Stream.COUNT; stream++) {
+            TrackFile.Section entry = new TrackFile.Section();
+            entry.stream = stream;
+            ByteBuffer section = encodeSection(track, entry, indexed);
+            if (section != null) {
+                sections.add(section);
+                entries.add(entry);
+            }
+        }
+        ByteBuffer header = encodeHeader(track, magic, entries);
+        writeFully(channel, header);
+        for (ByteBuffer section : sections) {
+            writeFully(channel, section);
+        }
+    }
+
+    private static ByteBuffer encodeHeader(TrackData track, int magic, List<TrackFile.Section> entries) {
+        boolean part = magic == TrackFile.PART_MAGIC;
+        int entrySize = part ? TrackFile.SECTION_ENTRY_SIZE_V1 : TrackFile.SECTION_ENTRY_SIZE;
+        int size = HEADER_SIZE + stringsSize(track) + entries.size() * entrySize;
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(magic);
+        buf.putShort(part ? TrackFile.PART_VERSION : TrackFile.VERSION);
+        TrackHeader.write(buf, track);
+        buf.putLong(track.end);
+        buf.putInt(track.partCount);
+        if (part) {
+            TrackPart trackPart = (TrackPart) track;
+            buf.putInt(trackPart.partNum);
+            buf.putLong(trackPart.partStart);
+            buf.putLong(trackPart.partEnd);
+        }
+        buf.put((byte) entries.size());
+        int offset = buf.position() + entries.size() * entrySize;
+        for (TrackFile.Section entry : entries) {
+            entry.offset = offset;
+            //index offset is relative to section until section offset is known
+            if (entry.indexOffset != 0) {
+                entry.indexOffset += offset;
+            }
+            buf.put((byte) entry.stream);
+            buf.putInt(entry.count);
+            buf.putInt(entry.offset);
+            buf.putInt(entry.timeLength);
+            buf.putInt(entry.length);
+            if (!part) {
+                buf.putInt(entry.indexOffset);
+            }
+            offset += entry.length;
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static int stringsSize(TrackData track) {
+        //UTF-8 takes up to 3 bytes per char
+        int size = 3 * track.uuid.length();
+        if (track.terminal != null) {
+            size += 3 * (length(track.terminal.getVersion()) + length(track.terminal.getBuild())
+                    + length(track.terminal.getModel()) + length(track.terminal.getManufacturer())
+                    + length(track.terminal.getDeviceId()));
+        }
+        return size;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    /**
+     * Encodes stream section.
+     * @param track TrackData object
+     * @param entry directory entry, stream field defines encoded stream. Other fields are filled
+     * @param indexed append block index to section
+     * @return encoded section, or null if stream is empty
+     */
+    private static ByteBuffer encodeSection(TrackData track, TrackFile.Section entry, boolean indexed) {
+        int stream = entry.stream;
+        if (stream == Const.Stream.EVENTS) {
+            return encodeEvents(track, entry);
+        }
+        TimeSeries series = track.getSeries(stream);
+        int count = series.size();
+        if (count == 0) {
+            return null;
+        }
+        int columns = TrackFile.columns(stream);
+        int valueSize = TrackFile.valueSize(stream);
+        int indexSize = indexed ? (count - 1) / TrackFile.INDEX_STEP : 0;
+        ByteBuffer buf = ByteBuffer.allocate(count * (MAX_VARINT_SIZE + columns * valueSize)
+                + indexSize * TrackFile.INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        //positions of timestamp deltas following indexed samples
+        int[] positions = new int[indexSize];
+        long previous = track.start;
+        for (int i = 0; i < count; i++) {
+            long t = series.getTime(i);
+            VarInt.putSigned(buf, t - previous);
+            previous = t;
+            if (i > 0 && i % TrackFile.INDEX_STEP == 0 && indexSize > 0) {
+                positions[i / TrackFile.INDEX_STEP - 1] = buf.position();
+            }
+        }
+        entry.timeLength = buf.position();
+        if (series instanceof SensorSeries) {
+            SensorSeries s = (SensorSeries) series;
+            for (int c = 0; c < columns; c++) {
+                for (int i = 0; i < count; i++) {
+                    buf.putFloat(s.get(i, c));
+                }
+            }
+        }
+        else {
+            LocationSeries s = (LocationSeries) series;
+            for (int c = 0; c < columns; c++) {
+                for (int i = 0; i < count; i++) {
+                    buf.putDouble(s.get(i, c));
+                }
+            }
+        }
+        if (indexSize > 0) {
+            entry.indexOffset = buf.position();
+            for (int k = 0; k < indexSize; k++) {
+                buf.putLong(series.getTime((k + 1) * TrackFile.INDEX_STEP));
+                buf.putInt(positions[k]);
+            }
+        }
+        entry.count = count;
+        entry.length = buf.position();
+        buf.flip();
+        return buf;
+    }
+
+    private static ByteBuffer encodeEvents(TrackData track, TrackFile.Section entry) {
+        List<TrackEvent> events = track.events;
+        int count = events.size();
+        if (count == 0) {
+            return null;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(count * (MAX_VARINT_SIZE + 1)).order(ByteOrder.LITTLE_ENDIAN);
+        long previous = track.start;
+        for (TrackEvent event : events) {
+            VarInt.putSigned(buf, event.t - previous);
+            previous = event.t;
+        }
+        entry.timeLength = buf.position();
+        for (TrackEvent event : events) {
+            buf.put((byte) event.type.ordinal());
+        }
+        entry.count = count;
+        entry.length = buf.position();
+        buf.flip();
+        return buf;
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+}
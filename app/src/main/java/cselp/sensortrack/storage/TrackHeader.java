@@ -0,0 +1,105 @@
+package cselp.sensortrack.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import cselp.sensortrack.bean.PhoneInfo;
+import cselp.sensortrack.bean.TrackData;
+
+/**
+ * Binary presentation of track metadata: uuid, times, deltas, sensor data rate and phone info.
+ * Used in headers of track files.
+ */
+public class TrackHeader {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Writes metadata of specified track to buffer.
+     * @param buf output buffer
+     * @param track TrackData object
+     */
+    public static void write(ByteBuffer buf, TrackData track) {
+        putString(buf, track.uuid);
+        buf.putLong(track.start);
+        buf.putInt(track.segment);
+        buf.putInt(track.sensorDataRate);
+        buf.putFloat(track.accelerationDelta);
+        buf.putFloat(track.compassDelta);
+        buf.putFloat(track.gyroscopeDelta);
+        buf.putFloat(track.gravityDelta);
+        buf.putFloat(track.rotationDelta);
+        buf.putFloat(track.altitudeDelta);
+        buf.putDouble(track.locationDelta);
+        PhoneInfo terminal = track.terminal;
+        buf.put((byte) (terminal != null ? 1 : 0));
+        if (terminal != null) {
+            putString(buf, terminal.getVersion());
+            putString(buf, terminal.getBuild());
+            putString(buf, terminal.getModel());
+            putString(buf, terminal.getManufacturer());
+            putString(buf, terminal.getDeviceId());
+        }
+    }
+
+    /**
+     * Reads track metadata from buffer.
+     * @param buf input buffer
+     * @param track TrackData object to fill
+     */
+    public static void read(ByteBuffer buf, TrackData track) {
+        track.uuid = getString(buf);
+        track.start = buf.getLong();
+        track.segment = buf.getInt();
+        track.sensorDataRate = buf.getInt();
+        track.accelerationDelta = buf.getFloat();
+        track.compassDelta = buf.getFloat();
+        track.gyroscopeDelta = buf.getFloat();
+        track.gravityDelta = buf.getFloat();
+        track.rotationDelta = buf.getFloat();
+        track.altitudeDelta = buf.getFloat();
+        track.locationDelta = buf.getDouble();
+        if (buf.get() != 0) {
+            String version = getString(buf);
+            String build = getString(buf);
+            String model = getString(buf);
+            String manufacturer = getString(buf);
+            PhoneInfo terminal = new PhoneInfo(version, build, model, manufacturer);
+            terminal.setDeviceId(getString(buf));
+            track.terminal = terminal;
+        }
+        else {
+            track.terminal = null;
+        }
+    }
+
+    /**
+     * Writes string as length (short, -1 for null) and UTF-8 bytes.
+     * @param buf output buffer
+     * @param s string value
+     */
+    public static void putString(ByteBuffer buf, String s) {
+        if (s == null) {
+            buf.putShort((short) -1);
+        }
+        else {
+            byte[] bytes = s.getBytes(UTF8);
+            buf.putShort((short) bytes.length);
+            buf.put(bytes);
+        }
+    }
+
+    /**
+     * Reads string written by putString.
+     * @param buf input buffer
+     * @return string value
+     */
+    public static String getString(ByteBuffer buf) {
+        int l = buf.getShort();
+        if (l < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[l];
+        buf.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,254 @@
+package cselp.sensortrack.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.bean.LocationSeries;
+import cselp.sensortrack.bean.SensorSeries;
+import cselp.sensortrack.bean.TimeSeries;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackEvent;
+
+/**
+ * Append-only track log, receives filtered samples during recording.
+ * Samples are collected in direct buffer and written to FileChannel when buffer is full
+ * or flush interval (in track time) expired. If executor is given, buffers are swapped and the full one
+ * is written and forced to storage by executor, so appending thread does not wait for storage
+ * unless the previous write is not done yet. Finished log is closed with footer record.
+ * Log file layout (little-endian):
+ * <li>header: magic, version, track metadata, see {@link TrackHeader}</li>
+ * <li>records: stream id (byte), timestamp (long), stream values</li>
+ * <li>footer: FOOTER (byte), track end time (long), part count (int), record count (long)</li>
+ * Log without footer (e.g. service was killed) is still readable, see {@link TrackLogReader}.
+ */
+public class TrackLog implements Closeable {
+    public static final int MAGIC = 0x474C5453; //"STLG"
+    public static final short VERSION = 1;
+    public static final byte FOOTER = 0x7F;
+    public static final String EXTENSION = "stl";
+
+    //max size of single record: stream, timestamp and 4 double values
+    private static final int MAX_RECORD_SIZE = 1 + 8 + 4 * 8;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ExecutorService executor;
+    //buffer filled by append
+    private ByteBuffer buffer;
+    //buffer written by executor
+    private ByteBuffer spare;
+    private Future<?> pending;
+    private final long flushInterval;
+    private long lastFlushTime;
+    private long recordCount = 0;
+
+    /**
+     * Creates log file and writes header, buffers are written in calling thread.
+     * @param file log file
+     * @param track track metadata
+     * @param bufferSize size of write buffer
+     * @param flushInterval max interval between writes to file, in ms of track time
+     * @throws IOException on file creation error
+     */
+    public TrackLog(File file, TrackData track, int bufferSize, long flushInterval) throws IOException {
+        this(file, track, bufferSize, flushInterval, null);
+    }
+
+    /**
+     * Creates log file and writes header.
+     * @param file log file
+     * @param track track metadata
+     * @param bufferSize size of each of two write buffers
+     * @param flushInterval max interval between writes to file, in ms of track time
+     * @param executor executor of writes to file, null to write in calling thread
+     * @throws IOException on file creation error
+     */
+    public TrackLog(File file, TrackData track, int bufferSize, long flushInterval, ExecutorService executor)
+            throws IOException {
+        this.file = file;
+        this.flushInterval = flushInterval;
+        this.executor = executor;
+        channel = new FileOutputStream(file).getChannel();
+        buffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        if (executor != null) {
+            spare = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        TrackHeader.write(buffer, track);
+        lastFlushTime = track.start;
+        flush(true);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Appends samples of series to log.
+     * @param stream stream identifier, see Const.Stream
+     * @param series source series
+     * @param from index of first sample to append, samples up to the end of series are appended
+     * @throws IOException on write error
+     */
+    public void append(int stream, TimeSeries series, int from) throws IOException {
+        for (int i = from; i < series.size(); i++) {
+            long t = series.getTime(i);
+            ensureSpace();
+            buffer.put((byte) stream);
+            buffer.putLong(t);
+            if (series instanceof SensorSeries) {
+                SensorSeries s = (SensorSeries) series;
+                for (int c = 0; c < s.getColumns(); c++) {
+                    buffer.putFloat(s.get(i, c));
+                }
+            }
+            else {
+                LocationSeries s = (LocationSeries) series;
+                for (int c = 0; c < LocationSeries.COLUMNS; c++) {
+                    buffer.putDouble(s.get(i, c));
+                }
+            }
+            recordCount++;
+            flushIfDue(t);
+        }
+    }
+
+    /**
+     * Appends track event to log.
+     * @param event TrackEvent object
+     * @throws IOException on write error
+     */
+    public void append(TrackEvent event) throws IOException {
+        ensureSpace();
+        buffer.put((byte) Const.Stream.EVENTS);
+        buffer.putLong(event.t);
+        buffer.putInt(event.type.ordinal());
+        recordCount++;
+        flushIfDue(event.t);
+    }
+
+    /**
+     * Writes footer and closes log.
+     * @param end track end time
+     * @param partCount count of track parts
+     * @throws IOException on write error
+     */
+    public void finish(long end, int partCount) throws IOException {
+        ensureSpace();
+        buffer.put(FOOTER);
+        buffer.putLong(end);
+        buffer.putInt(partCount);
+        buffer.putLong(recordCount);
+        try {
+            awaitPending();
+            write(buffer, true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes log without footer.
+     * @throws IOException on write error
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            try {
+                awaitPending();
+                write(buffer, true);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private void ensureSpace() throws IOException {
+        if (buffer.remaining() < MAX_RECORD_SIZE) {
+            flush(false);
+        }
+    }
+
+    private void flushIfDue(long t) throws IOException {
+        if (t - lastFlushTime >= flushInterval) {
+            flush(true);
+            lastFlushTime = t;
+        }
+    }
+
+    /**
+     * Writes buffered data to file, by executor if set.
+     * @param force if true, data is forced to storage device
+     * @throws IOException on write error, also of previous write by executor
+     */
+    private void flush(final boolean force) throws IOException {
+        awaitPending();
+        if (executor != null) {
+            final ByteBuffer full = buffer;
+            try {
+                pending = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        write(full, force);
+                        return null;
+                    }
+                });
+                buffer = spare;
+                spare = full;
+                return;
+            } catch (RejectedExecutionException e) {
+                //executor is shut down, write here
+            }
+        }
+        write(buffer, force);
+    }
+
+    /**
+     * Waits for write of previous buffer by executor.
+     * @throws IOException error of the write
+     */
+    private void awaitPending() throws IOException {
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("track log write interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            pending = null;
+        }
+    }
+
+    private void write(ByteBuffer data, boolean force) throws IOException {
+        data.flip();
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+        data.clear();
+        if (force) {
+            channel.force(false);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package cselp.sensortrack.storage;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.bean.LocationSeries;
+import cselp.sensortrack.bean.SensorSeries;
+import cselp.sensortrack.bean.TimeSeries;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackEvent;
+
+/**
+ * Reader of track log files, written by {@link TrackLog}.
+ * Log without footer or with truncated last record is read up to the last complete record.
+ */
+public class TrackLogReader {
+
+    /**
+     * Reads track from log file.
+     * @param file log file
+     * @return TrackData object
+     * @throws IOException on read error or wrong file format
+     */
+    public static TrackData read(File file) throws IOException {
+        try (FileInputStream fis = new FileInputStream(file);
+             FileChannel channel = fis.getChannel()) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            return read(buf);
+        }
+    }
+
+    /**
+     * Reads track from log content.
+     * @param buf log content
+     * @return TrackData object
+     * @throws IOException on wrong format
+     */
+    public static TrackData read(ByteBuffer buf) throws IOException {
+        if (buf.remaining() < 6 || buf.getInt() != TrackLog.MAGIC) {
+            throw new IOException("Not a track log");
+        }
+        short version = buf.getShort();
+        if (version != TrackLog.VERSION) {
+            throw new IOException("Unsupported track log version " + version);
+        }
+        TrackData track = new TrackData();
+        TrackHeader.read(buf, track);
+        Const.TrackEventType[] eventTypes = Const.TrackEventType.values();
+        long last = track.start;
+        try {
+            while (buf.hasRemaining()) {
+                int stream = buf.get();
+                if (stream == TrackLog.FOOTER) {
+                    track.end = buf.getLong();
+                    track.partCount = buf.getInt();
+                    return track;
+                }
+                long t = buf.getLong();
+                if (stream == Const.Stream.EVENTS) {
+                    track.events.add(new TrackEvent(t, eventTypes[buf.getInt()]));
+                }
+                else {
+                    TimeSeries series = track.getSeries(stream);
+                    if (series instanceof SensorSeries) {
+                        readSensorValues(buf, t, (SensorSeries) series);
+                    }
+                    else if (series instanceof LocationSeries) {
+                        ((LocationSeries) series).add(t, buf.getDouble(), buf.getDouble(),
+                                buf.getDouble(), buf.getDouble());
+                    }
+                    else {
+                        throw new IOException("Unknown stream " + stream);
+                    }
+                }
+                last = Math.max(last, t);
+            }
+        }
+        catch (BufferUnderflowException e) {
+            //truncated record, log was not finished
+        }
+        track.end = last;
+        return track;
+    }
+
+    private static void readSensorValues(ByteBuffer buf, long t, SensorSeries series) {
+        if (series.getColumns() == 5) {
+            float x = buf.getFloat();
+            float y = buf.getFloat();
+            float z = buf.getFloat();
+            float cos = buf.getFloat();
+            float acc = buf.getFloat();
+            series.add(t, x, y, z, cos, acc);
+        }
+        else {
+            float x = buf.getFloat();
+            float y = buf.getFloat();
+            float z = buf.getFloat();
+            series.add(t, x, y, z);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package cselp.sensortrack.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Variable-length encoding of integer values, 7 bits per byte,
+ * with zig-zag mapping of signed values.
+ */
+public class VarInt {
+
+    /**
+     * Writes signed value as zig-zag varint.
+     * @param buf output buffer
+     * @param value signed value
+     */
+    public static void putSigned(ByteBuffer buf, long value) {
+        putUnsigned(buf, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Writes unsigned value as varint.
+     * @param buf output buffer
+     * @param value unsigned value
+     */
+    public static void putUnsigned(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    /**
+     * Reads zig-zag varint value.
+     * @param buf input buffer
+     * @return signed value
+     */
+    public static long getSigned(ByteBuffer buf) {
+        long v = getUnsigned(buf);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Reads varint value.
+     * @param buf input buffer
+     * @return unsigned value
+     */
+    public static long getUnsigned(ByteBuffer buf) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buf.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+}
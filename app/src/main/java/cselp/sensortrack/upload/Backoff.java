@@ -0,0 +1,52 @@
+package cselp.sensortrack.upload;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter: ceiling of n-th delay is min(maxDelay, minDelay * 2^n),
+ * delay is random value in upper half of ceiling, so concurrent clients do not retry simultaneously.
+ */
+public class Backoff {
+    private final long minDelay;
+    private final long maxDelay;
+    private final Random random;
+    private int attempts = 0;
+
+    /**
+     * Creates backoff.
+     * @param minDelay delay ceiling of first retry, ms
+     * @param maxDelay max delay, ms
+     * @param random source of jitter
+     */
+    public Backoff(long minDelay, long maxDelay, Random random) {
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.random = random;
+    }
+
+    /**
+     * Returns delay of next retry and increments count of attempts.
+     * @return delay in ms
+     */
+    public long next() {
+        long ceiling = maxDelay;
+        //avoid overflow of shift
+        if (attempts < 31 && (minDelay << attempts) < maxDelay) {
+            ceiling = minDelay << attempts;
+        }
+        attempts++;
+        long half = ceiling / 2;
+        return half + (long) (random.nextDouble() * (ceiling - half));
+    }
+
+    /**
+     * Resets count of attempts after success.
+     */
+    public void reset() {
+        attempts = 0;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,65 @@
+package cselp.sensortrack.upload;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compression of request bodies, with reusable Deflater and buffers.
+ * Output is the same format as GZIPOutputStream writes. Not thread-safe.
+ */
+public class GzipEncoder {
+    public static final String ENCODING = "gzip";
+
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] chunk = new byte[16 * 1024];
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(16 * 1024);
+
+    /**
+     * Creates encoder.
+     * @param level compression level, 1 (fastest) to 9 (best compression)
+     */
+    public GzipEncoder(int level) {
+        deflater = new Deflater(level, true);
+    }
+
+    /**
+     * Compresses data.
+     * @param data source data
+     * @return gzip stream
+     */
+    public byte[] encode(byte[] data) {
+        out.reset();
+        out.write(HEADER, 0, HEADER.length);
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk);
+            out.write(chunk, 0, count);
+        }
+        crc.reset();
+        crc.update(data, 0, data.length);
+        writeInt((int) crc.getValue());
+        writeInt(data.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Releases native resources of Deflater.
+     */
+    public void end() {
+        deflater.end();
+    }
+
+    private void writeInt(int value) {
+        //gzip trailer is little-endian
+        out.write(value);
+        out.write(value >> 8);
+        out.write(value >> 16);
+        out.write(value >> 24);
+    }
+}
@@ -0,0 +1,46 @@
+package cselp.sensortrack.upload;
+
+import org.json.JSONObject;
+
+/**
+ * Acknowledgement of part upload: server names the highest part number of track received
+ * without gaps. Parts up to this number are removed from outbox, also ones not sent in this run,
+ * so upload is resumed after restart or network loss from the first part server does not have.
+ */
+public class PartAck {
+    //members of part upload response
+    public static final String UUID = "uuid";
+    public static final String ACK_PART = "ackPart";
+
+    //track uuid
+    public final String uuid;
+    //highest contiguous part number, -1 if server has no parts
+    public final int partNum;
+
+    public PartAck(String uuid, int partNum) {
+        this.uuid = uuid;
+        this.partNum = partNum;
+    }
+
+    /**
+     * Parses acknowledgement from response of part upload.
+     * @param response response of part upload, may be null
+     * @return PartAck object, null if server does not acknowledge parts
+     */
+    public static PartAck fromResponse(JSONObject response) {
+        if (response == null || !response.has(ACK_PART) || !response.has(UUID)) {
+            return null;
+        }
+        return new PartAck(response.optString(UUID, null), response.optInt(ACK_PART, -1));
+    }
+
+    /**
+     * Checks if part is received by server.
+     * @param uuid track uuid
+     * @param partNum part number
+     * @return true if part is covered by acknowledgement
+     */
+    public boolean covers(String uuid, int partNum) {
+        return this.uuid.equals(uuid) && partNum <= this.partNum;
+    }
+}
@@ -0,0 +1,55 @@
+package cselp.sensortrack.upload;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Optional features of track server, advertised in response of ping request.
+ * Server without advertised features gets uncompressed JSON parts one by one, as before.
+ */
+public class ServerCapabilities {
+    //ping response member, array of supported Content-Encoding values
+    public static final String ENCODINGS = "encodings";
+    //ping response member, max count of parts in single request to multi-part url
+    public static final String MAX_PARTS = "maxParts";
+
+    private boolean gzip;
+    private int maxParts = 1;
+
+    /**
+     * Parses capabilities from ping response.
+     * @param ping response of ping request, may be null
+     * @return ServerCapabilities object
+     */
+    public static ServerCapabilities fromPing(JSONObject ping) {
+        ServerCapabilities res = new ServerCapabilities();
+        JSONArray encodings = ping != null ? ping.optJSONArray(ENCODINGS) : null;
+        if (encodings != null) {
+            for (int i = 0; i < encodings.length(); i++) {
+                if (GzipEncoder.ENCODING.equalsIgnoreCase(encodings.optString(i))) {
+                    res.gzip = true;
+                }
+            }
+        }
+        if (ping != null) {
+            res.maxParts = Math.max(1, ping.optInt(MAX_PARTS, 1));
+        }
+        return res;
+    }
+
+    /**
+     * Returns true if server accepts gzip compressed request bodies.
+     * @return true if gzip is supported
+     */
+    public boolean isGzipSupported() {
+        return gzip;
+    }
+
+    /**
+     * Returns max count of parts in single request.
+     * @return count of parts, 1 if server does not accept multi-part requests
+     */
+    public int getMaxParts() {
+        return maxParts;
+    }
+}
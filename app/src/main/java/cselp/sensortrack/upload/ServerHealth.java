@@ -0,0 +1,68 @@
+package cselp.sensortrack.upload;
+
+/**
+ * Cached health state of track server. Server is pinged when its state is unknown,
+ * ping result is older than TTL, or after failed request; while server is known healthy,
+ * parts are posted back-to-back without ping round trip. Capabilities of last ping are kept for posts.
+ * Time values are supplied by caller, in ms of monotonic clock.
+ */
+public class ServerHealth {
+    private final long ttl;
+    //server url of cached state
+    private String url;
+    private boolean healthy = false;
+    private long pingTime;
+    private ServerCapabilities capabilities = new ServerCapabilities();
+
+    /**
+     * Creates health state, server state is unknown.
+     * @param ttl max age of ping result, in ms; 0 - ping before each post
+     */
+    public ServerHealth(long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Checks if server should be pinged before post. State is reset if server url is changed.
+     * @param url server url
+     * @param now current time
+     * @return true if ping is needed
+     */
+    public synchronized boolean isPingNeeded(String url, long now) {
+        if (!url.equals(this.url)) {
+            this.url = url;
+            healthy = false;
+        }
+        return !healthy || now - pingTime >= ttl;
+    }
+
+    /**
+     * Marks server healthy after successful ping.
+     * @param capabilities capabilities from ping response
+     * @param now current time
+     */
+    public synchronized void onPingSuccess(ServerCapabilities capabilities, long now) {
+        this.capabilities = capabilities;
+        healthy = true;
+        pingTime = now;
+    }
+
+    /**
+     * Marks server state unknown after failed request, next post is preceded by ping.
+     */
+    public synchronized void onFailure() {
+        healthy = false;
+    }
+
+    public synchronized boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Returns capabilities of last successful ping.
+     * @return ServerCapabilities object, without features if server was not pinged yet
+     */
+    public synchronized ServerCapabilities getCapabilities() {
+        return capabilities;
+    }
+}
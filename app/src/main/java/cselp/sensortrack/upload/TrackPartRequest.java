@@ -0,0 +1,215 @@
+package cselp.sensortrack.upload;
+
+import android.util.Log;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cselp.sensortrack.bean.TrackPart;
+import cselp.sensortrack.storage.TrackFileWriter;
+import cselp.sensortrack.util.TrackPartEncoder;
+
+/**
+ * POST request with track part in JSON or binary body, response is parsed to JSONObject.
+ * Body is encoded by {@link TrackPartEncoder} (or {@link TrackFileWriter#encodePart(TrackPart)}
+ * for binary format) on first request to it, i.e. in network thread of RequestQueue,
+ * and compressed by gzip if compression level is defined.
+ * Several parts are sent to multi-part url in single body: JSON array of parts,
+ * or binary parts joined by {@link TrackFileWriter#joinParts(List)}.
+ */
+public class TrackPartRequest extends Request<JSONObject> {
+    private static final String TAG = "TrackPartRequest";
+    private static final String CONTENT_TYPE = "application/json; charset=utf-8";
+    //content type of binary parts, see TrackFile
+    public static final String BINARY_CONTENT_TYPE = "application/x-sensortrack-part";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+
+    //encoders of network threads
+    private static final ThreadLocal<Encoders> ENCODERS = new ThreadLocal<Encoders>() {
+        @Override
+        protected Encoders initialValue() {
+            return new Encoders();
+        }
+    };
+
+    private final List<TrackPart> parts;
+    private final boolean binary;
+    private final int compressionLevel;
+    private final Response.Listener<JSONObject> listener;
+    private byte[] body;
+    private int encodedSize;
+
+    /**
+     * Creates request.
+     * @param url server url
+     * @param part TrackPart object
+     * @param binary true to send part in binary format, false - in JSON
+     * @param compressionLevel gzip compression level 1..9, 0 - body is not compressed
+     * @param listener response listener
+     * @param errorListener error listener
+     */
+    public TrackPartRequest(String url, TrackPart part, boolean binary, int compressionLevel,
+                            Response.Listener<JSONObject> listener, Response.ErrorListener errorListener) {
+        this(url, Collections.singletonList(part), binary, compressionLevel, listener, errorListener);
+    }
+
+    /**
+     * Creates request with several parts, for multi-part url if there are more than one part.
+     * @param url server url
+     * @param parts list of parts
+     * @param binary true to send parts in binary format, false - in JSON
+     * @param compressionLevel gzip compression level 1..9, 0 - body is not compressed
+     * @param listener response listener
+     * @param errorListener error listener
+     */
+    public TrackPartRequest(String url, List<TrackPart> parts, boolean binary, int compressionLevel,
+                            Response.Listener<JSONObject> listener, Response.ErrorListener errorListener) {
+        super(Method.POST, url, errorListener);
+        this.parts = parts;
+        this.binary = binary;
+        this.compressionLevel = compressionLevel;
+        this.listener = listener;
+    }
+
+    public TrackPartRequest(String url, TrackPart part, Response.Listener<JSONObject> listener,
+                            Response.ErrorListener errorListener) {
+        this(url, part, false, 0, listener, errorListener);
+    }
+
+    public List<TrackPart> getParts() {
+        return parts;
+    }
+
+    @Override
+    public String getBodyContentType() {
+        return binary ? BINARY_CONTENT_TYPE : CONTENT_TYPE;
+    }
+
+    /**
+     * Returns size of body before compression, 0 if body was not encoded yet.
+     * @return size in bytes
+     */
+    public int getEncodedSize() {
+        return encodedSize;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        if (compressionLevel > 0) {
+            Map<String, String> headers = new HashMap<>();
+            headers.put(CONTENT_ENCODING, GzipEncoder.ENCODING);
+            return headers;
+        }
+        return super.getHeaders();
+    }
+
+    @Override
+    public byte[] getBody() throws AuthFailureError {
+        //body is kept for retries
+        if (body == null) {
+            try {
+                Encoders encoders = ENCODERS.get();
+                body = parts.size() == 1 ? encodePart(parts.get(0), encoders) : encodeParts(encoders);
+                encodedSize = body.length;
+                if (compressionLevel > 0) {
+                    body = encoders.gzip(compressionLevel).encode(body);
+                }
+                Log.d(TAG, getDescription() + " encoded: " + encodedSize
+                        + " bytes, sent: " + body.length + " bytes");
+            }
+            catch (IOException e) {
+                Log.e(TAG, getDescription() + " encoding error", e);
+                return null;
+            }
+        }
+        return body;
+    }
+
+    private byte[] encodePart(TrackPart part, Encoders encoders) throws IOException {
+        return binary ? TrackFileWriter.encodePart(part) : encoders.json.encode(part);
+    }
+
+    private byte[] encodeParts(Encoders encoders) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(parts.size());
+        for (TrackPart part : parts) {
+            encoded.add(encodePart(part, encoders));
+        }
+        if (binary) {
+            return TrackFileWriter.joinParts(encoded);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('[');
+        for (int i = 0; i < encoded.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(encoded.get(i));
+        }
+        out.write(']');
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns description of sent parts for log.
+     * @return part numbers and track uuid
+     */
+    private String getDescription() {
+        TrackPart first = parts.get(0);
+        if (parts.size() == 1) {
+            return "Part [" + first.partNum + ":" + first.uuid + "]";
+        }
+        return "Parts [" + first.partNum + "-" + parts.get(parts.size() - 1).partNum + ":" + first.uuid + "]";
+    }
+
+    @Override
+    protected Response<JSONObject> parseNetworkResponse(NetworkResponse response) {
+        try {
+            String json = new String(response.data, HttpHeaderParser.parseCharset(response.headers, "utf-8"));
+            return Response.success(new JSONObject(json), HttpHeaderParser.parseCacheHeaders(response));
+        }
+        catch (UnsupportedEncodingException | JSONException e) {
+            return Response.error(new ParseError(e));
+        }
+    }
+
+    @Override
+    protected void deliverResponse(JSONObject response) {
+        listener.onResponse(response);
+    }
+
+    /**
+     * Reusable encoders of network thread.
+     */
+    private static class Encoders {
+        private final TrackPartEncoder json = new TrackPartEncoder();
+        private GzipEncoder gzip;
+        private int gzipLevel;
+
+        GzipEncoder gzip(int level) {
+            if (gzip == null || gzipLevel != level) {
+                if (gzip != null) {
+                    gzip.end();
+                }
+                gzip = new GzipEncoder(level);
+                gzipLevel = level;
+            }
+            return gzip;
+        }
+    }
+}
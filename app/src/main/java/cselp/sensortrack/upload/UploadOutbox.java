@@ -0,0 +1,409 @@
+package cselp.sensortrack.upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import cselp.sensortrack.bean.TrackPart;
+import cselp.sensortrack.storage.TrackFileReader;
+import cselp.sensortrack.storage.TrackFileWriter;
+
+/**
+ * Outbox of track part uploads. Parts are encoded in binary format (see {@link TrackFileWriter#encodePart(TrackPart)}),
+ * stored in {@link UploadQueue} and sent in order of addition by worker thread.
+ * Count of requests in flight is limited; when parts are queued up (e.g. after network outage),
+ * consecutive parts are coalesced into single request, up to batch size accepted by sender.
+ * Failed upload is retried after delay of {@link Backoff}, so parts survive network outages
+ * and service restarts. If server acknowledges parts (see {@link PartAck}), part is removed from queue
+ * only when acknowledgement covers it: delivered part above gap of server stays in queue until gap is filled,
+ * and part which server reports missing is sent again. Queue is synced in batches: appends and acknowledgements of sync interval
+ * reach storage device together. Producer of parts should check {@link #isBackpressured()}.
+ */
+public class UploadOutbox {
+
+    /**
+     * Transport of encoded parts.
+     */
+    public interface Sender {
+        /**
+         * Sends encoded parts in single request, callback should be called once, from any thread.
+         * @param parts encoded parts, up to max batch size
+         * @param callback result callback
+         */
+        void send(List<byte[]> parts, Callback callback);
+
+        /**
+         * Returns max count of parts in single request.
+         * @return count of parts, 1 if server does not accept multi-part requests
+         */
+        int getMaxBatchSize();
+
+        /**
+         * Called on queue file error.
+         * @param message error description
+         * @param e exception
+         */
+        void onQueueError(String message, IOException e);
+    }
+
+    /**
+     * Result of single request.
+     */
+    public interface Callback {
+        /**
+         * Called when parts are delivered.
+         * @param ack server acknowledgement, null if server does not acknowledge parts
+         */
+        void onSuccess(PartAck ack);
+
+        void onFailure();
+    }
+
+    /**
+     * Track uuid and number of queued part.
+     */
+    private static class PartKey {
+        final String uuid;
+        final int partNum;
+
+        PartKey(String uuid, int partNum) {
+            this.uuid = uuid;
+            this.partNum = partNum;
+        }
+    }
+
+    private final UploadQueue queue;
+    private final Sender sender;
+    private final Backoff backoff;
+    private final long syncDelay;
+    private final int maxInFlight;
+    private final long backlogSize;
+    private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+    //fields below are accessed by worker thread only
+    //entries of requests in flight
+    private final Set<UploadQueue.Entry> sending = new HashSet<>();
+    //entries delivered to server, but not covered by its acknowledgement yet
+    private final Set<UploadQueue.Entry> awaiting = new HashSet<>();
+    //part keys of queued entries, read on demand
+    private final Map<UploadQueue.Entry, PartKey> keys = new HashMap<>();
+    private int inFlight = 0;
+    private boolean retryScheduled = false;
+    private boolean syncScheduled = false;
+
+    /**
+     * Creates outbox, call {@link #start()} to send parts left in queue.
+     * @param queue upload queue
+     * @param sender transport
+     * @param backoff retry delays
+     * @param syncDelay max delay of queue sync after change, ms
+     * @param maxInFlight max count of requests in flight
+     * @param backlogSize size of pending parts, in bytes, which turns on backpressure
+     */
+    public UploadOutbox(UploadQueue queue, Sender sender, Backoff backoff, long syncDelay,
+                        int maxInFlight, long backlogSize) {
+        this.queue = queue;
+        this.sender = sender;
+        this.backoff = backoff;
+        this.syncDelay = syncDelay;
+        this.maxInFlight = maxInFlight;
+        this.backlogSize = backlogSize;
+        //scheduled retries and syncs are dropped on shutdown, queue is synced on close
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Starts sending of parts left in queue.
+     */
+    public void start() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+    }
+
+    /**
+     * Encodes and enqueues part, in worker thread.
+     * @param part TrackPart object, should not be changed after call
+     */
+    public void add(final TrackPart part) {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    UploadQueue.Entry entry = queue.append(TrackFileWriter.encodePart(part));
+                    keys.put(entry, new PartKey(part.uuid, part.partNum));
+                    scheduleSync();
+                }
+                catch (IOException e) {
+                    sender.onQueueError("Part [" + part.partNum + ":" + part.uuid + "] enqueue error", e);
+                }
+                drain();
+            }
+        });
+    }
+
+    /**
+     * Returns count of parts waiting for upload.
+     * @return queue depth
+     */
+    public int getDepth() {
+        return queue.getDepth();
+    }
+
+    /**
+     * Returns size of encoded parts waiting for upload.
+     * @return size in bytes
+     */
+    public long getBytesPending() {
+        return queue.getBytesPending();
+    }
+
+    /**
+     * Checks if parts are queued up beyond backlog size. Producer should postpone new parts
+     * (i.e. cut larger parts later) while outbox is backpressured.
+     * @return true if backlog is exceeded
+     */
+    public boolean isBackpressured() {
+        return queue.getBytesPending() >= backlogSize;
+    }
+
+    /**
+     * Stops worker, syncs and closes queue. Part being sent is sent again after restart.
+     */
+    public void shutdown() {
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    queue.close();
+                }
+                catch (IOException e) {
+                    sender.onQueueError("Upload queue close error", e);
+                }
+            }
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Sends next parts of queue while count of requests in flight is below limit.
+     */
+    private void drain() {
+        while (!retryScheduled && inFlight < maxInFlight && !executor.isShutdown()) {
+            final List<UploadQueue.Entry> batch = nextBatch(Math.max(1, sender.getMaxBatchSize()));
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<byte[]> parts = new ArrayList<>(batch.size());
+            try {
+                for (UploadQueue.Entry entry : batch) {
+                    parts.add(queue.read(entry));
+                }
+            }
+            catch (IOException e) {
+                sender.onQueueError("Upload queue read error", e);
+                scheduleRetry();
+                return;
+            }
+            inFlight++;
+            sending.addAll(batch);
+            sender.send(parts, new Callback() {
+                @Override
+                public void onSuccess(final PartAck ack) {
+                    execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            complete(batch);
+                            backoff.reset();
+                            if (ack == null) {
+                                //server without acknowledgements, delivered parts are done
+                                for (UploadQueue.Entry entry : batch) {
+                                    ack(entry);
+                                }
+                            }
+                            else {
+                                applyAck(ack, batch);
+                            }
+                            scheduleSync();
+                            drain();
+                        }
+                    });
+                }
+
+                @Override
+                public void onFailure() {
+                    execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            complete(batch);
+                            scheduleRetry();
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns consecutive entries of single track which are not sent yet.
+     * @param max max count of entries
+     * @return list of entries, empty if all entries are in flight or wait for acknowledgement
+     */
+    private List<UploadQueue.Entry> nextBatch(int max) {
+        List<UploadQueue.Entry> batch = new ArrayList<>();
+        String uuid = null;
+        for (UploadQueue.Entry entry : queue.peek(sending.size() + awaiting.size() + max)) {
+            if (sending.contains(entry) || awaiting.contains(entry)) {
+                if (!batch.isEmpty()) {
+                    break;
+                }
+                continue;
+            }
+            PartKey key = getKey(entry);
+            String entryUuid = key != null ? key.uuid : null;
+            if (batch.size() >= max || (!batch.isEmpty() && (uuid == null || !uuid.equals(entryUuid)))) {
+                break;
+            }
+            uuid = entryUuid;
+            batch.add(entry);
+        }
+        return batch;
+    }
+
+    /**
+     * Removes parts covered by server acknowledgement from queue, including parts not sent in this run.
+     * Delivered parts above gap of server wait for acknowledgement, part which server reports missing
+     * is sent again. If gap can not be filled from queue, waiting parts are removed.
+     * @param ack server acknowledgement
+     * @param batch entries of delivered request
+     */
+    private void applyAck(PartAck ack, List<UploadQueue.Entry> batch) {
+        List<UploadQueue.Entry> track = new ArrayList<>();
+        UploadQueue.Entry missing = null;
+        for (UploadQueue.Entry entry : queue.peek(Integer.MAX_VALUE)) {
+            PartKey key = getKey(entry);
+            if (key == null || !ack.uuid.equals(key.uuid)) {
+                continue;
+            }
+            if (ack.covers(key.uuid, key.partNum)) {
+                ack(entry);
+            }
+            else {
+                track.add(entry);
+                if (key.partNum == ack.partNum + 1) {
+                    missing = entry;
+                }
+            }
+        }
+        for (UploadQueue.Entry entry : batch) {
+            if (track.contains(entry)) {
+                awaiting.add(entry);
+            }
+        }
+        if (missing == null) {
+            //gap is not in queue, server keeps delivered parts anyway
+            for (UploadQueue.Entry entry : track) {
+                if (awaiting.contains(entry)) {
+                    ack(entry);
+                }
+            }
+        }
+        else {
+            //server lost delivered part, it is sent again by next drain
+            awaiting.remove(missing);
+        }
+    }
+
+    private void ack(UploadQueue.Entry entry) {
+        queue.ack(entry);
+        awaiting.remove(entry);
+        keys.remove(entry);
+    }
+
+    /**
+     * Returns track uuid and number of queued part, reads part header if necessary.
+     * @param entry queue entry
+     * @return part key, null on read error
+     */
+    private PartKey getKey(UploadQueue.Entry entry) {
+        PartKey key = keys.get(entry);
+        if (key == null) {
+            try {
+                TrackPart header = new TrackPart();
+                ByteBuffer data = ByteBuffer.wrap(queue.read(entry)).order(ByteOrder.LITTLE_ENDIAN);
+                TrackFileReader.readHeader(data, header);
+                key = new PartKey(header.uuid, header.partNum);
+                keys.put(entry, key);
+            }
+            catch (IOException e) {
+                sender.onQueueError("Upload queue read error", e);
+            }
+        }
+        return key;
+    }
+
+    private void complete(List<UploadQueue.Entry> batch) {
+        inFlight--;
+        sending.removeAll(batch);
+    }
+
+    /**
+     * Schedules next sending after backoff delay, requests in flight are not affected.
+     */
+    private void scheduleRetry() {
+        if (retryScheduled) {
+            return;
+        }
+        retryScheduled = true;
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                retryScheduled = false;
+                drain();
+            }
+        }, backoff.next(), TimeUnit.MILLISECONDS);
+    }
+
+    private void scheduleSync() {
+        if (syncScheduled) {
+            return;
+        }
+        syncScheduled = true;
+        executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                syncScheduled = false;
+                try {
+                    queue.sync();
+                }
+                catch (IOException e) {
+                    sender.onQueueError("Upload queue sync error", e);
+                }
+            }
+        }, syncDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Executes task in worker thread, task is dropped after shutdown.
+     * @param r task
+     */
+    private void execute(Runnable r) {
+        try {
+            executor.execute(r);
+        }
+        catch (RejectedExecutionException e) {
+            //outbox is shut down, part is sent again after restart
+        }
+    }
+}
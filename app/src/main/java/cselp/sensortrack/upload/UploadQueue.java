@@ -0,0 +1,308 @@
+package cselp.sensortrack.upload;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent FIFO queue of encoded track parts, backed by append-only queue file and acknowledgement file.
+ * Queue file layout (little-endian): records of data length (int), CRC32 of data (int), data.
+ * Acknowledgement file holds offset of first not acknowledged record (long) and its CRC32 (int),
+ * file is replaced atomically (written to temporary file and renamed).
+ * Records may be acknowledged out of order, head is moved over acknowledged prefix only.
+ * Appends and acknowledgements reach storage device in batches, on {@link #sync()} or when
+ * sync size of appended data is exceeded. Records after persisted head are sent again after restart,
+ * so delivery is at-least-once. Record torn by crash is dropped on open.
+ * Queue file is truncated on sync when all records are acknowledged.
+ */
+public class UploadQueue implements Closeable {
+    public static final String QUEUE_FILE = "queue";
+    public static final String ACK_FILE = "ack";
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+    private static final int ACK_SIZE = 8 + 4;
+    //larger length means corrupted record
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Queue record.
+     */
+    public static class Entry {
+        //offset of record in queue file
+        public final long offset;
+        //data length
+        public final int length;
+        private boolean acked;
+
+        Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Returns offset of next record.
+         * @return offset in queue file
+         */
+        long getEnd() {
+            return offset + RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    private final File ackFile;
+    private final File ackTempFile;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int syncSize;
+    private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32 crc = new CRC32();
+    //records from head, acknowledged ones are kept until head is moved over them
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private long head;
+    private long end;
+    private int depth;
+    private long bytesPending;
+    //size of appended data not forced to storage device
+    private long unsynced;
+    private boolean ackChanged;
+
+    /**
+     * Opens queue in specified directory, creates it if necessary.
+     * @param dir queue directory
+     * @param syncSize size of appended data which is forced to storage device without waiting for sync()
+     * @throws IOException on read error
+     */
+    public UploadQueue(File dir, int syncSize) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Queue directory creation error: " + dir);
+        }
+        this.syncSize = syncSize;
+        ackFile = new File(dir, ACK_FILE);
+        ackTempFile = new File(dir, ACK_FILE + ".tmp");
+        file = new RandomAccessFile(new File(dir, QUEUE_FILE), "rw");
+        channel = file.getChannel();
+        long size = channel.size();
+        head = readAck();
+        if (head > size) {
+            //file was truncated, but its acknowledgement was not written
+            head = 0;
+        }
+        long pos = head;
+        while (true) {
+            Entry entry = readEntry(pos, size);
+            if (entry == null) {
+                break;
+            }
+            entries.add(entry);
+            depth++;
+            bytesPending += entry.length;
+            pos = entry.getEnd();
+        }
+        if (pos < size) {
+            //torn or corrupted record
+            channel.truncate(pos);
+        }
+        end = pos;
+        ackChanged = true;
+        sync();
+    }
+
+    /**
+     * Returns count of not acknowledged records.
+     * @return queue depth
+     */
+    public synchronized int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns total data size of not acknowledged records.
+     * @return size in bytes
+     */
+    public synchronized long getBytesPending() {
+        return bytesPending;
+    }
+
+    /**
+     * Appends record to queue.
+     * @param data record data
+     * @return queue entry
+     * @throws IOException on write error
+     */
+    public synchronized Entry append(byte[] data) throws IOException {
+        crc.reset();
+        crc.update(data, 0, data.length);
+        header.clear();
+        header.putInt(data.length);
+        header.putInt((int) crc.getValue());
+        header.flip();
+        writeFully(header, end);
+        writeFully(ByteBuffer.wrap(data), end + RECORD_HEADER_SIZE);
+        Entry entry = new Entry(end, data.length);
+        entries.add(entry);
+        end = entry.getEnd();
+        depth++;
+        bytesPending += data.length;
+        unsynced += RECORD_HEADER_SIZE + data.length;
+        if (unsynced >= syncSize) {
+            sync();
+        }
+        return entry;
+    }
+
+    /**
+     * Returns first not acknowledged records, in order of addition.
+     * @param max max count of returned records
+     * @return list of entries
+     */
+    public synchronized List<Entry> peek(int max) {
+        List<Entry> res = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (res.size() >= max) {
+                break;
+            }
+            if (!entry.acked) {
+                res.add(entry);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Reads data of record.
+     * @param entry queue entry
+     * @return record data
+     * @throws IOException on read error
+     */
+    public byte[] read(Entry entry) throws IOException {
+        byte[] data = new byte[entry.length];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        long pos = entry.offset + RECORD_HEADER_SIZE;
+        while (buf.hasRemaining()) {
+            int count = channel.read(buf, pos);
+            if (count < 0) {
+                throw new IOException("Unexpected end of queue file");
+            }
+            pos += count;
+        }
+        return data;
+    }
+
+    /**
+     * Acknowledges record, i.e. removes it from queue. New head is persisted on next sync.
+     * @param entry queue entry
+     */
+    public synchronized void ack(Entry entry) {
+        if (entry.acked) {
+            return;
+        }
+        entry.acked = true;
+        depth--;
+        bytesPending -= entry.length;
+        while (!entries.isEmpty() && entries.peekFirst().acked) {
+            head = entries.pollFirst().getEnd();
+            ackChanged = true;
+        }
+    }
+
+    /**
+     * Forces appended records and queue head to storage device, truncates file of empty queue.
+     * @throws IOException on write error
+     */
+    public synchronized void sync() throws IOException {
+        if (unsynced > 0) {
+            channel.force(false);
+            unsynced = 0;
+        }
+        if (entries.isEmpty() && end > 0) {
+            //acknowledgement is written after truncation, so head beyond file end means empty queue
+            channel.truncate(0);
+            channel.force(true);
+            head = 0;
+            end = 0;
+            ackChanged = true;
+        }
+        if (ackChanged) {
+            writeAck(head);
+            ackChanged = false;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads and validates record at specified position.
+     * @param pos record offset
+     * @param size file size
+     * @return queue entry, null if there is no complete valid record
+     * @throws IOException on read error
+     */
+    private Entry readEntry(long pos, long size) throws IOException {
+        if (pos + RECORD_HEADER_SIZE > size) {
+            return null;
+        }
+        header.clear();
+        channel.read(header, pos);
+        int length = header.getInt(0);
+        int checksum = header.getInt(4);
+        if (length < 0 || length > MAX_RECORD_SIZE || pos + RECORD_HEADER_SIZE + length > size) {
+            return null;
+        }
+        Entry entry = new Entry(pos, length);
+        byte[] data = read(entry);
+        crc.reset();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue() == checksum ? entry : null;
+    }
+
+    private long readAck() throws IOException {
+        if (ackFile.length() != ACK_SIZE) {
+            return 0;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(ACK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try (RandomAccessFile raf = new RandomAccessFile(ackFile, "r")) {
+            raf.readFully(buf.array());
+        }
+        long value = buf.getLong(0);
+        crc.reset();
+        crc.update(buf.array(), 0, 8);
+        //damaged acknowledgement, all records are sent again
+        return (int) crc.getValue() == buf.getInt(8) ? value : 0;
+    }
+
+    private void writeAck(long value) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(ACK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putLong(value);
+        crc.reset();
+        crc.update(buf.array(), 0, 8);
+        buf.putInt((int) crc.getValue());
+        try (FileOutputStream fos = new FileOutputStream(ackTempFile)) {
+            fos.write(buf.array());
+            fos.getFD().sync();
+        }
+        if (!ackTempFile.renameTo(ackFile)) {
+            throw new IOException("Acknowledgement file rename error: " + ackFile);
+        }
+    }
+
+    private void writeFully(ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            pos += channel.write(buf, pos);
+        }
+    }
+}
@@ -8,22 +8,16 @@ import android.support.annotation.NonNull;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import cselp.sensortrack.Const;
-import cselp.sensortrack.bean.LocationData;
 import cselp.sensortrack.bean.PhoneInfo;
-import cselp.sensortrack.bean.RotationVector;
-import cselp.sensortrack.bean.SensorData;
 import cselp.sensortrack.bean.TimeData;
+import cselp.sensortrack.bean.TimeSeries;
 import cselp.sensortrack.bean.TrackData;
 import cselp.sensortrack.bean.TrackEvent;
 import cselp.sensortrack.bean.TrackPart;
@@ -35,100 +29,23 @@ public class DataUtil {
     private static final String TAG = "DataUtil";
 
     /**
-     * Generates JSON presentation of TrackPart object
-     * @param part TrackPart object
-     * @return JSONObject representing of specified TrackPart object
-     */
-    public static JSONObject generateTrackPart(TrackPart part) {
-        Gson gson = new GsonBuilder().setExclusionStrategies(new LocationExclusionStrategy()).
-                registerTypeAdapter(Float.class, new JsonFloatSerializer(4)).
-                create();
-        JSONObject res = new JSONObject();
-        try {
-            res.put("uuid", part.uuid);
-            res.put("start", part.start);
-            res.put("end", part.end);
-            res.put("partNum", part.partNum);
-            res.put("partStart", part.partStart);
-            res.put("partEnd", part.partEnd);
-            res.put("partCount", part.partCount);
-            res.put("sensorDataRate", part.sensorDataRate);
-            res.put("accelerationDelta", part.accelerationDelta);
-            res.put("gyroscopeDelta", part.gyroscopeDelta);
-            res.put("compassDelta", part.compassDelta);
-            res.put("rotationDelta", part.rotationDelta);
-            res.put("gravityDelta", part.gravityDelta);
-            res.put("altitudeDelta", part.altitudeDelta);
-            res.put("locationDelta", part.locationDelta);
-
-            putArray(part.acceleration, "acceleration", gson, res);
-            putArray(part.gyroscope, "gyroscope", gson, res);
-            putArray(part.compass, "compass", gson, res);
-            putArray(part.rotation, "rotation", gson, res);
-            putArray(part.gravity, "gravity", gson, res);
-            putArray(part.altitude, "altitude", gson, res);
-            putArray(part.location, "location", gson, res);
-            putArray(part.events, "events", gson, res);
-            //phone info;
-            JSONObject terminal = new JSONObject(gson.toJson(part.terminal));
-            res.put("terminal", terminal);
-        }
-        catch (Exception e) {
-            Log.e(TAG, "generateTrackPart error", e);
-        }
-        return res;
-    }
-
-    private static void putArray(List<? extends TimeData> list, String key, Gson gson, JSONObject res)
-            throws JSONException {
-        if (!list.isEmpty()) {
-            JSONArray eventsJson = new JSONArray(gson.toJson(list));
-            res.put(key, eventsJson);
-        }
-    }
-
-    /**
-     * Generates String (JSON) presentation of TrackData object
+     * Generates String (JSON) presentation of TrackData object.
+     * Use {@link TrackJsonWriter} to write large tracks without building the whole string.
      * @param trackData TrackData object
      * @return JSON presentation
      */
     public static String generateTrack(TrackData trackData) {
-        Gson gson = new GsonBuilder().setExclusionStrategies(new LocationExclusionStrategy()).
-                registerTypeAdapter(Float.class, new JsonFloatSerializer(4)).
-                create();
-        JSONObject res = new JSONObject();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
-            res.put("uuid", trackData.uuid);
-            res.put("start", trackData.start);
-            res.put("end", trackData.end);
-            res.put("partCount", trackData.partCount);
-            res.put("sensorDataRate", trackData.sensorDataRate);
-            res.put("accelerationDelta", trackData.accelerationDelta);
-            res.put("gyroscopeDelta", trackData.gyroscopeDelta);
-            res.put("compassDelta", trackData.compassDelta);
-            res.put("rotationDelta", trackData.rotationDelta);
-            res.put("altitudeDelta", trackData.altitudeDelta);
-            res.put("locationDelta", trackData.locationDelta);
-            res.put("gravityDelta", trackData.gravityDelta);
-
-            putArray(trackData.linearAcc, "linearAcc", gson, res);
-
-            putArray(trackData.acceleration, "acceleration", gson, res);
-            putArray(trackData.gyroscope, "gyroscope", gson, res);
-            putArray(trackData.compass, "compass", gson, res);
-            putArray(trackData.rotation, "rotation", gson, res);
-            putArray(trackData.gravity, "gravity", gson, res);
-            putArray(trackData.altitude, "altitude", gson, res);
-            putArray(trackData.location, "location", gson, res);
-            putArray(trackData.events, "events", gson, res);
-            //phone info;
-            JSONObject terminal = new JSONObject(gson.toJson(trackData.terminal));
-            res.put("terminal", terminal);
+            JsonStreamWriter writer = new JsonStreamWriter(out);
+            TrackJsonWriter.writeTrack(trackData, writer);
+            writer.close();
+            return out.toString("UTF-8");
         }
-        catch (Exception e) {
+        catch (IOException e) {
             Log.e(TAG, "generateTrack error", e);
+            return null;
         }
-        return res.toString();
     }
 
     /**
@@ -155,6 +72,97 @@ public class DataUtil {
         return result;
     }
 
+    /**
+     * Converts rotation matrix to unit quaternion
+     * @param r rotation matrix 3*3, e.g. from SensorManager.getRotationMatrix
+     * @param q output quaternion: w, x, y, z
+     */
+    public static void rotationMatrixToQuaternion(float[] r, double[] q) {
+        double trace = r[0] + r[4] + r[8];
+        if (trace > 0) {
+            double s = Math.sqrt(trace + 1) * 2;
+            q[0] = s / 4;
+            q[1] = (r[7] - r[5]) / s;
+            q[2] = (r[2] - r[6]) / s;
+            q[3] = (r[3] - r[1]) / s;
+        }
+        else if (r[0] > r[4] && r[0] > r[8]) {
+            double s = Math.sqrt(1 + r[0] - r[4] - r[8]) * 2;
+            q[0] = (r[7] - r[5]) / s;
+            q[1] = s / 4;
+            q[2] = (r[1] + r[3]) / s;
+            q[3] = (r[2] + r[6]) / s;
+        }
+        else if (r[4] > r[8]) {
+            double s = Math.sqrt(1 + r[4] - r[0] - r[8]) * 2;
+            q[0] = (r[2] - r[6]) / s;
+            q[1] = (r[1] + r[3]) / s;
+            q[2] = s / 4;
+            q[3] = (r[5] + r[7]) / s;
+        }
+        else {
+            double s = Math.sqrt(1 + r[8] - r[0] - r[4]) * 2;
+            q[0] = (r[3] - r[1]) / s;
+            q[1] = (r[2] + r[6]) / s;
+            q[2] = (r[5] + r[7]) / s;
+            q[3] = s / 4;
+        }
+        normalizeQuaternion(q);
+    }
+
+    /**
+     * Calculates orientation angles of quaternion like SensorManager.getOrientation of rotation matrix
+     * @param q unit quaternion: w, x, y, z
+     * @param values output array: [0] - azimuth, [1] - pitch, [2] - roll, rad
+     */
+    public static void quaternionToOrientation(double[] q, float[] values) {
+        double w = q[0];
+        double x = q[1];
+        double y = q[2];
+        double z = q[3];
+        //only used elements of rotation matrix
+        double r1 = 2 * (x * y - z * w);
+        double r4 = 1 - 2 * (x * x + z * z);
+        double r6 = 2 * (x * z - y * w);
+        double r7 = 2 * (y * z + x * w);
+        double r8 = 1 - 2 * (x * x + y * y);
+        values[0] = (float) Math.atan2(r1, r4);
+        values[1] = (float) Math.asin(Math.max(-1, Math.min(1, -r7)));
+        values[2] = (float) Math.atan2(-r6, r8);
+    }
+
+    /**
+     * Multiplies quaternion by rotation in body frame in place: q = q * d
+     * @param q quaternion: w, x, y, z
+     * @param dw w of rotation quaternion d
+     * @param dx x of rotation quaternion d
+     * @param dy y of rotation quaternion d
+     * @param dz z of rotation quaternion d
+     */
+    public static void rotateQuaternion(double[] q, double dw, double dx, double dy, double dz) {
+        double w = q[0];
+        double x = q[1];
+        double y = q[2];
+        double z = q[3];
+        q[0] = w * dw - x * dx - y * dy - z * dz;
+        q[1] = w * dx + x * dw + y * dz - z * dy;
+        q[2] = w * dy - x * dz + y * dw + z * dx;
+        q[3] = w * dz + x * dy - y * dx + z * dw;
+    }
+
+    /**
+     * Scales quaternion to unit length
+     * @param q quaternion: w, x, y, z
+     */
+    public static void normalizeQuaternion(double[] q) {
+        double norm = Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        if (norm > 0) {
+            for (int i = 0; i < 4; i++) {
+                q[i] /= norm;
+            }
+        }
+    }
+
     /**
      * Returns square of value
      * @param val specified value
@@ -232,6 +240,8 @@ public class DataUtil {
 
     /**
      * Generates track parts from TrackData, to limits data packets sent to server.
+     * Each stream is walked once: end of part slice is found by binary search from the end of previous slice,
+     * so splitting takes O(n) time. Part series are read-only views of track series, data is not copied.
      * Side effect - filled TrackData partCount field
      * @param track TrackData value
      * @return list of track parts
@@ -241,41 +251,42 @@ public class DataUtil {
         //Track to parts
         int altIdx = 0, gyroIdx = 0, gravIdx = 0, rotIdx = 0, cmpIdx = 0, locIdx = 0, eventIdx = 0;
         int partId = 0;
-        List<TrackPart> trackParts = new ArrayList<>();
-        for (int i = 0; i < track.acceleration.size(); i = i + Const.TRACK_PART_STEP) {
+        int size = track.acceleration.size();
+        List<TrackPart> trackParts = new ArrayList<>((size + Const.TRACK_PART_STEP - 1) / Const.TRACK_PART_STEP);
+        for (int i = 0; i < size; i = i + Const.TRACK_PART_STEP) {
             TrackPart part = new TrackPart();
             part.initFrom(track);
-            int end = Math.min(i + Const.TRACK_PART_STEP, track.acceleration.size());
-            boolean last = (end == track.acceleration.size());
-            part.acceleration.addAll(track.acceleration.subList(i, end));
-            long startTime = track.acceleration.get(i).t;
-            long endTime = track.acceleration.get(end - 1).t;
+            int end = Math.min(i + Const.TRACK_PART_STEP, size);
+            boolean last = (end == size);
+            part.acceleration = track.acceleration.slice(i, end);
+            long startTime = track.acceleration.getTime(i);
+            long endTime = track.acceleration.getTime(end - 1);
             part.partStart = startTime;
             part.partEnd = endTime;
             part.partNum = partId;
             partId++;
             //get slices from start to end time. first part use startTime = trackData.start
-            List<SensorData> res = getDataPart(altIdx, endTime, last, track.altitude);
-            altIdx += res.size();
-            part.altitude.addAll(res);
-            res = getDataPart(gyroIdx, endTime, last, track.gyroscope);
-            gyroIdx += res.size();
-            part.gyroscope.addAll(res);
-            res = getDataPart(gravIdx, endTime, last, track.gravity);
-            gravIdx += res.size();
-            part.gravity.addAll(res);
-            res = getDataPart(cmpIdx, endTime, last, track.compass);
-            cmpIdx += res.size();
-            part.compass.addAll(res);
-            List<RotationVector> rot = getDataPart(rotIdx, endTime, last, track.rotation);
-            rotIdx += rot.size();
-            part.rotation.addAll(rot);
-            List<LocationData> loc = getDataPart(locIdx, endTime, last, track.location);
-            locIdx += loc.size();
-            part.location.addAll(loc);
-            List<TrackEvent> events = getDataPart(eventIdx, endTime, last, track.events);
-            eventIdx += events.size();
-            part.events.addAll(events);
+            int altEnd = getPartEnd(altIdx, endTime, last, track.altitude);
+            part.altitude = track.altitude.slice(altIdx, altEnd);
+            altIdx = altEnd;
+            int gyroEnd = getPartEnd(gyroIdx, endTime, last, track.gyroscope);
+            part.gyroscope = track.gyroscope.slice(gyroIdx, gyroEnd);
+            gyroIdx = gyroEnd;
+            int gravEnd = getPartEnd(gravIdx, endTime, last, track.gravity);
+            part.gravity = track.gravity.slice(gravIdx, gravEnd);
+            gravIdx = gravEnd;
+            int cmpEnd = getPartEnd(cmpIdx, endTime, last, track.compass);
+            part.compass = track.compass.slice(cmpIdx, cmpEnd);
+            cmpIdx = cmpEnd;
+            int rotEnd = getPartEnd(rotIdx, endTime, last, track.rotation);
+            part.rotation = track.rotation.slice(rotIdx, rotEnd);
+            rotIdx = rotEnd;
+            int locEnd = getPartEnd(locIdx, endTime, last, track.location);
+            part.location = track.location.slice(locIdx, locEnd);
+            locIdx = locEnd;
+            int eventEnd = getPartEnd(eventIdx, endTime, last, track.events);
+            part.events.addAll(track.events.subList(eventIdx, eventEnd));
+            eventIdx = eventEnd;
             trackParts.add(part);
         }
         track.partCount = trackParts.size();
@@ -286,27 +297,27 @@ public class DataUtil {
     }
 
     /**
-     * Extract slices from specified list, using start index idx and end marker endTime.
+     * Finds end of slice of specified series, using start index idx and end marker endTime.
+     * @param idx start index of slice
+     * @param endTime end marker, all samples with timestamp <= endTime included to slice
+     * @param last is this slice last
+     * @param series input series
+     * @return end index of slice
+     */
+    private static int getPartEnd(int idx, long endTime, boolean last, TimeSeries series) {
+        return last ? series.size() : series.indexAfter(endTime, idx);
+    }
+
+    /**
+     * Finds end of slice of specified list, using start index idx and end marker endTime.
      * @param idx start index of slice
-     * @param endTime end marker, all objects with timestamp < endTime included to slice
+     * @param endTime end marker, all objects with timestamp <= endTime included to slice
      * @param last is this slice last
-     * @param list input list
+     * @param list input list, ordered by timestamp
      * @param <T> class of processed objects, extends TimeData
-     * @return sub list of input
+     * @return end index of slice
      */
-    private static <T extends TimeData> List<T> getDataPart(int idx, long endTime, boolean last, List<T> list) {
-        list = list.subList(idx, list.size());
-        List<T> res = new ArrayList<>();
-        if (last) {
-            res.addAll(list);
-        }
-        else {
-            for (T sd : list) {
-                if (sd.t <= endTime) {
-                    res.add(sd);
-                }
-            }
-        }
-        return res;
+    private static <T extends TimeData> int getPartEnd(int idx, long endTime, boolean last, List<T> list) {
+        return last ? list.size() : TrackData.indexAfter(list, endTime, idx);
     }
 }
@@ -0,0 +1,160 @@
+package cselp.sensortrack.util;
+
+/**
+ * Fixed-precision formatting of float values without allocations.
+ * Rounding is the same as BigDecimal.valueOf(value).setScale(precision, RoundingMode.HALF_EVEN):
+ * float value is exactly representable in binary, so its scaled value is rounded exactly in long arithmetic.
+ * Supported precision is 0..{@link #MAX_PRECISION}, supported magnitude is below {@link #MAX_VALUE}.
+ */
+public class FloatFormatter {
+    public static final int MAX_PRECISION = 6;
+    //values of larger magnitude are integral, but their scaled values may overflow long
+    public static final float MAX_VALUE = 1e12f;
+    //max length of formatted value
+    public static final int MAX_LENGTH = 32;
+
+    private static final long[] POW10 = new long[19];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Checks if value can be formatted.
+     * @param value float value
+     * @param precision count of decimal places
+     * @return false for not finite and too large values, or not supported precision
+     */
+    public static boolean isSupported(float value, int precision) {
+        return precision >= 0 && precision <= MAX_PRECISION && Math.abs(value) < MAX_VALUE;
+    }
+
+    /**
+     * Rounds value to specified count of decimal places, HALF_EVEN.
+     * @param value float value, see {@link #isSupported(float, int)}
+     * @param precision count of decimal places
+     * @return rounded value multiplied by 10^precision
+     */
+    public static long round(float value, int precision) {
+        int bits = Float.floatToRawIntBits(value);
+        int exponent = (bits >> 23) & 0xFF;
+        long mantissa = bits & 0x7FFFFF;
+        if (exponent == 0) {
+            //subnormal value
+            exponent = 1;
+        }
+        else {
+            mantissa |= 0x800000;
+        }
+        //value = mantissa * 2^shift
+        int shift = exponent - 150;
+        long scaled = mantissa * POW10[precision];
+        long result;
+        if (shift >= 0) {
+            result = scaled << shift;
+        }
+        else if (-shift > 62) {
+            //scaled < 2^44, so result is less than half
+            result = 0;
+        }
+        else {
+            int s = -shift;
+            result = scaled >> s;
+            long remainder = scaled & ((1L << s) - 1);
+            long half = 1L << (s - 1);
+            if (remainder > half || (remainder == half && (result & 1) != 0)) {
+                result++;
+            }
+        }
+        return bits < 0 ? -result : result;
+    }
+
+    /**
+     * Writes rounded value in presentation of Android org.json for parsed numbers:
+     * integral values as long, others as Double.toString() does it.
+     * @param value float value, see {@link #isSupported(float, int)}
+     * @param precision count of decimal places
+     * @param buf output buffer, at least {@link #MAX_LENGTH} bytes should be available
+     * @param pos start position
+     * @return position after written value
+     */
+    public static int writeJson(float value, int precision, byte[] buf, int pos) {
+        long n = round(value, precision);
+        if (n < 0) {
+            buf[pos++] = '-';
+            n = -n;
+        }
+        int scale = precision;
+        while (scale > 0 && n % 10 == 0) {
+            n /= 10;
+            scale--;
+        }
+        int digits = digitCount(n);
+        if (scale == 0) {
+            return writeDigits(n, digits, 0, digits, buf, pos);
+        }
+        //decimal exponent of first digit
+        int exp = digits - 1 - scale;
+        if (exp >= -3 && exp < 7) {
+            if (exp >= 0) {
+                pos = writeDigits(n, digits, 0, exp + 1, buf, pos);
+                buf[pos++] = '.';
+                pos = writeDigits(n, digits, exp + 1, digits, buf, pos);
+            }
+            else {
+                buf[pos++] = '0';
+                buf[pos++] = '.';
+                for (int i = -1; i > exp; i--) {
+                    buf[pos++] = '0';
+                }
+                pos = writeDigits(n, digits, 0, digits, buf, pos);
+            }
+        }
+        else {
+            //computerized scientific notation of Double.toString()
+            pos = writeDigits(n, digits, 0, 1, buf, pos);
+            buf[pos++] = '.';
+            if (digits > 1) {
+                pos = writeDigits(n, digits, 1, digits, buf, pos);
+            }
+            else {
+                buf[pos++] = '0';
+            }
+            buf[pos++] = 'E';
+            if (exp < 0) {
+                buf[pos++] = '-';
+                exp = -exp;
+            }
+            pos = writeDigits(exp, digitCount(exp), 0, digitCount(exp), buf, pos);
+        }
+        return pos;
+    }
+
+    private static int digitCount(long n) {
+        int count = 1;
+        while (count < POW10.length && n >= POW10[count]) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Writes range of decimal digits of value.
+     * @param n non-negative value
+     * @param digits count of digits in value
+     * @param from index of first written digit, from the most significant one
+     * @param to index after last written digit
+     * @param buf output buffer
+     * @param pos start position
+     * @return position after written digits
+     */
+    private static int writeDigits(long n, int digits, int from, int to, byte[] buf, int pos) {
+        for (int i = from; i < to; i++) {
+            buf[pos++] = (byte) ('0' + (n / POW10[digits - 1 - i]) % 10);
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,341 @@
+package cselp.sensortrack.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Streaming JSON emitter, writes UTF-8 JSON directly to OutputStream through own buffer.
+ * Values are rendered the same way as Android org.json does it in JSONObject.toString():
+ * integral numbers without fraction, other numbers as Double.toString(), '/' escaped in strings.
+ * So output is compatible with documents built through JSONObject.
+ */
+public class JsonStreamWriter implements Closeable {
+    private static final int MAX_DEPTH = 32;
+    //buffer should hold the longest number
+    private static final int MIN_BUFFER_SIZE = FloatFormatter.MAX_LENGTH;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position = 0;
+    //per nesting level: true if value was written at this level, to put separator before next one
+    private final boolean[] nonEmpty = new boolean[MAX_DEPTH];
+    private int depth = 0;
+    //true after name, value follows without separator
+    private boolean afterName = false;
+
+    /**
+     * Creates writer.
+     * @param out output stream
+     * @param bufferSize size of internal buffer, at least 32 bytes are used
+     */
+    public JsonStreamWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        buffer = new byte[Math.max(bufferSize, MIN_BUFFER_SIZE)];
+    }
+
+    public JsonStreamWriter(OutputStream out) {
+        this(out, 8192);
+    }
+
+    public JsonStreamWriter beginObject() throws IOException {
+        beforeValue();
+        writeByte('{');
+        push();
+        return this;
+    }
+
+    public JsonStreamWriter endObject() throws IOException {
+        depth--;
+        writeByte('}');
+        return this;
+    }
+
+    public JsonStreamWriter beginArray() throws IOException {
+        beforeValue();
+        writeByte('[');
+        push();
+        return this;
+    }
+
+    public JsonStreamWriter endArray() throws IOException {
+        depth--;
+        writeByte(']');
+        return this;
+    }
+
+    /**
+     * Writes name of object member, value should follow.
+     * @param name member name
+     * @return this writer
+     * @throws IOException on write error
+     */
+    public JsonStreamWriter name(String name) throws IOException {
+        beforeValue();
+        writeString(name);
+        writeByte(':');
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * Writes string value, null is written as null literal.
+     * @param value string value
+     * @return this writer
+     * @throws IOException on write error
+     */
+    public JsonStreamWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            writeAscii("null");
+        }
+        else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonStreamWriter value(long value) throws IOException {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Writes double value as org.json does: -0.0 as "-0", integral values as long,
+     * others by Double.toString(). Not finite values are written as string "NaN".
+     * @param value double value
+     * @return this writer
+     * @throws IOException on write error
+     */
+    public JsonStreamWriter value(double value) throws IOException {
+        beforeValue();
+        writeDouble(value);
+        return this;
+    }
+
+    /**
+     * Writes float value rounded to specified count of decimal places (HALF_EVEN),
+     * in the same presentation as BigDecimal rounded value re-parsed by org.json.
+     * Not finite values are written as string "NaN".
+     * @param value float value
+     * @param precision count of decimal places
+     * @return this writer
+     * @throws IOException on write error
+     */
+    public JsonStreamWriter value(float value, int precision) throws IOException {
+        beforeValue();
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            writeString("NaN");
+        }
+        else if (FloatFormatter.isSupported(value, precision)) {
+            ensure(FloatFormatter.MAX_LENGTH);
+            position = FloatFormatter.writeJson(value, precision, buffer, position);
+        }
+        else {
+            writeDouble(BigDecimal.valueOf(value).setScale(precision, RoundingMode.HALF_EVEN).doubleValue());
+        }
+        return this;
+    }
+
+    /**
+     * Discards buffered data and nesting state, to reuse writer for the next document.
+     */
+    public void reset() {
+        position = 0;
+        depth = 0;
+        afterName = false;
+    }
+
+    /**
+     * Writes buffered data to output stream and flushes it.
+     * @throws IOException on write error
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        out.close();
+    }
+
+    private void push() {
+        depth++;
+        nonEmpty[depth] = false;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (nonEmpty[depth]) {
+                writeByte(',');
+            }
+            nonEmpty[depth] = true;
+        }
+    }
+
+    private void writeDouble(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeString("NaN");
+        }
+        else if (value == 0 && Double.doubleToRawLongBits(value) != 0) {
+            writeAscii("-0");
+        }
+        else {
+            long longValue = (long) value;
+            if (value == (double) longValue) {
+                writeLong(longValue);
+            }
+            else {
+                writeAscii(Double.toString(value));
+            }
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int start = position;
+        do {
+            buffer[position++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        //digits were written in reverse order
+        for (int i = start, j = position - 1; i < j; i++, j--) {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+    }
+
+    private void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    /**
+     * Writes quoted string with org.json escaping, encoded in UTF-8.
+     * @param s string value
+     * @throws IOException on write error
+     */
+    private void writeString(String s) throws IOException {
+        writeByte('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    writeByte('\\');
+                    writeByte(c);
+                    break;
+                case '\t':
+                    writeEscape('t');
+                    break;
+                case '\b':
+                    writeEscape('b');
+                    break;
+                case '\n':
+                    writeEscape('n');
+                    break;
+                case '\r':
+                    writeEscape('r');
+                    break;
+                case '\f':
+                    writeEscape('f');
+                    break;
+                default:
+                    if (c <= 0x1F) {
+                        writeEscape('u');
+                        writeByte('0');
+                        writeByte('0');
+                        writeByte(HEX[c >> 4]);
+                        writeByte(HEX[c & 0xF]);
+                    }
+                    else if (c < 0x80) {
+                        writeByte(c);
+                    }
+                    else {
+                        i = writeUtf8(s, i);
+                    }
+            }
+        }
+        writeByte('"');
+    }
+
+    private void writeEscape(char c) throws IOException {
+        writeByte('\\');
+        writeByte(c);
+    }
+
+    /**
+     * Writes non-ASCII char in UTF-8, surrogate pair is written as single code point.
+     * Unpaired surrogate is replaced by '?', as String.getBytes() does.
+     * @param s string
+     * @param i index of char
+     * @return index of last processed char
+     * @throws IOException on write error
+     */
+    private int writeUtf8(String s, int i) throws IOException {
+        char c = s.charAt(i);
+        ensure(4);
+        if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+        else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            buffer[position++] = (byte) (0xF0 | (cp >> 18));
+            buffer[position++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+            buffer[position++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (cp & 0x3F));
+            return i + 1;
+        }
+        else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+            buffer[position++] = '?';
+        }
+        else {
+            buffer[position++] = (byte) (0xE0 | (c >> 12));
+            buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        }
+        return i;
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private void ensure(int size) throws IOException {
+        if (buffer.length - position < size) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
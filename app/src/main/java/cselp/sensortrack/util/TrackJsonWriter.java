@@ -0,0 +1,188 @@
+package cselp.sensortrack.util;
+
+import java.io.IOException;
+import java.util.List;
+
+import cselp.sensortrack.bean.LocationSeries;
+import cselp.sensortrack.bean.PhoneInfo;
+import cselp.sensortrack.bean.SensorSeries;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackEvent;
+import cselp.sensortrack.bean.TrackPart;
+
+/**
+ * Streaming JSON presentation of tracks and track parts. Documents are written stream by stream,
+ * without reflection, intermediate strings and JSON object trees. Output is byte-compatible
+ * with former JSONObject based presentation of Gson serialized beans.
+ */
+public class TrackJsonWriter {
+    //count of decimal places of float values
+    private static final int PRECISION = 4;
+
+    /**
+     * Writes JSON presentation of track.
+     * @param track TrackData object
+     * @param writer output writer
+     * @throws IOException on write error
+     */
+    public static void writeTrack(TrackData track, JsonStreamWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("uuid").value(track.uuid);
+        writer.name("start").value(track.start);
+        writer.name("end").value(track.end);
+        writer.name("partCount").value(track.partCount);
+        writer.name("segment").value(track.segment);
+        writer.name("sensorDataRate").value(track.sensorDataRate);
+        writer.name("accelerationDelta").value((double) track.accelerationDelta);
+        writer.name("gyroscopeDelta").value((double) track.gyroscopeDelta);
+        writer.name("compassDelta").value((double) track.compassDelta);
+        writer.name("rotationDelta").value((double) track.rotationDelta);
+        writer.name("altitudeDelta").value((double) track.altitudeDelta);
+        writer.name("locationDelta").value(track.locationDelta);
+        writer.name("gravityDelta").value((double) track.gravityDelta);
+
+        writeSeries(track.linearAcc, "linearAcc", writer);
+        writeSeries(track.acceleration, "acceleration", writer);
+        writeSeries(track.gyroscope, "gyroscope", writer);
+        writeSeries(track.compass, "compass", writer);
+        writeSeries(track.rotation, "rotation", writer);
+        writeSeries(track.gravity, "gravity", writer);
+        writeSeries(track.altitude, "altitude", writer);
+        writeSeries(track.location, "location", writer);
+        writeEvents(track.events, writer);
+        writeTerminal(track.terminal, writer);
+        writer.endObject();
+    }
+
+    /**
+     * Writes JSON presentation of track part.
+     * @param part TrackPart object
+     * @param writer output writer
+     * @throws IOException on write error
+     */
+    public static void writePart(TrackPart part, JsonStreamWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("uuid").value(part.uuid);
+        writer.name("start").value(part.start);
+        writer.name("end").value(part.end);
+        writer.name("partNum").value(part.partNum);
+        writer.name("partStart").value(part.partStart);
+        writer.name("partEnd").value(part.partEnd);
+        writer.name("partCount").value(part.partCount);
+        writer.name("segment").value(part.segment);
+        writer.name("sensorDataRate").value(part.sensorDataRate);
+        writer.name("accelerationDelta").value((double) part.accelerationDelta);
+        writer.name("gyroscopeDelta").value((double) part.gyroscopeDelta);
+        writer.name("compassDelta").value((double) part.compassDelta);
+        writer.name("rotationDelta").value((double) part.rotationDelta);
+        writer.name("gravityDelta").value((double) part.gravityDelta);
+        writer.name("altitudeDelta").value((double) part.altitudeDelta);
+        writer.name("locationDelta").value(part.locationDelta);
+
+        writeSeries(part.acceleration, "acceleration", writer);
+        writeSeries(part.gyroscope, "gyroscope", writer);
+        writeSeries(part.compass, "compass", writer);
+        writeSeries(part.rotation, "rotation", writer);
+        writeSeries(part.gravity, "gravity", writer);
+        writeSeries(part.altitude, "altitude", writer);
+        writeSeries(part.location, "location", writer);
+        writeEvents(part.events, writer);
+        writeTerminal(part.terminal, writer);
+        writer.endObject();
+    }
+
+    /**
+     * Writes array of series samples, in presentation of SensorData (3 columns)
+     * or RotationVector (5 columns) objects. Empty series is skipped.
+     * @param series sensor data series
+     * @param key member name
+     * @param writer output writer
+     * @throws IOException on write error
+     */
+    static void writeSeries(SensorSeries series, String key, JsonStreamWriter writer) throws IOException {
+        if (series.isEmpty()) {
+            return;
+        }
+        writer.name(key).beginArray();
+        boolean rotation = series.getColumns() == 5;
+        for (int i = 0; i < series.size(); i++) {
+            writer.beginObject();
+            //Gson field order of beans: subclass fields first, then superclass fields
+            if (rotation) {
+                writer.name("cos").value(series.get(i, SensorSeries.COS), PRECISION);
+                writer.name("acc").value(series.get(i, SensorSeries.ACC), PRECISION);
+            }
+            writer.name("x").value(series.getX(i), PRECISION);
+            writer.name("y").value(series.getY(i), PRECISION);
+            writer.name("z").value(series.getZ(i), PRECISION);
+            writer.name("t").value(series.getTime(i));
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Writes array of location samples, in presentation of LocationData objects. Empty series is skipped.
+     * @param series location series
+     * @param key member name
+     * @param writer output writer
+     * @throws IOException on write error
+     */
+    static void writeSeries(LocationSeries series, String key, JsonStreamWriter writer) throws IOException {
+        if (series.isEmpty()) {
+            return;
+        }
+        writer.name(key).beginArray();
+        for (int i = 0; i < series.size(); i++) {
+            writer.beginObject();
+            writer.name("x").value(series.getX(i));
+            writer.name("y").value(series.getY(i));
+            writer.name("z").value(series.getZ(i));
+            writer.name("s").value(series.getS(i));
+            writer.name("t").value(series.getTime(i));
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    static void writeEvents(List<TrackEvent> events, JsonStreamWriter writer) throws IOException {
+        if (events.isEmpty()) {
+            return;
+        }
+        writer.name("events").beginArray();
+        for (TrackEvent event : events) {
+            writer.beginObject();
+            if (event.type != null) {
+                writer.name("type").value(event.type.name());
+            }
+            writer.name("t").value(event.t);
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Writes phone info, null fields are skipped as Gson does. Null terminal is skipped.
+     * @param terminal PhoneInfo object
+     * @param writer output writer
+     * @throws IOException on write error
+     */
+    static void writeTerminal(PhoneInfo terminal, JsonStreamWriter writer) throws IOException {
+        if (terminal == null) {
+            return;
+        }
+        writer.name("terminal").beginObject();
+        writeString("version", terminal.getVersion(), writer);
+        writeString("build", terminal.getBuild(), writer);
+        writeString("model", terminal.getModel(), writer);
+        writeString("manufacturer", terminal.getManufacturer(), writer);
+        writeString("deviceId", terminal.getDeviceId(), writer);
+        writer.endObject();
+    }
+
+    private static void writeString(String key, String value, JsonStreamWriter writer) throws IOException {
+        if (value != null) {
+            writer.name(key).value(value);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package cselp.sensortrack.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import cselp.sensortrack.bean.TrackPart;
+
+/**
+ * Encoder of track parts to JSON request body, in single pass with reusable buffers.
+ * Not thread-safe, use separate encoder per thread.
+ */
+public class TrackPartEncoder {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+    private final JsonStreamWriter writer = new JsonStreamWriter(out);
+
+    /**
+     * Encodes part to UTF-8 JSON.
+     * @param part TrackPart object
+     * @return request body
+     * @throws IOException on encoding error
+     */
+    public byte[] encode(TrackPart part) throws IOException {
+        out.reset();
+        writer.reset();
+        TrackJsonWriter.writePart(part, writer);
+        writer.flush();
+        return out.toByteArray();
+    }
+}
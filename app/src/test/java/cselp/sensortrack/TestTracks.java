@@ -0,0 +1,64 @@
+package cselp.sensortrack;
+
+import java.util.Random;
+
+import cselp.sensortrack.bean.PhoneInfo;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackEvent;
+
+/**
+ * Generator of synthetic tracks for tests.
+ */
+public class TestTracks {
+
+    /**
+     * Creates track with all streams filled, acceleration stream has specified size.
+     * Other streams have sizes typical for recorded tracks.
+     * @param accelerationSize count of acceleration samples
+     * @param seed random seed
+     * @return TrackData object
+     */
+    public static TrackData create(int accelerationSize, long seed) {
+        Random random = new Random(seed);
+        PhoneInfo phone = new PhoneInfo("6.0.1", "MMB29M", "Nexus 5", "LGE");
+        phone.setDeviceId("358240051111110");
+        TrackData track = new TrackData(phone);
+        track.start = 1470000000000L;
+        track.sensorDataRate = 0;
+        long t = track.start;
+        for (int i = 0; i < accelerationSize; i++) {
+            t += 5 + random.nextInt(20);
+            double phase = i / 50.0;
+            track.acceleration.add(t, (float) Math.sin(phase) + noise(random),
+                    (float) Math.cos(phase) + noise(random), 9.81f + noise(random));
+            if (i % 3 == 0) {
+                track.linearAcc.add(t, noise(random), noise(random), noise(random));
+                track.gyroscope.add(t + 1, (float) Math.sin(phase / 3), (float) Math.cos(phase / 3),
+                        noise(random));
+            }
+            if (i % 5 == 0) {
+                track.gravity.add(t + 2, 0.1f + noise(random), 0.2f, 9.79f + noise(random));
+                track.compass.add(t + 3, 20 + 10 * noise(random), -5 + 10 * noise(random), 40);
+                float a = (float) (phase / 10);
+                track.rotation.add(t + 4, (float) Math.sin(a) * 0.1f, (float) Math.sin(a) * 0.2f,
+                        (float) Math.sin(a) * 0.3f, (float) Math.cos(a), -1);
+            }
+            if (i % 20 == 0) {
+                track.altitude.add(t + 1, i * 0.001f, 120 + i * 0.001f, 998.5f + noise(random));
+            }
+            if (i % 50 == 0) {
+                track.location.add(t, 30.3 + i * 1e-6, 59.9 + i * 1e-6, 50 + random.nextDouble(),
+                        random.nextDouble() * 20);
+            }
+            if (i % 5000 == 2500) {
+                track.events.add(new TrackEvent(t, Const.TrackEventType.values()[random.nextInt(5)]));
+            }
+        }
+        track.end = t + 10;
+        return track;
+    }
+
+    private static float noise(Random random) {
+        return (float) (random.nextGaussian() * 0.05);
+    }
+}
@@ -0,0 +1,99 @@
+package cselp.sensortrack.bean;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of columnar series containers.
+ */
+public class SensorSeriesTest {
+
+    @Test
+    public void appendAcrossChunks() throws Exception {
+        SensorSeries series = new SensorSeries(5);
+        int n = TimeSeries.CHUNK_SIZE * 3 + 17;
+        for (int i = 0; i < n; i++) {
+            series.add(i * 10, i, -i, i * 2, 0.5f, -1);
+        }
+        assertEquals(n, series.size());
+        assertEquals(0, series.getFirstTime());
+        assertEquals((n - 1) * 10, series.getLastTime());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i * 10, series.getTime(i));
+            assertEquals(i, series.getX(i), 0f);
+            assertEquals(-i, series.getY(i), 0f);
+            assertEquals(i * 2, series.getZ(i), 0f);
+            assertEquals(0.5f, series.get(i, SensorSeries.COS), 0f);
+            assertEquals(-1f, series.get(i, SensorSeries.ACC), 0f);
+        }
+    }
+
+    @Test
+    public void addRange() throws Exception {
+        SensorSeries series = new SensorSeries(3);
+        for (int i = 0; i < 3000; i++) {
+            series.add(i, i, i + 1, i + 2);
+        }
+        SensorSeries part = new SensorSeries(3);
+        part.addAll(series, 1000, 2100);
+        assertEquals(1100, part.size());
+        assertEquals(1000, part.getFirstTime());
+        assertEquals(2099, part.getLastTime());
+        assertEquals(2101f, part.getZ(1099), 0f);
+
+        LocationSeries locations = new LocationSeries();
+        locations.add(1, 30.123456789, 60.987654321, 100, 5);
+        LocationSeries copy = new LocationSeries();
+        copy.addAll(locations, 0, 1);
+        assertEquals(30.123456789, copy.getX(0), 0);
+        assertEquals(60.987654321, copy.getY(0), 0);
+        copy.clear();
+        assertTrue(copy.isEmpty());
+    }
+
+    @Test
+    public void sliceSharesData() throws Exception {
+        SensorSeries series = new SensorSeries(3);
+        for (int i = 0; i < 3000; i++) {
+            series.add(i * 2, i, i + 1, i + 2);
+        }
+        SensorSeries slice = series.slice(1000, 2100);
+        assertTrue(slice.isView());
+        assertEquals(1100, slice.size());
+        assertEquals(2000, slice.getFirstTime());
+        assertEquals(2101f, slice.getZ(1099), 0f);
+        SensorSeries nested = slice.slice(100, 200);
+        assertEquals(1100f, nested.getX(0), 0f);
+        assertEquals(500, slice.indexAfter(2998, 0));
+        assertEquals(1100, slice.indexAfter(5000, 0));
+        assertEquals(3000, series.indexAfter(10000, 0));
+        assertEquals(0, series.indexAfter(-1, 0));
+
+        //appends of source do not change slice
+        for (int i = 3000; i < 5000; i++) {
+            series.add(i * 2, i, i + 1, i + 2);
+        }
+        assertEquals(1100, slice.size());
+        assertEquals(2099f, slice.getX(1099), 0f);
+        try {
+            slice.add(0, 0, 0, 0);
+            fail("Slice is appended");
+        }
+        catch (IllegalStateException e) {
+            //expected
+        }
+        try {
+            series.slice(10, 6000);
+            fail("Slice out of series");
+        }
+        catch (IndexOutOfBoundsException e) {
+            //expected
+        }
+
+        LocationSeries locations = new LocationSeries();
+        locations.add(1, 30.123456789, 60.987654321, 100, 5);
+        locations.add(2, 30.2, 60.1, 101, 6);
+        assertEquals(60.1, locations.slice(1, 2).getY(0), 0);
+    }
+}
@@ -0,0 +1,84 @@
+package cselp.sensortrack.bean;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import cselp.sensortrack.TestTracks;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of time range slices of track streams.
+ */
+public class TrackDataTest {
+
+    @Test
+    public void sliceAroundEvent() {
+        TrackData track = TestTracks.create(20000, 8);
+        long t = track.events.get(2).t;
+        TrackData slice = track.slice(t - 3000, t + 3000);
+        assertEquals(track.uuid, slice.uuid);
+        assertEquals(1, slice.events.size());
+        assertSlice(track.acceleration, slice.acceleration, t - 3000, t + 3000);
+        assertSlice(track.gyroscope, slice.gyroscope, t - 3000, t + 3000);
+        assertSlice(track.rotation, slice.rotation, t - 3000, t + 3000);
+        assertSlice(track.location, slice.location, t - 3000, t + 3000);
+        assertTrue(slice.acceleration.isView());
+
+        //empty and reversed ranges
+        assertEquals(0, track.slice(track.end + 1, track.end + 100).acceleration.size());
+        assertEquals(0, track.slice(t, t - 100).gravity.size());
+        assertEquals(track.altitude.size(), track.slice(track.start, track.end + 1).altitude.size());
+    }
+
+    @Test
+    public void lookupTime() {
+        TrackData track = TestTracks.create(400000, 9);
+        Random random = new Random(9);
+        int lookups = 20000;
+        long[] times = new long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            times[i] = track.start + (long) (random.nextDouble() * (track.end - track.start));
+        }
+        SensorSeries series = track.acceleration;
+        for (int r = 0; r < 2; r++) {
+            long t0 = System.nanoTime();
+            long sum = 0;
+            for (long t : times) {
+                sum += series.indexAfter(t, 0);
+            }
+            long t1 = System.nanoTime();
+            long expected = 0;
+            for (int i = 0; i < lookups / 100; i++) {
+                int j = 0;
+                while (j < series.size() && series.getTime(j) <= times[i]) {
+                    j++;
+                }
+                expected += j;
+                assertEquals(j, series.indexAfter(times[i], 0));
+            }
+            long t2 = System.nanoTime();
+            assertTrue(sum > expected);
+            if (r > 0) {
+                long search = (t1 - t0) / lookups;
+                long scan = (t2 - t1) / (lookups / 100);
+                System.out.println("Time lookup in series of 400000 points: binary search " + search
+                        + " ns, scan " + scan + " ns");
+                assertTrue(search < scan);
+            }
+        }
+    }
+
+    private static void assertSlice(TimeSeries series, TimeSeries slice, long from, long to) {
+        int count = 0;
+        for (int i = 0; i < series.size(); i++) {
+            long t = series.getTime(i);
+            if (t >= from && t < to) {
+                assertEquals(t, slice.getTime(count));
+                count++;
+            }
+        }
+        assertEquals(count, slice.size());
+    }
+}
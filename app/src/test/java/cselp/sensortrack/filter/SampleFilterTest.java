@@ -0,0 +1,182 @@
+package cselp.sensortrack.filter;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.TestTracks;
+import cselp.sensortrack.bean.SensorSeries;
+import cselp.sensortrack.bean.TrackData;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of sample filters: deadband behaviour, error bounds of SDT, RDP and linear prediction filters,
+ * allocation behaviour, and report of storage ratio versus max reconstruction error.
+ */
+public class SampleFilterTest {
+    private static final int EVENTS = 100000;
+    private static final String[] TYPES = {SampleFilters.DEADBAND, SampleFilters.SWINGING_DOOR,
+            SampleFilters.RDP, SampleFilters.LINEAR_PREDICTION};
+
+    @Test
+    public void storesPointsAroundChanges() throws Exception {
+        SampleFilter filter = new DeadbandFilter(0.1f, 5000, 3, 3, true);
+        SensorSeries stored = new SensorSeries(3);
+        float[] values = new float[9];
+        filter.add(0, values, stored);
+        assertEquals(1, stored.size());
+        filter.add(10, values, stored);
+        assertEquals(1, stored.size());
+        values[0] = 1;
+        filter.add(20, values, stored);
+        //previous (unchanged) point and changed point are stored
+        assertEquals(3, stored.size());
+        assertEquals(10, stored.getTime(1));
+        assertEquals(20, stored.getTime(2));
+        assertEquals(1f, stored.getX(2), 0f);
+        //max unsaved period exceeded
+        filter.add(5020, values, stored);
+        assertEquals(4, stored.size());
+    }
+
+    @Test
+    public void errorIsBounded() {
+        TrackData track = TestTracks.create(20000, 11);
+        float tolerance = 0.05f;
+        for (String type : new String[]{SampleFilters.SWINGING_DOOR, SampleFilters.RDP,
+                SampleFilters.LINEAR_PREDICTION}) {
+            SensorSeries stored = compress(SampleFilters.create(type, Const.Stream.ACCELERATION, tolerance),
+                    track.acceleration);
+            assertTrue(stored.size() < track.acceleration.size());
+            assertEquals(track.acceleration.getFirstTime(), stored.getFirstTime());
+            assertEquals(track.acceleration.getLastTime(), stored.getLastTime());
+            //SDT bounds error of each dimension
+            float bound = type.equals(SampleFilters.SWINGING_DOOR) ? tolerance * (float) Math.sqrt(3) : tolerance;
+            float error = maxError(type, track.acceleration, stored);
+            assertTrue(type + " error " + error, error <= bound + 1e-4f);
+        }
+    }
+
+    @Test
+    public void steadyStateAllocatesNothing() throws Exception {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        SampleFilter[] filters = {new DeadbandFilter(0.1f, Long.MAX_VALUE, 3, 3, true),
+                new SwingingDoorFilter(0.1f, Long.MAX_VALUE, 3, 3),
+                new WindowedRdpFilter(0.1f, Long.MAX_VALUE, 3, 3, Const.RDP_WINDOW),
+                new LinearPredictionFilter(0.1f, Long.MAX_VALUE, 3, 3)};
+        for (SampleFilter filter : filters) {
+            String type = filter.getClass().getSimpleName();
+            SensorSeries stored = new SensorSeries(3);
+            float[] values = new float[9];
+            //warm up, let JIT compile the path
+            long t = 0;
+            for (int i = 0; i < EVENTS; i++) {
+                values[0] = (i % 2) * 0.01f;
+                filter.add(t++, values, stored);
+            }
+            //series keeps its capacity, it is not grown in measured loop
+            int storedBefore = stored.size();
+            stored.clear();
+            long threadId = Thread.currentThread().getId();
+            long before = bean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < EVENTS; i++) {
+                values[0] = (i % 2) * 0.01f;
+                filter.add(t++, values, stored);
+            }
+            long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+            //RDP stores window end when whole window is within tolerance
+            assertTrue(stored.size() <= storedBefore);
+            //allow some bytes for measurement itself and for chunks of stored samples (time and 3 values each)
+            long expected = EVENTS / 10 + stored.size() * (8 + 3 * 4) * 2;
+            assertTrue(type + " allocated " + allocated + " bytes for " + EVENTS + " events", allocated < expected);
+        }
+    }
+
+    @Test
+    public void compressionReport() {
+        TrackData track = TestTracks.create(40000, 12);
+        float[] tolerances = {0.02f, 0.05f, 0.1f, 0.2f};
+        StringBuilder report = new StringBuilder("Sample filters, 40000 acceleration points"
+                + " (stored/input %, max reconstruction error; prediction is extrapolated, others interpolated):");
+        for (String type : TYPES) {
+            report.append("\n  ").append(type).append(':');
+            for (float tolerance : tolerances) {
+                SensorSeries stored = compress(SampleFilters.create(type, Const.Stream.ACCELERATION, tolerance),
+                        track.acceleration);
+                report.append(String.format(" tol %.2f - %.1f%% err %.3f;", tolerance,
+                        100.0 * stored.size() / track.acceleration.size(), maxError(type, track.acceleration, stored)));
+            }
+        }
+        System.out.println(report);
+    }
+
+    private static SensorSeries compress(SampleFilter filter, SensorSeries input) {
+        SensorSeries stored = new SensorSeries(input.getColumns());
+        float[] values = new float[input.getColumns()];
+        for (int i = 0; i < input.size(); i++) {
+            for (int c = 0; c < values.length; c++) {
+                values[c] = input.get(i, c);
+            }
+            filter.add(input.getTime(i), values, stored);
+        }
+        filter.flush(stored);
+        return stored;
+    }
+
+    /**
+     * Returns max distance between input samples and reconstruction of stored samples of filter type, first 3 columns.
+     */
+    private static float maxError(String type, SensorSeries input, SensorSeries stored) {
+        return SampleFilters.LINEAR_PREDICTION.equals(type)
+                ? maxExtrapolationError(input, stored) : maxError(input, stored);
+    }
+
+    /**
+     * Returns max distance between input samples and extrapolation of stored samples, first 3 columns.
+     */
+    private static float maxExtrapolationError(SensorSeries input, SensorSeries stored) {
+        float max = 0;
+        int j = 0;
+        for (int i = 0; i < input.size(); i++) {
+            long t = input.getTime(i);
+            while (j + 1 < stored.size() && stored.getTime(j + 1) <= t) {
+                j++;
+            }
+            float sum = 0;
+            for (int c = 0; c < 3; c++) {
+                float d = LinearPredictionFilter.extrapolate(stored, j, t, c) - input.get(i, c);
+                sum += d * d;
+            }
+            max = Math.max(max, (float) Math.sqrt(sum));
+        }
+        return max;
+    }
+
+    /**
+     * Returns max distance between input samples and linear interpolation of stored samples, first 3 columns.
+     */
+    private static float maxError(SensorSeries input, SensorSeries stored) {
+        float max = 0;
+        int j = 0;
+        for (int i = 0; i < input.size(); i++) {
+            long t = input.getTime(i);
+            while (j + 1 < stored.size() && stored.getTime(j + 1) < t) {
+                j++;
+            }
+            long t0 = stored.getTime(j);
+            int next = Math.min(j + 1, stored.size() - 1);
+            long t1 = stored.getTime(next);
+            float k = t1 > t0 ? Math.max(0, Math.min(1, (float) (t - t0) / (t1 - t0))) : 0;
+            float sum = 0;
+            for (int c = 0; c < 3; c++) {
+                float d = stored.get(j, c) + (stored.get(next, c) - stored.get(j, c)) * k - input.get(i, c);
+                sum += d * d;
+            }
+            max = Math.max(max, (float) Math.sqrt(sum));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,223 @@
+package cselp.sensortrack.fusion;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.sensor.GyroIntegrator;
+import cselp.sensortrack.util.DataUtil;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of orientation fusion on simulated motion: true orientation is known,
+ * gyroscope has bias and noise, accelerometer and magnetometer have noise.
+ */
+public class OrientationFilterTest {
+    //100 Hz
+    private static final long DT = 10;
+    private static final float[] GRAVITY = {0, 0, 9.81f};
+    //field to north and down, uT
+    private static final float[] FIELD = {0, 20, -40};
+
+    @Test
+    public void driftIsCorrected() {
+        OrientationFilter[] filters = {new ComplementaryFilter(Const.FUSION_TIME_CONSTANT),
+                new MadgwickFilter(Const.FUSION_MADGWICK_BETA)};
+        double[] maxErrors = new double[filters.length];
+        Simulation sim = new Simulation(11);
+        GyroIntegrator openLoop = new GyroIntegrator();
+        double maxOpenLoopError = 0;
+        double[] q = new double[4];
+        float[] matrix = new float[9];
+        for (int i = 0; i < 60000; i++) {
+            sim.next();
+            if (i == 0) {
+                quaternionToMatrix(sim.truth, matrix);
+                openLoop.setRotationMatrix(matrix);
+            }
+            else {
+                openLoop.integrate(sim.gyro[0], sim.gyro[1], sim.gyro[2], DT / 1000f);
+            }
+            for (int k = 0; k < filters.length; k++) {
+                OrientationFilter filter = filters[k];
+                filter.updateAccelerometer(sim.acc[0], sim.acc[1], sim.acc[2]);
+                filter.updateMagnetometer(sim.mag[0], sim.mag[1], sim.mag[2]);
+                filter.updateGyroscope(sim.t, sim.gyro[0], sim.gyro[1], sim.gyro[2]);
+                assertTrue(filter.isInitialized());
+                filter.getQuaternion(q);
+                //after convergence from noisy initial orientation
+                if (i > 1000) {
+                    maxErrors[k] = Math.max(maxErrors[k], angle(q, sim.truth));
+                }
+            }
+            openLoop.getQuaternion(q);
+            maxOpenLoopError = Math.max(maxOpenLoopError, angle(q, sim.truth));
+        }
+        System.out.println("Orientation error over 10 minutes with gyroscope bias: open-loop "
+                + String.format("%.3f", maxOpenLoopError) + " rad, complementary "
+                + String.format("%.3f", maxErrors[0]) + " rad, madgwick "
+                + String.format("%.3f", maxErrors[1]) + " rad");
+        assertTrue(maxOpenLoopError > 0.5);
+        assertTrue("complementary " + maxErrors[0], maxErrors[0] < 0.05);
+        assertTrue("madgwick " + maxErrors[1], maxErrors[1] < 0.05);
+    }
+
+    @Test
+    public void orientationMatchesAccMag() {
+        float[] orientation = new float[3];
+        float[] expected = new float[3];
+        OrientationFilter filter = new MadgwickFilter(Const.FUSION_MADGWICK_BETA);
+        filter.updateAccelerometer(1, 2, 9);
+        filter.updateGyroscope(0, 0, 0, 0);
+        //not initialized without magnetometer
+        assertFalse(filter.isInitialized());
+        filter.updateMagnetometer(10, 5, -40);
+        filter.updateGyroscope(10, 0, 0, 0);
+        assertTrue(filter.isInitialized());
+        filter.getOrientation(orientation);
+        getRotationMatrix(new float[]{1, 2, 9}, new float[]{10, 5, -40}, expected);
+        for (int k = 0; k < 3; k++) {
+            assertEquals(expected[k], orientation[k], 1e-5);
+        }
+        //steady device stays in place
+        for (int i = 2; i < 1000; i++) {
+            filter.updateGyroscope(i * 10, 0, 0, 0);
+        }
+        filter.getOrientation(orientation);
+        for (int k = 0; k < 3; k++) {
+            assertEquals(expected[k], orientation[k], 1e-2);
+        }
+        filter.reset();
+        assertFalse(filter.isInitialized());
+    }
+
+    @Test
+    public void stepAllocatesNothing() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int events = 100000;
+        for (String type : new String[]{OrientationFilters.COMPLEMENTARY, OrientationFilters.MADGWICK}) {
+            OrientationFilter filter = OrientationFilters.create(type);
+            float[] orientation = new float[3];
+            long threadId = Thread.currentThread().getId();
+            long start = System.nanoTime();
+            long before = bean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < events; i++) {
+                filter.updateAccelerometer(0.1f * (i % 3), 0.2f, 9.8f);
+                filter.updateMagnetometer(1, 20, -40 + (i % 5));
+                filter.updateGyroscope(i * DT, 0.01f, (i % 7) * 0.1f, -0.2f);
+                filter.getOrientation(orientation);
+            }
+            long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+            long time = System.nanoTime() - start;
+            assertTrue(type + " allocated " + allocated + " bytes for " + events + " events",
+                    allocated < events / 10);
+            System.out.println("Orientation fusion " + type + ": "
+                    + (events * 1000000000L / Math.max(time, 1)) + " events/s");
+        }
+        assertNull(OrientationFilters.create(OrientationFilters.NONE));
+    }
+
+    /**
+     * Rotation angle between orientations.
+     */
+    private static double angle(double[] a, double[] b) {
+        double dot = Math.abs(a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3]);
+        return 2 * Math.acos(Math.min(1, dot));
+    }
+
+    private static void quaternionToMatrix(double[] q, float[] r) {
+        double w = q[0];
+        double x = q[1];
+        double y = q[2];
+        double z = q[3];
+        r[0] = (float) (1 - 2 * (y * y + z * z));
+        r[1] = (float) (2 * (x * y - z * w));
+        r[2] = (float) (2 * (x * z + y * w));
+        r[3] = (float) (2 * (x * y + z * w));
+        r[4] = (float) (1 - 2 * (x * x + z * z));
+        r[5] = (float) (2 * (y * z - x * w));
+        r[6] = (float) (2 * (x * z - y * w));
+        r[7] = (float) (2 * (y * z + x * w));
+        r[8] = (float) (1 - 2 * (x * x + y * y));
+    }
+
+    /**
+     * Orientation angles of SensorManager.getRotationMatrix and SensorManager.getOrientation.
+     */
+    private static void getRotationMatrix(float[] a, float[] e, float[] values) {
+        float hx = e[1] * a[2] - e[2] * a[1];
+        float hy = e[2] * a[0] - e[0] * a[2];
+        float hz = e[0] * a[1] - e[1] * a[0];
+        float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        float normA = (float) Math.sqrt(a[0] * a[0] + a[1] * a[1] + a[2] * a[2]);
+        hx /= normH;
+        hy /= normH;
+        hz /= normH;
+        float ax = a[0] / normA;
+        float ay = a[1] / normA;
+        float az = a[2] / normA;
+        float mx = ay * hz - az * hy;
+        float my = az * hx - ax * hz;
+        float mz = ax * hy - ay * hx;
+        float[] r = {hx, hy, hz, mx, my, mz, ax, ay, az};
+        values[0] = (float) Math.atan2(r[1], r[4]);
+        values[1] = (float) Math.asin(-r[7]);
+        values[2] = (float) Math.atan2(-r[6], r[8]);
+    }
+
+    /**
+     * Device rotating with smoothly varying angular speed; sensor samples of true orientation.
+     */
+    private static class Simulation {
+        private final Random random;
+        long t = 0;
+        final double[] truth = {1, 0, 0, 0};
+        final float[] gyro = new float[3];
+        final float[] acc = new float[3];
+        final float[] mag = new float[3];
+        private final float[] bias = {0.02f, -0.015f, 0.01f};
+
+        Simulation(long seed) {
+            random = new Random(seed);
+            DataUtil.rotateQuaternion(truth, Math.cos(0.4), Math.sin(0.4) * 0.6, Math.sin(0.4) * 0.8, 0);
+        }
+
+        void next() {
+            t += DT;
+            double s = t / 1000.0;
+            double wx = 0.5 * Math.sin(0.3 * s);
+            double wy = 0.4 * Math.sin(0.17 * s + 1);
+            double wz = 0.8 * Math.sin(0.05 * s + 2);
+            double speed = Math.sqrt(wx * wx + wy * wy + wz * wz);
+            double half = speed * DT / 2000;
+            double k = Math.sin(half) / speed;
+            DataUtil.rotateQuaternion(truth, Math.cos(half), k * wx, k * wy, k * wz);
+            DataUtil.normalizeQuaternion(truth);
+            gyro[0] = (float) (wx + bias[0] + random.nextGaussian() * 0.01);
+            gyro[1] = (float) (wy + bias[1] + random.nextGaussian() * 0.01);
+            gyro[2] = (float) (wz + bias[2] + random.nextGaussian() * 0.01);
+            toDevice(GRAVITY, acc, 0.05f);
+            toDevice(FIELD, mag, 0.5f);
+        }
+
+        /**
+         * Rotates world vector to device frame (transposed rotation matrix) and adds noise.
+         */
+        private void toDevice(float[] v, float[] out, float noise) {
+            double w = truth[0];
+            double x = truth[1];
+            double y = truth[2];
+            double z = truth[3];
+            out[0] = (float) ((1 - 2 * (y * y + z * z)) * v[0] + 2 * (x * y + z * w) * v[1]
+                    + 2 * (x * z - y * w) * v[2] + random.nextGaussian() * noise);
+            out[1] = (float) (2 * (x * y - z * w) * v[0] + (1 - 2 * (x * x + z * z)) * v[1]
+                    + 2 * (y * z + x * w) * v[2] + random.nextGaussian() * noise);
+            out[2] = (float) (2 * (x * z + y * w) * v[0] + 2 * (y * z - x * w) * v[1]
+                    + (1 - 2 * (x * x + y * y)) * v[2] + random.nextGaussian() * noise);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package cselp.sensortrack.resample;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.TestTracks;
+import cselp.sensortrack.bean.TimeSeries;
+import cselp.sensortrack.bean.TrackData;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of resampling of track streams to aligned frames.
+ */
+public class TrackResamplerTest {
+    private static final long START = 1470000000000L;
+
+    @Test
+    public void interpolatesEachStreamKind() {
+        Random random = new Random(1);
+        TrackData track = new TrackData();
+        //acceleration is linear in time, rotation turns about z axis at constant rate, location moves in steps
+        long t = START + 3;
+        double rate = 0.001;
+        for (int i = 0; i < 5000; i++) {
+            t += 5 + random.nextInt(30);
+            long d = t - START;
+            track.acceleration.add(t, d * 0.01f, 1 - d * 0.001f, 9.81f);
+            if (i % 4 == 0) {
+                float a = (float) (rate * d / 2);
+                track.rotation.add(t + 1, 0, 0, (float) Math.sin(a), (float) Math.cos(a), -1);
+            }
+            if (i % 100 == 0) {
+                track.location.add(t, i, -i, 0, 1);
+            }
+        }
+        final List<double[]> frames = new ArrayList<>();
+        TrackResampler resampler = new TrackResampler(20, 1000, new int[]{Const.Stream.ACCELERATION,
+                Const.Stream.ROTATION, Const.Stream.LOCATION}, new TrackResampler.FrameListener() {
+            @Override
+            public void onFrame(Frame frame) {
+                assertTrue(frame.valid[Const.Stream.ACCELERATION]);
+                double[] acc = frame.values[Const.Stream.ACCELERATION];
+                double[] rot = frame.values[Const.Stream.ROTATION];
+                double[] loc = frame.values[Const.Stream.LOCATION];
+                frames.add(new double[]{frame.t, acc[0], acc[1], rot[2], rot[3],
+                        frame.valid[Const.Stream.ROTATION] ? 1 : 0, loc[0]});
+            }
+        });
+        resampler.resample(track);
+        resampler.flush();
+        assertFalse(frames.isEmpty());
+        long expectedTime = ((track.acceleration.getFirstTime() + 19) / 20) * 20;
+        for (double[] f : frames) {
+            long g = (long) f[0];
+            assertEquals(expectedTime, g);
+            expectedTime += 20;
+            long d = g - START;
+            if (g > track.acceleration.getLastTime()) {
+                break;
+            }
+            assertEquals(d * 0.01, f[1], 1e-3);
+            assertEquals(1 - d * 0.001, f[2], 1e-4);
+            if (f[5] > 0 && g >= track.rotation.getFirstTime() && g <= track.rotation.getLastTime()) {
+                //slerp keeps constant rate between samples
+                double a = rate * (d - 1) / 2;
+                assertEquals(Math.sin(a), f[3], 1e-4);
+                assertEquals(Math.cos(a), f[4], 1e-4);
+            }
+            //last fix not later than frame
+            int fix = track.location.indexAfter(g, 0) - 1;
+            assertEquals(track.location.getX(fix), f[6], 0);
+        }
+        assertTrue(expectedTime > track.acceleration.getLastTime());
+    }
+
+    @Test
+    public void liveEqualsSaved() {
+        TrackData track = TestTracks.create(20000, 3);
+        final List<double[]> saved = new ArrayList<>();
+        TrackResampler resampler = new TrackResampler(Const.RESAMPLE_PERIOD, new Collector(saved));
+        resampler.resample(track);
+        resampler.flush();
+
+        //the same track recorded live: samples appear in portions, each portion is new segment object
+        final List<double[]> live = new ArrayList<>();
+        TrackResampler liveResampler = new TrackResampler(Const.RESAMPLE_PERIOD, new Collector(live));
+        for (long from = track.start; from <= track.end; from += 3000) {
+            liveResampler.resample(track.slice(from, from + 3000));
+        }
+        liveResampler.flush();
+        //track growing in place: samples added since previous call are taken
+        final List<double[]> growing = new ArrayList<>();
+        TrackResampler growingResampler = new TrackResampler(Const.RESAMPLE_PERIOD, new Collector(growing));
+        TrackData recording = new TrackData();
+        for (long from = track.start; from <= track.end; from += 3000) {
+            TrackData portion = track.slice(from, from + 3000);
+            for (int stream = 0; stream < Const.Stream.EVENTS; stream++) {
+                TimeSeries series = portion.getSeries(stream);
+                recording.getSeries(stream).addAll(series, 0, series.size());
+            }
+            growingResampler.resample(recording);
+        }
+        growingResampler.flush();
+
+        assertEquals(saved.size(), live.size());
+        assertEquals(saved.size(), growing.size());
+        for (int i = 0; i < saved.size(); i++) {
+            assertTrue("frame " + i, Arrays.equals(saved.get(i), live.get(i)));
+            assertTrue("frame " + i, Arrays.equals(saved.get(i), growing.get(i)));
+        }
+    }
+
+    @Test
+    public void laggingStreamHoldsValue() {
+        final List<double[]> frames = new ArrayList<>();
+        TrackResampler resampler = new TrackResampler(10, 100, new int[]{Const.Stream.ACCELERATION,
+                Const.Stream.GRAVITY}, new Collector(frames));
+        float[] values = new float[3];
+        resampler.add(Const.Stream.GRAVITY, 0, values);
+        values[0] = 1;
+        for (long t = 0; t <= 1000; t += 5) {
+            resampler.add(Const.Stream.ACCELERATION, t, values);
+        }
+        //gravity has no samples after time 0: frames are delayed at most by max lag
+        assertTrue(frames.size() >= 90);
+        assertEquals(0, frames.get(50)[1 + 3], 0);
+        values[0] = 2;
+        resampler.add(Const.Stream.GRAVITY, 1000, values);
+        //gravity is interpolated after held frames
+        assertEquals(101, frames.size());
+        assertEquals(2, frames.get(100)[1 + 3], 0);
+    }
+
+    /**
+     * Collects frame times and values of all resampled streams.
+     */
+    private static class Collector implements TrackResampler.FrameListener {
+        private final List<double[]> frames;
+
+        Collector(List<double[]> frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public void onFrame(Frame frame) {
+            List<Double> values = new ArrayList<>();
+            values.add((double) frame.t);
+            for (int stream = 0; stream < Const.Stream.COUNT; stream++) {
+                if (frame.values[stream] != null) {
+                    for (double v : frame.values[stream]) {
+                        values.add(frame.valid[stream] ? v : Double.NaN);
+                    }
+                }
+            }
+            double[] res = new double[values.size()];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = values.get(i);
+            }
+            frames.add(res);
+        }
+    }
+}
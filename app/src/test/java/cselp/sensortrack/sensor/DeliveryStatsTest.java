@@ -0,0 +1,39 @@
+package cselp.sensortrack.sensor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of counting of sensor event deliveries with and without batching.
+ */
+public class DeliveryStatsTest {
+    private static final long MS = 1000000;
+
+    @Test
+    public void countsBurstsAsSingleDelivery() {
+        DeliveryStats stats = new DeliveryStats();
+        //one hour at 50 Hz, delivered one by one
+        long events = 3600 * 50;
+        for (long i = 0; i < events; i++) {
+            long t = i * 20 * MS;
+            stats.onEvent(t, t + MS / 10);
+        }
+        assertEquals(events, stats.getEventCount());
+        assertEquals(events, stats.getDeliveryCount());
+        assertEquals(0, stats.getMaxLatencyMs());
+
+        //the same, batched with 5 s report latency: burst of 250 back-dated events arrives at once
+        DeliveryStats batched = new DeliveryStats();
+        for (long i = 0; i < events; i++) {
+            long t = i * 20 * MS;
+            long burstEnd = (i / 250 + 1) * 250 * 20 * MS;
+            //events of burst arrive 10 us apart
+            batched.onEvent(t, burstEnd + (i % 250) * MS / 100);
+        }
+        assertEquals(events, batched.getEventCount());
+        assertEquals(events / 250, batched.getDeliveryCount());
+        assertEquals(5000, batched.getMaxLatencyMs());
+        assertTrue(batched.toString(3600000).contains("(720/hour)"));
+    }
+}
@@ -0,0 +1,196 @@
+package cselp.sensortrack.sensor;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import cselp.sensortrack.util.DataUtil;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of gyroscope integration by quaternion against previous rotation matrix integration.
+ */
+public class GyroIntegratorTest {
+    private static final int EVENTS = 100000;
+    //100 Hz
+    private static final float DT = 0.01f;
+
+    @Test
+    public void matchesMatrixPath() {
+        float[] initial = new float[9];
+        getRotationMatrixFromVector(initial, new float[]{0.2f, -0.3f, 0.5f, (float) Math.sqrt(1 - 0.38)});
+        GyroIntegrator integrator = new GyroIntegrator();
+        integrator.setRotationMatrix(initial);
+        float[] current = initial.clone();
+        float[] delta = new float[9];
+        float[] deltaVector = new float[4];
+        float[] expected = new float[3];
+        float[] actual = new float[3];
+        float[] matrix = new float[9];
+        double[] q = new double[4];
+        float[] speed = new float[3];
+        Random random = new Random(5);
+        for (int i = 0; i < 10000; i++) {
+            nextSpeed(random, speed);
+            //previous path: delta quaternion to matrix, matrix multiplication
+            deltaRotationVector(speed, DT, deltaVector);
+            getRotationMatrixFromVector(delta, deltaVector);
+            current = DataUtil.matrixMultiplication(current, delta);
+            getOrientation(current, expected);
+
+            integrator.integrate(speed[0], speed[1], speed[2], DT);
+            integrator.getOrientation(actual);
+            integrator.getQuaternion(q);
+            getRotationMatrixFromVector(matrix, new float[]{(float) q[1], (float) q[2], (float) q[3], (float) q[0]});
+            for (int k = 0; k < 9; k++) {
+                assertEquals("step " + i, current[k], matrix[k], 1e-3);
+            }
+            //angles are defined well away from pitch +-90 degrees
+            if (Math.abs(expected[1]) < 1.2) {
+                for (int k = 0; k < 3; k++) {
+                    assertEquals("step " + i, 0, angleDifference(expected[k], actual[k]), 2e-3);
+                }
+            }
+        }
+        assertEquals(1, q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3], 1e-6);
+    }
+
+    @Test
+    public void integrationAllocatesNothing() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        GyroIntegrator integrator = new GyroIntegrator();
+        float[] orientation = new float[3];
+        long threadId = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < EVENTS; i++) {
+            integrator.integrate(0.5f, (i % 7) * 0.1f, -0.2f, DT);
+            integrator.getOrientation(orientation);
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("allocated " + allocated + " bytes for " + EVENTS + " events", allocated < EVENTS / 10);
+    }
+
+    @Test
+    public void throughput() {
+        float[][] speeds = new float[1000][3];
+        Random random = new Random(7);
+        for (float[] speed : speeds) {
+            nextSpeed(random, speed);
+        }
+        float[] orientation = new float[3];
+        float checksum = 0;
+        //warm up, then measure
+        long matrixTime = 0;
+        long quaternionTime = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            float[] current = new float[9];
+            getRotationMatrixFromVector(current, new float[]{0, 0, 0, 1});
+            float[] delta = new float[9];
+            float[] deltaVector = new float[4];
+            for (int i = 0; i < EVENTS; i++) {
+                deltaRotationVector(speeds[i % speeds.length], DT, deltaVector);
+                getRotationMatrixFromVector(delta, deltaVector);
+                current = DataUtil.matrixMultiplication(current, delta);
+                getOrientation(current, orientation);
+            }
+            checksum += orientation[0];
+            matrixTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            GyroIntegrator integrator = new GyroIntegrator();
+            for (int i = 0; i < EVENTS; i++) {
+                float[] speed = speeds[i % speeds.length];
+                integrator.integrate(speed[0], speed[1], speed[2], DT);
+                integrator.getOrientation(orientation);
+            }
+            checksum -= orientation[0];
+            quaternionTime = System.nanoTime() - start;
+        }
+        assertEquals(0, checksum, 1e-2);
+        System.out.println("Gyroscope integration of " + EVENTS + " events: matrix "
+                + (EVENTS * 1000000000L / Math.max(matrixTime, 1)) + " events/s, quaternion "
+                + (EVENTS * 1000000000L / Math.max(quaternionTime, 1)) + " events/s");
+    }
+
+    private static void nextSpeed(Random random, float[] speed) {
+        //slow rotation below noise threshold and fast rotation
+        float scale = random.nextInt(4) == 0 ? 0.05f : 2;
+        for (int k = 0; k < 3; k++) {
+            speed[k] = (float) (random.nextGaussian() * scale);
+        }
+    }
+
+    private static double angleDifference(float a, float b) {
+        double d = a - b;
+        while (d > Math.PI) {
+            d -= 2 * Math.PI;
+        }
+        while (d < -Math.PI) {
+            d += 2 * Math.PI;
+        }
+        return d;
+    }
+
+    /**
+     * Delta rotation vector of previous SensorListener.calculateGyroscope.
+     */
+    private static void deltaRotationVector(float[] speed, float dT, float[] deltaRotationVector) {
+        float axisX = speed[0];
+        float axisY = speed[1];
+        float axisZ = speed[2];
+        double gyroscopeRotationVelocity = Math.sqrt(axisX * axisX + axisY * axisY + axisZ * axisZ);
+        if (gyroscopeRotationVelocity > 0.1f) {
+            axisX /= gyroscopeRotationVelocity;
+            axisY /= gyroscopeRotationVelocity;
+            axisZ /= gyroscopeRotationVelocity;
+        }
+        double thetaOverTwo = gyroscopeRotationVelocity * dT / 2.0f;
+        double sinThetaOverTwo = Math.sin(thetaOverTwo);
+        double cosThetaOverTwo = Math.cos(thetaOverTwo);
+        deltaRotationVector[0] = (float) sinThetaOverTwo * axisX;
+        deltaRotationVector[1] = (float) sinThetaOverTwo * axisY;
+        deltaRotationVector[2] = (float) sinThetaOverTwo * axisZ;
+        deltaRotationVector[3] = (float) cosThetaOverTwo;
+    }
+
+    /**
+     * SensorManager.getRotationMatrixFromVector for 3*3 matrix and 4 values of rotation vector.
+     */
+    private static void getRotationMatrixFromVector(float[] r, float[] rotationVector) {
+        float q0 = rotationVector[3];
+        float q1 = rotationVector[0];
+        float q2 = rotationVector[1];
+        float q3 = rotationVector[2];
+        float sqQ1 = 2 * q1 * q1;
+        float sqQ2 = 2 * q2 * q2;
+        float sqQ3 = 2 * q3 * q3;
+        float q1q2 = 2 * q1 * q2;
+        float q3q0 = 2 * q3 * q0;
+        float q1q3 = 2 * q1 * q3;
+        float q2q0 = 2 * q2 * q0;
+        float q2q3 = 2 * q2 * q3;
+        float q1q0 = 2 * q1 * q0;
+        r[0] = 1 - sqQ2 - sqQ3;
+        r[1] = q1q2 - q3q0;
+        r[2] = q1q3 + q2q0;
+        r[3] = q1q2 + q3q0;
+        r[4] = 1 - sqQ1 - sqQ3;
+        r[5] = q2q3 - q1q0;
+        r[6] = q1q3 - q2q0;
+        r[7] = q2q3 + q1q0;
+        r[8] = 1 - sqQ1 - sqQ2;
+    }
+
+    /**
+     * SensorManager.getOrientation for 3*3 matrix.
+     */
+    private static void getOrientation(float[] r, float[] values) {
+        values[0] = (float) Math.atan2(r[1], r[4]);
+        values[1] = (float) Math.asin(-r[7]);
+        values[2] = (float) Math.atan2(-r[6], r[8]);
+    }
+}
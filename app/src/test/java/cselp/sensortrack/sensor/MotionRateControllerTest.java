@@ -0,0 +1,74 @@
+package cselp.sensortrack.sensor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of rate tier switching by motion energy.
+ */
+public class MotionRateControllerTest {
+    private static final float G = 9.81f;
+    //20 ms sampling period
+    private static final long STEP = 20;
+
+    @Test
+    public void followsMotionEnergy() {
+        MotionRateController controller = createController();
+        Random random = new Random(1);
+        long t = 0;
+        //parked, sensor noise only: rate is lowered after hold time
+        t = feed(controller, random, t, 4000, 0.01f);
+        assertEquals(MotionRateController.TIER_NORMAL, controller.getTier());
+        t = feed(controller, random, t, 4000, 0.01f);
+        assertEquals(MotionRateController.TIER_LOW, controller.getTier());
+        //bumpy road: rate is raised at once, without hold time
+        long start = t;
+        while (controller.getTier() != MotionRateController.TIER_HIGH) {
+            controller.add(t, noise(random, 3f), noise(random, 3f), G + noise(random, 3f));
+            t += STEP;
+        }
+        assertTrue(t - start < 1000);
+        //parked again: one tier down after each hold time
+        t = feed(controller, random, t, 8000, 0.01f);
+        assertEquals(MotionRateController.TIER_NORMAL, controller.getTier());
+        feed(controller, random, t, 6000, 0.01f);
+        assertEquals(MotionRateController.TIER_LOW, controller.getTier());
+    }
+
+    @Test
+    public void energyAroundThresholdDoesNotFlap() {
+        MotionRateController controller = createController();
+        Random random = new Random(2);
+        long t = 0;
+        int changes = 0;
+        for (int i = 0; i < 30000; i++) {
+            //amplitude swings around high threshold
+            float amplitude = i % 100 < 50 ? 1.2f : 0.8f;
+            if (controller.add(t, noise(random, amplitude), 0, G) >= 0) {
+                changes++;
+            }
+            t += STEP;
+        }
+        assertEquals(MotionRateController.TIER_HIGH, controller.getTier());
+        assertEquals(1, changes);
+    }
+
+    private static MotionRateController createController() {
+        return new MotionRateController(0.01f, 1f, 1000, 5000);
+    }
+
+    private static long feed(MotionRateController controller, Random random, long t, long duration, float amplitude) {
+        long end = t + duration;
+        for (; t < end; t += STEP) {
+            controller.add(t, noise(random, amplitude), noise(random, amplitude), G + noise(random, amplitude));
+        }
+        return t;
+    }
+
+    private static float noise(Random random, float amplitude) {
+        return (float) random.nextGaussian() * amplitude;
+    }
+}
@@ -0,0 +1,67 @@
+package cselp.sensortrack.sensor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of mapping of boot time to wall clock time.
+ */
+public class SensorClockTest {
+    private static final long MS = 1000000;
+    private static final long WALL = 1476000000000L;
+
+    @Test
+    public void mappingIsExactAfterLongUptime() {
+        SensorClock clock = new SensorClock(60000, 500);
+        //30 days of uptime
+        long boot = 30L * 24 * 3600 * 1000 * MS;
+        clock.sync(boot, WALL);
+        long maxError = 0;
+        long floatError = 0;
+        for (long i = 1; i < 100000; i++) {
+            long t = boot + i * 1234567891L;
+            long expected = WALL + i * 1234567891L / MS;
+            maxError = Math.max(maxError, Math.abs(clock.toWallMillis(t) - expected));
+            //previous conversion: float factor and int cast from reference event
+            floatError = Math.max(floatError, Math.abs(WALL + (int) ((t - boot) * (1.0f / 1000000.0f)) - expected));
+        }
+        assertEquals(0, maxError);
+        System.out.println("Max error of event time over 34 hours of events: exact " + maxError
+                + " ms, float factor " + floatError + " ms");
+    }
+
+    @Test
+    public void driftIsCorrectedGradually() {
+        SensorClock clock = new SensorClock(60000, 500);
+        long boot = 1000 * MS;
+        clock.sync(boot, WALL);
+        assertFalse(clock.isSyncDue(boot + 59999 * MS));
+        assertTrue(clock.isSyncDue(boot + 60000 * MS));
+        //wall clock is found 20 ms ahead on next sync
+        long t = boot + 60000 * MS;
+        clock.sync(t, WALL + 60000 + 20);
+        assertEquals(20 * MS, clock.getPendingCorrection());
+        long previous = clock.toWallNanos(t);
+        //events at 100 Hz: 0.5 ms of correction per second, time never goes back or jumps
+        for (int i = 1; i <= 6000; i++) {
+            long wall = clock.toWallNanos(t + i * 10 * MS);
+            long step = wall - previous;
+            assertTrue(step >= 10 * MS && step <= 10 * MS + 10 * 500);
+            previous = wall;
+        }
+        //after 40 s correction is complete
+        assertEquals(0, clock.getPendingCorrection());
+        assertEquals(WALL + 60000 + 20 + 60000, clock.toWallMillis(t + 60000 * MS));
+    }
+
+    @Test
+    public void outOfOrderEventsKeepOffset() {
+        SensorClock clock = new SensorClock(60000, 500);
+        clock.sync(5000 * MS, WALL);
+        clock.sync(6000 * MS, WALL + 1000 + 100);
+        long late = clock.toWallMillis(7000 * MS);
+        //back-dated event of batch is mapped with current offset
+        assertEquals(late - 500, clock.toWallMillis(6500 * MS));
+    }
+}
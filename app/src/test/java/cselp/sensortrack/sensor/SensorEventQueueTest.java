@@ -0,0 +1,197 @@
+package cselp.sensortrack.sensor;
+
+import android.location.Location;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of SensorEventQueue ordering, overflow accounting and throughput.
+ */
+public class SensorEventQueueTest {
+
+    @Test
+    public void drainKeepsOrderAndValues() throws Exception {
+        SensorEventQueue queue = new SensorEventQueue(16);
+        float[] acc = new float[9];
+        for (int i = 0; i < 10; i++) {
+            acc[0] = i;
+            acc[8] = -i;
+            queue.setAccelerationValues(i, acc);
+            queue.setPressureValue(i, 1000 + i);
+        }
+        assertEquals(16, queue.getCapacity());
+        CountingConsumer consumer = new CountingConsumer();
+        assertEquals(16, queue.size());
+        assertEquals(4, queue.getOverflowCount());
+        assertEquals(2, queue.getOverflowCount(SensorEventQueue.ACCELERATION));
+        assertEquals(2, queue.getOverflowCount(SensorEventQueue.PRESSURE));
+        assertEquals(16, queue.drain(consumer, 100));
+        assertEquals(8, consumer.acceleration);
+        assertEquals(8, consumer.pressure);
+        assertEquals(7, consumer.lastTimestamp);
+        assertEquals(7f, consumer.lastAcc0, 0f);
+        assertEquals(-7f, consumer.lastAcc8, 0f);
+        assertEquals(1007f, consumer.lastPressure, 0f);
+        assertEquals(0, queue.drain(consumer, 100));
+    }
+
+    @Test
+    public void failedEventIsSkipped() throws Exception {
+        SensorEventQueue queue = new SensorEventQueue(16);
+        CountingConsumer consumer = new CountingConsumer() {
+            @Override
+            public void setPressureValue(long timestamp, float value) {
+                if (timestamp == 1) {
+                    throw new IllegalStateException("test failure");
+                }
+                super.setPressureValue(timestamp, value);
+            }
+
+            @Override
+            public void setAccelerationValues(long timestamp, float[] values) {
+                super.setAccelerationValues(timestamp, values);
+                if (timestamp == 0) {
+                    throw new IllegalStateException("test failure");
+                }
+            }
+
+            @Override
+            public void setLocationValue(long timestamp, Location value) {
+                locations++;
+            }
+        };
+        float[] acc = new float[9];
+        for (int i = 0; i < 4; i++) {
+            queue.setPressureValue(i, 1000 + i);
+            queue.setAccelerationValues(i, acc);
+            queue.setLocationValue(i, null);
+        }
+        assertEquals(12, queue.drain(consumer, 100));
+        assertEquals(0, queue.size());
+        assertEquals(2, queue.getErrorCount());
+        assertTrue(queue.getLastError() instanceof IllegalStateException);
+        //events after failed ones are delivered, failed ones are not retried
+        assertEquals(3, consumer.pressure);
+        assertEquals(1003f, consumer.lastPressure, 0f);
+        assertEquals(4, consumer.locations);
+        assertEquals(4, consumer.acceleration);
+        //failed slots are free for producer
+        for (int i = 0; i < 16; i++) {
+            queue.setPressureValue(10 + i, 0);
+        }
+        assertEquals(0, queue.getOverflowCount());
+    }
+
+    @Test
+    public void awaitIsWokenByProducer() throws Exception {
+        final SensorEventQueue queue = new SensorEventQueue(16);
+        final CountingConsumer consumer = new CountingConsumer();
+        final int events = 1000;
+        Thread processor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (consumer.pressure < events) {
+                    if (queue.drain(consumer, 16) == 0) {
+                        queue.await();
+                    }
+                }
+            }
+        });
+        processor.start();
+        for (int i = 0; i < events; i++) {
+            //events arrive slower than they are processed, consumer parks between them
+            while (queue.size() > 0) {
+                Thread.yield();
+            }
+            queue.setPressureValue(i, i);
+        }
+        processor.join(5000);
+        assertFalse(processor.isAlive());
+        assertEquals(events, consumer.pressure);
+        assertEquals(0, queue.getOverflowCount());
+    }
+
+    @Test
+    public void throughput() throws Exception {
+        final int events = 5000000;
+        final SensorEventQueue queue = new SensorEventQueue(8192);
+        final CountingConsumer consumer = new CountingConsumer();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                float[] acc = new float[9];
+                for (int i = 0; i < events; i++) {
+                    acc[0] = i;
+                    //retry until slot is free, to measure sustained rate of the consumer
+                    while (queue.size() >= queue.getCapacity()) {
+                        Thread.yield();
+                    }
+                    queue.setAccelerationValues(i, acc);
+                }
+            }
+        });
+        long start = System.nanoTime();
+        producer.start();
+        while (consumer.acceleration < events) {
+            if (queue.drain(consumer, 256) == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+        long elapsed = System.nanoTime() - start;
+        assertEquals(0, queue.getOverflowCount());
+        assertEquals(events - 1, consumer.lastTimestamp);
+        System.out.println("SensorEventQueue throughput: "
+                + (long) (events / (elapsed / 1e9)) + " events/sec");
+    }
+
+    private static class CountingConsumer implements ISensorConsumer {
+        int acceleration;
+        int pressure;
+        long lastTimestamp;
+        float lastAcc0;
+        float lastAcc8;
+        float lastPressure;
+        int locations;
+
+        @Override
+        public void setGyroscopeValues(long timestamp, float[] values) {
+        }
+
+        @Override
+        public void setAccelerationValues(long timestamp, float[] values) {
+            acceleration++;
+            lastTimestamp = timestamp;
+            lastAcc0 = values[0];
+            lastAcc8 = values[8];
+        }
+
+        @Override
+        public void setGeomagneticValues(long timestamp, float[] values) {
+        }
+
+        @Override
+        public void setRotationVector(long timestamp, float[] values) {
+        }
+
+        @Override
+        public void setLinearAccelerationValues(long timestamp, float[] values) {
+        }
+
+        @Override
+        public void setGravityValues(long timestamp, float[] values) {
+        }
+
+        @Override
+        public void setPressureValue(long timestamp, float value) {
+            pressure++;
+            lastPressure = value;
+        }
+
+        @Override
+        public void setLocationValue(long timestamp, Location value) {
+        }
+    }
+}
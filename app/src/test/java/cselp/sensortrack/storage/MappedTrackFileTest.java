@@ -0,0 +1,194 @@
+package cselp.sensortrack.storage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.Random;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.TestTracks;
+import cselp.sensortrack.bean.LocationSeries;
+import cselp.sensortrack.bean.SensorSeries;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackEvent;
+import cselp.sensortrack.bean.TrackPart;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of memory-mapped track file reader and time lookup by block index.
+ */
+public class MappedTrackFileTest {
+
+    @Test
+    public void cursorsReadStreams() throws Exception {
+        TrackData track = TestTracks.create(5000, 3);
+        File file = writeTemp(track);
+        try {
+            MappedTrackFile mapped = MappedTrackFile.open(file);
+            assertEquals(track.uuid, mapped.getTrack().uuid);
+            assertEquals(track.end, mapped.getTrack().end);
+            assertTrue(mapped.getTrack().acceleration.isEmpty());
+
+            MappedTrackFile.Cursor rotation = mapped.cursor(Const.Stream.ROTATION);
+            assertEquals(track.rotation.size(), rotation.getCount());
+            int i = 0;
+            while (rotation.next()) {
+                assertEquals(track.rotation.getTime(i), rotation.getTime());
+                for (int c = 0; c < 5; c++) {
+                    assertEquals(track.rotation.get(i, c), rotation.getFloat(c), 0f);
+                }
+                i++;
+            }
+            assertEquals(track.rotation.size(), i);
+
+            MappedTrackFile.Cursor location = mapped.cursor(Const.Stream.LOCATION);
+            assertTrue(location.seek(track.location.getTime(7)));
+            assertEquals(7, location.getIndex());
+            assertEquals(track.location.getY(7), location.get(LocationSeries.Y), 0);
+            //backward seek restarts cursor
+            assertTrue(location.seek(track.location.getTime(3)));
+            assertEquals(3, location.getIndex());
+            assertFalse(location.seek(track.end + 1));
+        }
+        finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void readTimeRange() throws Exception {
+        TrackData track = TestTracks.create(20000, 4);
+        File file = writeTemp(track);
+        try {
+            MappedTrackFile mapped = MappedTrackFile.open(file);
+            long from = track.acceleration.getTime(1000);
+            long to = track.acceleration.getTime(3000);
+            SensorSeries part = (SensorSeries) mapped.read(Const.Stream.ACCELERATION, from, to);
+            assertEquals(2000, part.size());
+            for (int i = 0; i < part.size(); i++) {
+                assertEquals(track.acceleration.getTime(1000 + i), part.getTime(i));
+                assertEquals(track.acceleration.getZ(1000 + i), part.getZ(i), 0f);
+            }
+            List<TrackEvent> events = mapped.readEvents(track.start, track.end + 1);
+            assertEquals(track.events.size(), events.size());
+            assertEquals(0, mapped.read(Const.Stream.GYROSCOPE, track.end + 1, track.end + 2).size());
+        }
+        finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void compareWithFullRead() throws Exception {
+        TrackData track = TestTracks.create(40000, 5);
+        File file = writeTemp(track);
+        try {
+            int rounds = 10;
+            long full = 0, open = 0, single = 0;
+            for (int r = 0; r < rounds; r++) {
+                long t0 = System.nanoTime();
+                TrackFileReader.read(file);
+                long t1 = System.nanoTime();
+                MappedTrackFile mapped = MappedTrackFile.open(file);
+                long t2 = System.nanoTime();
+                mapped.read(Const.Stream.LOCATION, track.start, track.end + 1);
+                long t3 = System.nanoTime();
+                if (r > 0) {
+                    full += t1 - t0;
+                    open += t2 - t1;
+                    single += t3 - t2;
+                }
+            }
+            int n = rounds - 1;
+            System.out.println("Mapped track file, 40000 acceleration points: full read " + full / n / 1000
+                    + " us, open " + open / n / 1000 + " us, location stream " + single / n / 1000 + " us");
+        }
+        finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void indexedSeek() throws Exception {
+        TrackData track = TestTracks.create(200000, 6);
+        File file = writeTemp(track);
+        try {
+            MappedTrackFile indexed = MappedTrackFile.open(file);
+            //the same data in part format has no block index
+            TrackPart whole = new TrackPart();
+            whole.initFrom(track);
+            whole.acceleration = track.acceleration;
+            MappedTrackFile scanned = new MappedTrackFile(ByteBuffer.wrap(TrackFileWriter.encodePart(whole)));
+            Random random = new Random(6);
+            int lookups = 2000;
+            long[] times = new long[lookups];
+            for (int i = 0; i < lookups; i++) {
+                times[i] = track.start + (long) (random.nextDouble() * (track.end - track.start));
+            }
+            for (int r = 0; r < 2; r++) {
+                long t0 = System.nanoTime();
+                for (long t : times) {
+                    MappedTrackFile.Cursor cursor = indexed.cursor(Const.Stream.ACCELERATION);
+                    assertTrue(cursor.seek(t));
+                    assertEquals(track.acceleration.indexAfter(t - 1, 0), cursor.getIndex());
+                    assertEquals(track.acceleration.getX(cursor.getIndex()), cursor.getFloat(SensorSeries.X), 0f);
+                }
+                long t1 = System.nanoTime();
+                for (int i = 0; i < lookups / 10; i++) {
+                    MappedTrackFile.Cursor cursor = scanned.cursor(Const.Stream.ACCELERATION);
+                    assertTrue(cursor.seek(times[i]));
+                    assertEquals(track.acceleration.indexAfter(times[i] - 1, 0), cursor.getIndex());
+                }
+                long t2 = System.nanoTime();
+                if (r > 0) {
+                    long index = (t1 - t0) / lookups;
+                    long scan = (t2 - t1) / (lookups / 10);
+                    System.out.println("Time lookup in track file, 200000 acceleration points: block index "
+                            + index + " ns, scan " + scan + " ns");
+                    assertTrue(index < scan);
+                }
+            }
+        }
+        finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void sliceAroundEvent() throws Exception {
+        TrackData track = TestTracks.create(20000, 7);
+        File file = writeTemp(track);
+        try {
+            MappedTrackFile mapped = MappedTrackFile.open(file);
+            long t = track.events.get(1).t;
+            TrackData slice = mapped.slice(t - 2000, t + 2000);
+            TrackData expected = track.slice(t - 2000, t + 2000);
+            assertEquals(1, slice.events.size());
+            assertTrue(slice.acceleration.size() > 0);
+            assertArrayEquals(encode(expected), encode(slice));
+        }
+        finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    private static byte[] encode(TrackData track) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TrackFileWriter.write(track, Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    private static File writeTemp(TrackData track) throws Exception {
+        File file = File.createTempFile("track", "." + TrackFile.EXTENSION);
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            TrackFileWriter.write(track, fos.getChannel());
+        }
+        return file;
+    }
+}
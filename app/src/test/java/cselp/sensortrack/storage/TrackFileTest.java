@@ -0,0 +1,183 @@
+package cselp.sensortrack.storage;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.List;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.TestTracks;
+import cselp.sensortrack.bean.LocationSeries;
+import cselp.sensortrack.bean.SensorSeries;
+import cselp.sensortrack.bean.TimeSeries;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackPart;
+import cselp.sensortrack.upload.GzipEncoder;
+import cselp.sensortrack.util.DataUtil;
+import cselp.sensortrack.util.TrackPartEncoder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of compact binary track file format, with comparison to ObjectOutputStream format,
+ * and of binary track parts, with comparison to JSON parts.
+ */
+public class TrackFileTest {
+
+    @Test
+    public void writeAndRead() throws Exception {
+        TrackData track = TestTracks.create(5000, 1);
+        track.partCount = 5;
+        track.segment = 1;
+        TrackData read = TrackFileReader.read(ByteBuffer.wrap(encode(track)));
+        assertEquals(track.uuid, read.uuid);
+        assertEquals(track.start, read.start);
+        assertEquals(track.end, read.end);
+        assertEquals(5, read.partCount);
+        assertEquals(1, read.segment);
+        assertEquals(track.accelerationDelta, read.accelerationDelta, 0f);
+        assertEquals(track.locationDelta, read.locationDelta, 0);
+        assertEquals(track.terminal.getDeviceId(), read.terminal.getDeviceId());
+        assertSameTrack(track, read);
+    }
+
+    @Test
+    public void compareWithObjectStream() throws Exception {
+        TrackData track = TestTracks.create(40000, 2);
+        int rounds = 10;
+        byte[] compact = null;
+        byte[] serialized = null;
+        long compactEncode = 0, compactDecode = 0, objectEncode = 0, objectDecode = 0;
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            compact = encode(track);
+            long t1 = System.nanoTime();
+            TrackFileReader.read(ByteBuffer.wrap(compact));
+            long t2 = System.nanoTime();
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(track);
+            oos.close();
+            serialized = bos.toByteArray();
+            long t3 = System.nanoTime();
+            new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+            long t4 = System.nanoTime();
+            //skip first (warm up) round
+            if (r > 0) {
+                compactEncode += t1 - t0;
+                compactDecode += t2 - t1;
+                objectEncode += t3 - t2;
+                objectDecode += t4 - t3;
+            }
+        }
+        int n = rounds - 1;
+        System.out.println("Track file, 40000 acceleration points: compact " + compact.length
+                + " bytes, encode " + compactEncode / n / 1000 + " us, decode " + compactDecode / n / 1000
+                + " us; ObjectOutputStream " + serialized.length + " bytes, encode "
+                + objectEncode / n / 1000 + " us, decode " + objectDecode / n / 1000 + " us");
+        assertTrue(compact.length < serialized.length);
+    }
+
+    @Test
+    public void partWriteAndRead() throws Exception {
+        TrackData track = TestTracks.create(5000, 3);
+        for (TrackPart part : DataUtil.getTrackParts(track)) {
+            TrackPart read = TrackFileReader.readPart(ByteBuffer.wrap(TrackFileWriter.encodePart(part)));
+            assertEquals(part.uuid, read.uuid);
+            assertEquals(part.partNum, read.partNum);
+            assertEquals(part.partCount, read.partCount);
+            assertEquals(part.partStart, read.partStart);
+            assertEquals(part.partEnd, read.partEnd);
+            assertEquals(part.gyroscopeDelta, read.gyroscopeDelta, 0f);
+            assertEquals(part.terminal.getModel(), read.terminal.getModel());
+            assertSameTrack(part, read);
+        }
+    }
+
+    @Test
+    public void trackFileIsNotPart() throws Exception {
+        try {
+            TrackFileReader.readPart(ByteBuffer.wrap(encode(TestTracks.create(100, 4))));
+            fail("track file is read as part");
+        }
+        catch (IOException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void compareWithJsonPart() throws Exception {
+        List<TrackPart> parts = DataUtil.getTrackParts(TestTracks.create(40000, 5));
+        TrackPartEncoder jsonEncoder = new TrackPartEncoder();
+        GzipEncoder gzip = new GzipEncoder(Const.UPLOAD_COMPRESSION_LEVEL);
+        int rounds = 10;
+        long binarySize = 0, jsonSize = 0, binaryGzipSize = 0, jsonGzipSize = 0;
+        long binaryTime = 0, jsonTime = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (TrackPart part : parts) {
+                long t0 = System.nanoTime();
+                byte[] binary = TrackFileWriter.encodePart(part);
+                long t1 = System.nanoTime();
+                byte[] json = jsonEncoder.encode(part);
+                long t2 = System.nanoTime();
+                //skip first (warm up) round
+                if (r > 0) {
+                    binaryTime += t1 - t0;
+                    jsonTime += t2 - t1;
+                }
+                if (r == 0) {
+                    binarySize += binary.length;
+                    jsonSize += json.length;
+                    binaryGzipSize += gzip.encode(binary).length;
+                    jsonGzipSize += gzip.encode(json).length;
+                }
+            }
+        }
+        gzip.end();
+        long count = (long) parts.size() * (rounds - 1);
+        System.out.println("Track part upload, " + parts.size() + " parts: binary " + binarySize / parts.size()
+                + " bytes (gzip " + binaryGzipSize / parts.size() + "), "
+                + count * 1000000000L / binaryTime + " parts/sec; JSON " + jsonSize / parts.size()
+                + " bytes (gzip " + jsonGzipSize / parts.size() + "), "
+                + count * 1000000000L / jsonTime + " parts/sec");
+        assertTrue(binarySize < jsonSize);
+    }
+
+    static byte[] encode(TrackData track) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        TrackFileWriter.write(track, Channels.newChannel(bos));
+        return bos.toByteArray();
+    }
+
+    static void assertSameTrack(TrackData expected, TrackData actual) {
+        for (int stream = 0; stream < Const.Stream.EVENTS; stream++) {
+            TimeSeries e = expected.getSeries(stream);
+            TimeSeries a = actual.getSeries(stream);
+            assertEquals("stream " + stream, e.size(), a.size());
+            for (int i = 0; i < e.size(); i++) {
+                assertEquals(e.getTime(i), a.getTime(i));
+                if (e instanceof SensorSeries) {
+                    for (int c = 0; c < ((SensorSeries) e).getColumns(); c++) {
+                        assertEquals(((SensorSeries) e).get(i, c), ((SensorSeries) a).get(i, c), 0f);
+                    }
+                }
+                else {
+                    for (int c = 0; c < LocationSeries.COLUMNS; c++) {
+                        assertEquals(((LocationSeries) e).get(i, c), ((LocationSeries) a).get(i, c), 0);
+                    }
+                }
+            }
+        }
+        assertEquals(expected.events.size(), actual.events.size());
+        for (int i = 0; i < expected.events.size(); i++) {
+            assertEquals(expected.events.get(i).t, actual.events.get(i).t);
+            assertEquals(expected.events.get(i).type, actual.events.get(i).type);
+        }
+    }
+}
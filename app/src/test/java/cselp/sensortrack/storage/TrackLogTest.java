@@ -0,0 +1,133 @@
+package cselp.sensortrack.storage;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.bean.PhoneInfo;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackEvent;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of TrackLog writing and reading.
+ */
+public class TrackLogTest {
+
+    @Test
+    public void writeAndRead() throws Exception {
+        File file = File.createTempFile("track", "." + TrackLog.EXTENSION);
+        file.deleteOnExit();
+        TrackData track = new TrackData(new PhoneInfo("6.0", "MRA58K", "Nexus", "LGE"));
+        track.start = 1000;
+        track.segment = 2;
+        TrackLog log = new TrackLog(file, track, 256, 100);
+        for (int i = 0; i < 500; i++) {
+            track.acceleration.add(1000 + i, i, i + 1, i + 2);
+            log.append(Const.Stream.ACCELERATION, track.acceleration, track.acceleration.size() - 1);
+            if (i % 10 == 0) {
+                track.rotation.add(1000 + i, 0.1f, 0.2f, 0.3f, 0.9f, -1);
+                log.append(Const.Stream.ROTATION, track.rotation, track.rotation.size() - 1);
+                track.location.add(1000 + i, 30.5, 60.25, 12, 3);
+                log.append(Const.Stream.LOCATION, track.location, track.location.size() - 1);
+            }
+        }
+        log.append(new TrackEvent(1200, Const.TrackEventType.PIT));
+        log.finish(1600, 3);
+
+        TrackData read = TrackLogReader.read(file);
+        assertEquals(track.uuid, read.uuid);
+        assertEquals(1000, read.start);
+        assertEquals(1600, read.end);
+        assertEquals(3, read.partCount);
+        assertEquals(2, read.segment);
+        assertEquals("Nexus", read.terminal.getModel());
+        assertNull(read.terminal.getDeviceId());
+        assertEquals(500, read.acceleration.size());
+        assertEquals(1499, read.acceleration.getLastTime());
+        assertEquals(501f, read.acceleration.getZ(499), 0f);
+        assertEquals(50, read.rotation.size());
+        assertEquals(0.9f, read.rotation.get(3, 3), 0f);
+        assertEquals(60.25, read.location.getY(49), 0);
+        assertEquals(1, read.events.size());
+        assertEquals(Const.TrackEventType.PIT, read.events.get(0).type);
+    }
+
+    @Test
+    public void rolledSegmentHasPartCount() throws Exception {
+        File file = File.createTempFile("track", "." + TrackLog.EXTENSION);
+        file.deleteOnExit();
+        TrackData track = new TrackData();
+        track.start = 1000;
+        TrackLog log = new TrackLog(file, track, 1024, 1000);
+        for (int i = 0; i < 100; i++) {
+            track.acceleration.add(1000 + i, i, 0, 9.8f);
+            log.append(Const.Stream.ACCELERATION, track.acceleration, i);
+        }
+        //recording track has no part count until it is finished
+        assertEquals(-1, track.partCount);
+        TrackData next = new TrackData();
+        track.rollOver(next, 1100, 4);
+        log.finish(track.end, track.partCount);
+
+        TrackData read = TrackLogReader.read(file);
+        assertEquals(1100, read.end);
+        assertEquals(4, read.partCount);
+        assertEquals(track.uuid, next.uuid);
+        assertEquals(1, next.segment);
+        assertEquals(1100, next.start);
+        assertEquals(-1, next.partCount);
+    }
+
+    @Test
+    public void writeByExecutor() throws Exception {
+        File file = File.createTempFile("track", "." + TrackLog.EXTENSION);
+        file.deleteOnExit();
+        TrackData track = new TrackData();
+        track.start = 0;
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        //small buffers, every few records are written by executor while the other buffer is filled
+        TrackLog log = new TrackLog(file, track, 128, 10, executor);
+        for (int i = 0; i < 1000; i++) {
+            track.gyroscope.add(i, i, -i, 0.5f);
+            log.append(Const.Stream.GYROSCOPE, track.gyroscope, i);
+        }
+        log.finish(1000, 1);
+        executor.shutdown();
+
+        TrackData read = TrackLogReader.read(file);
+        assertEquals(1000, read.gyroscope.size());
+        assertEquals(999, read.gyroscope.getLastTime());
+        assertEquals(-999f, read.gyroscope.getY(999), 0f);
+        assertEquals(1000, read.end);
+        assertEquals(1, read.partCount);
+    }
+
+    @Test
+    public void readUnfinishedLog() throws Exception {
+        File file = File.createTempFile("track", "." + TrackLog.EXTENSION);
+        file.deleteOnExit();
+        TrackData track = new TrackData();
+        track.start = 0;
+        TrackLog log = new TrackLog(file, track, 1024, 1000);
+        for (int i = 0; i < 100; i++) {
+            track.gravity.add(i, 0, 0, 9.8f);
+        }
+        log.append(Const.Stream.GRAVITY, track.gravity, 0);
+        //service killed: no footer, last record truncated
+        log.close();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 5);
+        raf.close();
+
+        TrackData read = TrackLogReader.read(file);
+        assertEquals(99, read.gravity.size());
+        assertEquals(98, read.end);
+        assertEquals(-1, read.partCount);
+    }
+}
@@ -0,0 +1,79 @@
+package cselp.sensortrack.upload;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import cselp.sensortrack.TestTracks;
+import cselp.sensortrack.bean.TrackPart;
+import cselp.sensortrack.util.DataUtil;
+import cselp.sensortrack.util.TrackPartEncoder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of gzip encoder and measurements of compressed part sizes and CPU time per compression level.
+ */
+public class GzipEncoderTest {
+
+    @Test
+    public void readableByGzipStream() throws Exception {
+        TrackPartEncoder partEncoder = new TrackPartEncoder();
+        GzipEncoder encoder = new GzipEncoder(6);
+        for (TrackPart part : DataUtil.getTrackParts(TestTracks.create(3000, 6))) {
+            byte[] json = partEncoder.encode(part);
+            //encoder is reused for every part
+            assertArrayEquals(json, decode(encoder.encode(json)));
+        }
+        assertEquals(0, decode(encoder.encode(new byte[0])).length);
+        encoder.end();
+    }
+
+    @Test
+    public void compressionLevels() throws Exception {
+        List<TrackPart> parts = DataUtil.getTrackParts(TestTracks.create(20000, 7));
+        TrackPartEncoder partEncoder = new TrackPartEncoder();
+        byte[][] bodies = new byte[parts.size()][];
+        long jsonSize = 0;
+        for (int i = 0; i < bodies.length; i++) {
+            bodies[i] = partEncoder.encode(parts.get(i));
+            jsonSize += bodies[i].length;
+        }
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        System.out.println("Part upload, JSON: " + jsonSize / bodies.length + " bytes/part");
+        for (int level = 1; level <= 9; level++) {
+            GzipEncoder encoder = new GzipEncoder(level);
+            //warm up
+            for (byte[] body : bodies) {
+                encoder.encode(body);
+            }
+            long size = 0;
+            long cpu = bean.getCurrentThreadCpuTime();
+            for (byte[] body : bodies) {
+                size += encoder.encode(body).length;
+            }
+            cpu = bean.getCurrentThreadCpuTime() - cpu;
+            encoder.end();
+            System.out.println("Part upload, gzip level " + level + ": " + size / bodies.length + " bytes/part ("
+                    + size * 100 / jsonSize + "%), " + cpu / bodies.length / 1000 + " us CPU/part");
+            assertTrue(size < jsonSize / 2);
+        }
+    }
+
+    private static byte[] decode(byte[] data) throws Exception {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int count;
+            while ((count = in.read(buf)) > 0) {
+                out.write(buf, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package cselp.sensortrack.upload;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import cselp.sensortrack.Const;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of ServerHealth against local stub server: requests per part and latency
+ * with ping before each part (TTL 0) and with cached server state.
+ */
+public class ServerHealthTest {
+    //emulated server round trip, ms
+    private static final int LATENCY = 3;
+
+    private StubServer server;
+    private String url;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new StubServer(LATENCY, 1);
+        url = server.url;
+    }
+
+    @After
+    public void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    public void pingIsCached() throws Exception {
+        int parts = 100;
+        byte[] body = new byte[30000];
+        long before = upload(new ServerHealth(0), parts, body);
+        //requests seen by server
+        double requestsBefore = (double) (server.pings.get() + server.posts.get()) / parts;
+        assertEquals(parts, server.pings.get());
+        assertEquals(parts, server.posts.get());
+
+        server.pings.set(0);
+        server.posts.set(0);
+        long after = upload(new ServerHealth(Const.SERVER_HEALTH_TTL), parts, body);
+        double requestsAfter = (double) (server.pings.get() + server.posts.get()) / parts;
+        assertEquals(1, server.pings.get());
+        assertEquals(parts, server.posts.get());
+        System.out.println("Part upload to stub server: ping per part " + requestsBefore + " requests/part, "
+                + before / parts / 1000 + " us/part; cached health " + requestsAfter + " requests/part, "
+                + after / parts / 1000 + " us/part");
+        assertTrue(after < before);
+    }
+
+    @Test
+    public void failureRequiresPing() throws Exception {
+        ServerHealth health = new ServerHealth(Const.SERVER_HEALTH_TTL);
+        byte[] body = new byte[100];
+        assertTrue(send(health, body));
+        assertTrue(send(health, body));
+        server.failures.set(1);
+        assertFalse(send(health, body));
+        assertFalse(health.isHealthy());
+        assertTrue(send(health, body));
+        assertEquals(2, server.pings.get());
+        assertEquals(4, server.posts.get());
+        //other server is pinged again
+        assertTrue(health.isPingNeeded(url + "/other", 0));
+    }
+
+    @Test
+    public void pingExpires() {
+        ServerHealth health = new ServerHealth(1000);
+        assertTrue(health.isPingNeeded(url, 0));
+        health.onPingSuccess(new ServerCapabilities(), 0);
+        assertFalse(health.isPingNeeded(url, 999));
+        assertTrue(health.isPingNeeded(url, 1000));
+    }
+
+    private long upload(ServerHealth health, int parts, byte[] body) throws Exception {
+        long t0 = System.nanoTime();
+        for (int i = 0; i < parts; i++) {
+            assertTrue(send(health, body));
+        }
+        return System.nanoTime() - t0;
+    }
+
+    /**
+     * Sends part as SensorService does it: ping if needed, then post.
+     */
+    private boolean send(ServerHealth health, byte[] body) throws IOException {
+        if (health.isPingNeeded(url, System.nanoTime() / 1000000)) {
+            if (StubServer.request("GET", url + Const.URL_PING, null, null) != HttpURLConnection.HTTP_OK) {
+                health.onFailure();
+                return false;
+            }
+            health.onPingSuccess(new ServerCapabilities(), System.nanoTime() / 1000000);
+        }
+        if (StubServer.request("POST", url + Const.URL_ADD_TRACK_PART, body, null) != HttpURLConnection.HTTP_OK) {
+            health.onFailure();
+            return false;
+        }
+        return true;
+    }
+}
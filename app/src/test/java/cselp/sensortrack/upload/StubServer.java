@@ -0,0 +1,159 @@
+package cselp.sensortrack.upload;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.bean.TrackPart;
+import cselp.sensortrack.storage.TrackFileReader;
+
+/**
+ * Local stub of track server for upload tests. Requests are answered after emulated latency,
+ * binary parts of posts are decoded and counted.
+ */
+class StubServer {
+    final AtomicInteger pings = new AtomicInteger();
+    final AtomicInteger posts = new AtomicInteger();
+    //count of next posts answered by error
+    final AtomicInteger failures = new AtomicInteger();
+    //max count of requests processed concurrently
+    final AtomicInteger maxConcurrent = new AtomicInteger();
+    //numbers of received parts
+    final Set<Integer> parts = Collections.synchronizedSet(new HashSet<Integer>());
+    final AtomicInteger duplicates = new AtomicInteger();
+    final String url;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int latency;
+    private final AtomicInteger concurrent = new AtomicInteger();
+
+    /**
+     * Starts server.
+     * @param latency emulated latency of request, ms
+     * @param threads count of server threads
+     * @throws IOException on start error
+     */
+    StubServer(int latency, int threads) throws IOException {
+        this.latency = latency;
+        //no Nagle delays on stub server, latency is emulated explicitly
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(Const.URL_PING, new Handler(pings, false));
+        server.createContext(Const.URL_ADD_TRACK_PART, new Handler(posts, false));
+        server.createContext(Const.URL_ADD_TRACK_PARTS, new Handler(posts, true));
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * Sends request and reads response.
+     * @param method request method
+     * @param url request url
+     * @param body request body, null for GET
+     * @param contentType content type of body, binary parts are decoded by server
+     * @return response code
+     * @throws IOException on connection error
+     */
+    static int request(String method, String url, byte[] body, String contentType) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (contentType != null) {
+            connection.setRequestProperty("Content-Type", contentType);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+        }
+        int code = connection.getResponseCode();
+        InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            //response is read to the end, so connection is reused
+            while (in.read() >= 0) {
+            }
+            in.close();
+        }
+        return code;
+    }
+
+    /**
+     * Handler which counts requests and responds after emulated latency.
+     */
+    private class Handler implements HttpHandler {
+        private final AtomicInteger counter;
+        private final boolean multiPart;
+
+        Handler(AtomicInteger counter, boolean multiPart) {
+            this.counter = counter;
+            this.multiPart = multiPart;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int current = concurrent.incrementAndGet();
+            while (true) {
+                int max = maxConcurrent.get();
+                if (current <= max || maxConcurrent.compareAndSet(max, current)) {
+                    break;
+                }
+            }
+            counter.incrementAndGet();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream in = exchange.getRequestBody();
+            byte[] buf = new byte[8192];
+            int count;
+            while ((count = in.read(buf)) >= 0) {
+                body.write(buf, 0, count);
+            }
+            try {
+                Thread.sleep(latency);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            boolean fail = counter == posts && failures.getAndDecrement() > 0;
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            if (!fail && counter == posts && TrackPartRequest.BINARY_CONTENT_TYPE.equals(contentType)) {
+                ByteBuffer data = ByteBuffer.wrap(body.toByteArray());
+                for (TrackPart part : multiPart ? TrackFileReader.readParts(data)
+                        : Collections.singletonList(TrackFileReader.readPart(data))) {
+                    if (!parts.add(part.partNum)) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            }
+            concurrent.decrementAndGet();
+            byte[] response = "{\"status\":\"ok\"}".getBytes("UTF-8");
+            exchange.sendResponseHeaders(fail ? 500 : 200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package cselp.sensortrack.upload;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.TestTracks;
+import cselp.sensortrack.bean.TrackPart;
+import cselp.sensortrack.storage.TrackFileReader;
+import cselp.sensortrack.storage.TrackFileWriter;
+import cselp.sensortrack.util.DataUtil;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of UploadOutbox retries, delivery of parts left from previous run, resume by server acknowledgements,
+ * and throughput of concurrent and coalesced upload of backlog to local stub server.
+ */
+public class UploadOutboxTest {
+
+    @Test
+    public void partsAreRetriedInOrder() throws Exception {
+        List<TrackPart> parts = DataUtil.getTrackParts(TestTracks.create(3000, 1));
+        TestSender sender = new TestSender(4, parts.size());
+        UploadOutbox outbox = new UploadOutbox(new UploadQueue(UploadQueueTest.createDir(), 1024), sender,
+                new Backoff(1, 8, new Random(1)), 10, 1, Long.MAX_VALUE);
+        outbox.start();
+        for (TrackPart part : parts) {
+            outbox.add(part);
+        }
+        assertTrue(sender.done.await(10, TimeUnit.SECONDS));
+        //last acknowledgement is processed by worker after callback
+        for (int i = 0; i < 100 && outbox.getDepth() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, outbox.getDepth());
+        assertEquals(0, outbox.getBytesPending());
+        outbox.shutdown();
+        assertEquals(parts.size() + 4, sender.attempts);
+        for (int i = 0; i < parts.size(); i++) {
+            assertEquals(i, sender.sent.get(i).partNum);
+        }
+    }
+
+    @Test
+    public void pendingPartsAreSentAfterRestart() throws Exception {
+        File dir = UploadQueueTest.createDir();
+        List<TrackPart> parts = DataUtil.getTrackParts(TestTracks.create(3000, 2));
+        //server is not available
+        TestSender failing = new TestSender(Integer.MAX_VALUE, 0);
+        UploadOutbox outbox = new UploadOutbox(new UploadQueue(dir, 1024), failing,
+                new Backoff(1000, 1000, new Random()), 10, 1, Long.MAX_VALUE);
+        for (TrackPart part : parts) {
+            outbox.add(part);
+        }
+        outbox.shutdown();
+        Thread.sleep(200);
+
+        UploadQueue queue = new UploadQueue(dir, 1024);
+        assertEquals(parts.size(), queue.getDepth());
+        TestSender sender = new TestSender(0, parts.size());
+        outbox = new UploadOutbox(queue, sender, new Backoff(1, 8, new Random(2)), 10, 1, Long.MAX_VALUE);
+        outbox.start();
+        assertTrue(sender.done.await(10, TimeUnit.SECONDS));
+        outbox.shutdown();
+        assertEquals(parts.get(parts.size() - 1).partEnd, sender.sent.get(parts.size() - 1).partEnd);
+    }
+
+    @Test
+    public void backlogIsSentConcurrentlyAndCoalesced() throws Exception {
+        List<TrackPart> parts = DataUtil.getTrackParts(TestTracks.create(80000, 3));
+        StubServer server = new StubServer(20, 8);
+        try {
+            long serial = sendBacklog(server, parts, 1, 1);
+            assertEquals(parts.size(), server.posts.get());
+            assertEquals(1, server.maxConcurrent.get());
+
+            long concurrent = sendBacklog(server, parts, 4, 1);
+            assertEquals(parts.size(), server.posts.get());
+            assertTrue(server.maxConcurrent.get() <= 4);
+
+            long coalesced = sendBacklog(server, parts, 4, 8);
+            assertEquals((parts.size() + 7) / 8, server.posts.get());
+            System.out.println("Upload of " + parts.size() + " queued parts to stub server (20 ms latency): "
+                    + "serial " + serial / 1000000 + " ms, 4 in flight " + concurrent / 1000000
+                    + " ms, 4 in flight by 8 parts " + coalesced / 1000000 + " ms");
+            assertTrue(concurrent < serial);
+            assertTrue(coalesced < concurrent);
+        }
+        finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void backlogTurnsOnBackpressure() throws Exception {
+        List<TrackPart> parts = DataUtil.getTrackParts(TestTracks.create(5000, 4));
+        TestSender failing = new TestSender(Integer.MAX_VALUE, 0);
+        UploadQueue queue = new UploadQueue(UploadQueueTest.createDir(), 1024);
+        UploadOutbox outbox = new UploadOutbox(queue, failing, new Backoff(1000, 1000, new Random()), 10, 2, 100000);
+        for (TrackPart part : parts) {
+            outbox.add(part);
+        }
+        for (int i = 0; i < 100 && outbox.getDepth() < parts.size(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(parts.size(), outbox.getDepth());
+        assertTrue(outbox.getBytesPending() >= 100000);
+        assertTrue(outbox.isBackpressured());
+        outbox.shutdown();
+    }
+
+    @Test
+    public void lostPartIsResentByAck() throws Exception {
+        List<TrackPart> parts = DataUtil.getTrackParts(TestTracks.create(10000, 5));
+        UploadQueue queue = new UploadQueue(UploadQueueTest.createDir(), 1024);
+        for (TrackPart part : parts) {
+            queue.append(TrackFileWriter.encodePart(part));
+        }
+        AckSender sender = new AckSender(3);
+        UploadOutbox outbox = new UploadOutbox(queue, sender, new Backoff(1, 8, new Random(5)), 10, 2,
+                Long.MAX_VALUE);
+        outbox.start();
+        for (int i = 0; i < 200 && outbox.getDepth() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, outbox.getDepth());
+        outbox.shutdown();
+        assertEquals(parts.size(), sender.received.size());
+        //lost part is the only one sent twice
+        assertEquals(parts.size() + 1, sender.attempts);
+    }
+
+    @Test
+    public void ackedPartsAreSkippedAfterRestart() throws Exception {
+        List<TrackPart> parts = DataUtil.getTrackParts(TestTracks.create(10000, 6));
+        assertTrue(parts.size() > 4);
+        UploadQueue queue = new UploadQueue(UploadQueueTest.createDir(), 1024);
+        for (TrackPart part : parts) {
+            queue.append(TrackFileWriter.encodePart(part));
+        }
+        //server got all parts but the last two before network loss, responses were not received
+        AckSender sender = new AckSender(-1);
+        for (int i = 0; i < parts.size() - 2; i++) {
+            sender.received.add(i);
+        }
+        UploadOutbox outbox = new UploadOutbox(queue, sender, new Backoff(1, 8, new Random(6)), 10, 1,
+                Long.MAX_VALUE);
+        outbox.start();
+        for (int i = 0; i < 200 && outbox.getDepth() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, outbox.getDepth());
+        outbox.shutdown();
+        //first part is resent, acknowledgement removes the rest of received parts
+        assertEquals(3, sender.attempts);
+        assertEquals(parts.size(), sender.received.size());
+    }
+
+    /**
+     * Sends parts queued during outage, returns time of upload.
+     */
+    private static long sendBacklog(StubServer server, List<TrackPart> parts, int maxInFlight, int batchSize)
+            throws Exception {
+        server.posts.set(0);
+        server.maxConcurrent.set(0);
+        server.parts.clear();
+        //parts were queued while server was not available
+        UploadQueue queue = new UploadQueue(UploadQueueTest.createDir(), 1024 * 1024);
+        for (TrackPart part : parts) {
+            queue.append(TrackFileWriter.encodePart(part));
+        }
+        HttpSender sender = new HttpSender(server.url, batchSize);
+        UploadOutbox outbox = new UploadOutbox(queue, sender, new Backoff(1, 8, new Random()), 10,
+                maxInFlight, Long.MAX_VALUE);
+        long t0 = System.nanoTime();
+        outbox.start();
+        while (outbox.getDepth() > 0 && System.nanoTime() - t0 < TimeUnit.SECONDS.toNanos(30)) {
+            Thread.sleep(1);
+        }
+        long time = System.nanoTime() - t0;
+        outbox.shutdown();
+        sender.executor.shutdown();
+        assertEquals(0, outbox.getDepth());
+        assertEquals(parts.size(), server.parts.size());
+        assertEquals(0, server.duplicates.get());
+        return time;
+    }
+
+    @Test
+    public void backoffGrowsWithJitter() {
+        Backoff backoff = new Backoff(100, 1000, new Random(3));
+        long[] ceilings = {100, 200, 400, 800, 1000, 1000};
+        for (long ceiling : ceilings) {
+            long delay = backoff.next();
+            assertTrue(delay >= ceiling / 2 && delay <= ceiling);
+        }
+        assertEquals(6, backoff.getAttempts());
+        backoff.reset();
+        assertTrue(backoff.next() <= 100);
+    }
+
+    /**
+     * Sender which posts binary parts to stub server from own threads.
+     */
+    static class HttpSender implements UploadOutbox.Sender {
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        private final String url;
+        private final int batchSize;
+
+        HttpSender(String url, int batchSize) {
+            this.url = url;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void send(final List<byte[]> parts, final UploadOutbox.Callback callback) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int code = parts.size() == 1
+                                ? StubServer.request("POST", url + Const.URL_ADD_TRACK_PART, parts.get(0),
+                                TrackPartRequest.BINARY_CONTENT_TYPE)
+                                : StubServer.request("POST", url + Const.URL_ADD_TRACK_PARTS,
+                                TrackFileWriter.joinParts(parts), TrackPartRequest.BINARY_CONTENT_TYPE);
+                        if (code == 200) {
+                            callback.onSuccess(null);
+                        }
+                        else {
+                            callback.onFailure();
+                        }
+                    }
+                    catch (IOException e) {
+                        callback.onFailure();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        public void onQueueError(String message, IOException e) {
+            fail(message);
+        }
+    }
+
+    /**
+     * Sender emulating server which acknowledges highest contiguous part of track
+     * and loses specified part on first receipt.
+     */
+    static class AckSender implements UploadOutbox.Sender {
+        final Set<Integer> received = new HashSet<>();
+        int attempts;
+        private int lost;
+
+        AckSender(int lost) {
+            this.lost = lost;
+        }
+
+        @Override
+        public synchronized void send(List<byte[]> parts, UploadOutbox.Callback callback) {
+            String uuid = null;
+            try {
+                for (byte[] data : parts) {
+                    attempts++;
+                    TrackPart part = TrackFileReader.readPart(ByteBuffer.wrap(data));
+                    uuid = part.uuid;
+                    if (part.partNum == lost) {
+                        lost = -1;
+                    }
+                    else {
+                        received.add(part.partNum);
+                    }
+                }
+            }
+            catch (IOException e) {
+                fail(e.getMessage());
+            }
+            int ack = -1;
+            while (received.contains(ack + 1)) {
+                ack++;
+            }
+            callback.onSuccess(new PartAck(uuid, ack));
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return 1;
+        }
+
+        @Override
+        public void onQueueError(String message, IOException e) {
+            fail(message);
+        }
+    }
+
+    /**
+     * Sender which fails specified count of first attempts.
+     */
+    static class TestSender implements UploadOutbox.Sender {
+        final List<TrackPart> sent = new ArrayList<>();
+        final CountDownLatch done;
+        int failures;
+        int attempts;
+
+        TestSender(int failures, int expected) {
+            this.failures = failures;
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void send(List<byte[]> parts, UploadOutbox.Callback callback) {
+            attempts++;
+            if (failures > 0) {
+                failures--;
+                callback.onFailure();
+                return;
+            }
+            try {
+                for (byte[] data : parts) {
+                    sent.add(TrackFileReader.readPart(ByteBuffer.wrap(data)));
+                    done.countDown();
+                }
+            }
+            catch (IOException e) {
+                fail(e.getMessage());
+            }
+            callback.onSuccess(null);
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return 1;
+        }
+
+        @Override
+        public void onQueueError(String message, IOException e) {
+            fail(message);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package cselp.sensortrack.upload;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of UploadQueue persistence: acknowledgement, restart and recovery after torn append.
+ */
+public class UploadQueueTest {
+
+    @Test
+    public void ackSurvivesReopen() throws Exception {
+        File dir = createDir();
+        UploadQueue queue = new UploadQueue(dir, 1024);
+        for (int i = 0; i < 5; i++) {
+            queue.append(data(i, 100 + i));
+        }
+        assertEquals(5, queue.getDepth());
+        assertEquals(510, queue.getBytesPending());
+        List<UploadQueue.Entry> entries = queue.peek(3);
+        assertEquals(3, entries.size());
+        //out of order: head is moved over acknowledged prefix only
+        queue.ack(entries.get(1));
+        assertEquals(4, queue.getDepth());
+        assertEquals(409, queue.getBytesPending());
+        assertEquals(entries.get(0).offset, queue.peek(1).get(0).offset);
+        queue.ack(entries.get(0));
+        queue.close();
+
+        queue = new UploadQueue(dir, 1024);
+        assertEquals(3, queue.getDepth());
+        entries = queue.peek(10);
+        assertArrayEquals(data(2, 102), queue.read(entries.get(0)));
+        assertArrayEquals(data(4, 104), queue.read(entries.get(2)));
+        queue.close();
+    }
+
+    @Test
+    public void notSyncedAckIsSentAgain() throws Exception {
+        File dir = createDir();
+        UploadQueue queue = new UploadQueue(dir, 1024);
+        queue.append(data(1, 10));
+        queue.append(data(2, 10));
+        queue.sync();
+        queue.ack(queue.peek(1).get(0));
+        //process is killed before sync, file is not closed
+
+        UploadQueue reopened = new UploadQueue(dir, 1024);
+        assertEquals(2, reopened.getDepth());
+        assertArrayEquals(data(1, 10), reopened.read(reopened.peek(1).get(0)));
+        reopened.close();
+        queue.close();
+    }
+
+    @Test
+    public void tornRecordIsDropped() throws Exception {
+        File dir = createDir();
+        UploadQueue queue = new UploadQueue(dir, 1024);
+        queue.append(data(1, 50));
+        queue.append(data(2, 50));
+        queue.close();
+        File file = new File(dir, UploadQueue.QUEUE_FILE);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+
+        queue = new UploadQueue(dir, 1024);
+        assertEquals(1, queue.getDepth());
+        assertEquals(58, file.length());
+        //new record is appended after last valid one
+        queue.append(data(3, 20));
+        queue.close();
+        queue = new UploadQueue(dir, 1024);
+        List<UploadQueue.Entry> entries = queue.peek(10);
+        assertEquals(2, entries.size());
+        assertArrayEquals(data(3, 20), queue.read(entries.get(1)));
+        queue.close();
+    }
+
+    @Test
+    public void emptyQueueIsTruncated() throws Exception {
+        File dir = createDir();
+        UploadQueue queue = new UploadQueue(dir, 1024);
+        queue.append(data(1, 30));
+        queue.append(data(2, 30));
+        for (UploadQueue.Entry entry : queue.peek(10)) {
+            queue.ack(entry);
+        }
+        queue.sync();
+        assertEquals(0, new File(dir, UploadQueue.QUEUE_FILE).length());
+        assertEquals(0, queue.getDepth());
+        assertEquals(0, queue.getBytesPending());
+        queue.append(data(3, 30));
+        queue.close();
+        queue = new UploadQueue(dir, 1024);
+        assertEquals(1, queue.getDepth());
+        assertArrayEquals(data(3, 30), queue.read(queue.peek(1).get(0)));
+        queue.close();
+    }
+
+    static File createDir() throws Exception {
+        File dir = File.createTempFile("outbox", "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        dir.deleteOnExit();
+        new File(dir, UploadQueue.QUEUE_FILE).deleteOnExit();
+        new File(dir, UploadQueue.ACK_FILE).deleteOnExit();
+        return dir;
+    }
+
+    static byte[] data(int seed, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed * 31 + i);
+        }
+        return data;
+    }
+}
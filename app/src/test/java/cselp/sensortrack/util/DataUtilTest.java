@@ -0,0 +1,116 @@
+package cselp.sensortrack.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cselp.sensortrack.Const;
+import cselp.sensortrack.TestTracks;
+import cselp.sensortrack.bean.TimeSeries;
+import cselp.sensortrack.bean.TrackData;
+import cselp.sensortrack.bean.TrackEvent;
+import cselp.sensortrack.bean.TrackPart;
+import cselp.sensortrack.storage.TrackFileWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of track splitting into parts: parts of linear splitter are compared with parts of
+ * previous quadratic splitter, and splitting time of both is measured.
+ */
+public class DataUtilTest {
+
+    @Test
+    public void partsAreIdentical() throws Exception {
+        TrackData track = TestTracks.create(42000, 20);
+        List<TrackPart> expected = getTrackPartsByScan(track);
+        List<TrackPart> parts = DataUtil.getTrackParts(track);
+        assertEquals(expected.size(), parts.size());
+        assertEquals(parts.size(), track.partCount);
+        int locations = 0;
+        for (int i = 0; i < parts.size(); i++) {
+            assertTrue(parts.get(i).acceleration.isView());
+            assertArrayEquals(TrackFileWriter.encodePart(expected.get(i)), TrackFileWriter.encodePart(parts.get(i)));
+            locations += parts.get(i).location.size();
+        }
+        assertEquals(track.location.size(), locations);
+    }
+
+    @Test
+    public void splitTime() throws Exception {
+        for (int size : new int[]{40000, 160000}) {
+            TrackData track = TestTracks.create(size, size);
+            //warm up
+            for (int i = 0; i < 3; i++) {
+                getTrackPartsByScan(track);
+                DataUtil.getTrackParts(track);
+            }
+            long t0 = System.nanoTime();
+            List<TrackPart> scan = getTrackPartsByScan(track);
+            long t1 = System.nanoTime();
+            List<TrackPart> parts = DataUtil.getTrackParts(track);
+            long t2 = System.nanoTime();
+            assertEquals(scan.size(), parts.size());
+            System.out.println("Split of track, " + size + " acceleration points into " + parts.size()
+                    + " parts: scan and copy " + (t1 - t0) / 1000 + " us, binary search and slices "
+                    + (t2 - t1) / 1000 + " us");
+            assertTrue(t2 - t1 < t1 - t0);
+        }
+    }
+
+    /**
+     * Previous splitter: each slice scans all remaining samples of stream and copies them.
+     */
+    private static List<TrackPart> getTrackPartsByScan(TrackData track) {
+        int altIdx = 0, gyroIdx = 0, gravIdx = 0, rotIdx = 0, cmpIdx = 0, locIdx = 0, eventIdx = 0;
+        int partId = 0;
+        List<TrackPart> trackParts = new ArrayList<>();
+        for (int i = 0; i < track.acceleration.size(); i = i + Const.TRACK_PART_STEP) {
+            TrackPart part = new TrackPart();
+            part.initFrom(track);
+            int end = Math.min(i + Const.TRACK_PART_STEP, track.acceleration.size());
+            boolean last = (end == track.acceleration.size());
+            part.acceleration.addAll(track.acceleration, i, end);
+            long endTime = track.acceleration.getTime(end - 1);
+            part.partStart = track.acceleration.getTime(i);
+            part.partEnd = endTime;
+            part.partNum = partId;
+            partId++;
+            altIdx = scanDataPart(altIdx, endTime, last, track.altitude, part.altitude);
+            gyroIdx = scanDataPart(gyroIdx, endTime, last, track.gyroscope, part.gyroscope);
+            gravIdx = scanDataPart(gravIdx, endTime, last, track.gravity, part.gravity);
+            cmpIdx = scanDataPart(cmpIdx, endTime, last, track.compass, part.compass);
+            rotIdx = scanDataPart(rotIdx, endTime, last, track.rotation, part.rotation);
+            locIdx = scanDataPart(locIdx, endTime, last, track.location, part.location);
+            for (TrackEvent event : track.events.subList(eventIdx, track.events.size())) {
+                if (last || event.t <= endTime) {
+                    part.events.add(event);
+                }
+            }
+            eventIdx += part.events.size();
+            trackParts.add(part);
+        }
+        track.partCount = trackParts.size();
+        for (TrackPart p : trackParts) {
+            p.partCount = trackParts.size();
+        }
+        return trackParts;
+    }
+
+    private static int scanDataPart(int idx, long endTime, boolean last, TimeSeries series, TimeSeries part) {
+        int end = idx;
+        if (last) {
+            end = series.size();
+        }
+        else {
+            for (int i = idx; i < series.size(); i++) {
+                if (series.getTime(i) <= endTime) {
+                    end = i + 1;
+                }
+            }
+        }
+        part.addAll(series, idx, end);
+        return end;
+    }
+}
@@ -0,0 +1,74 @@
+package cselp.sensortrack.util;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Property test of FloatFormatter against BigDecimal rounding and org.json number presentation.
+ */
+public class FloatFormatterTest {
+    private final byte[] buf = new byte[FloatFormatter.MAX_LENGTH];
+
+    @Test
+    public void randomValues() {
+        Random random = new Random(10);
+        for (int i = 0; i < 1000000; i++) {
+            float value;
+            switch (i % 4) {
+                case 0:
+                    //any bit pattern
+                    value = Float.intBitsToFloat(random.nextInt());
+                    break;
+                case 1:
+                    //typical sensor values
+                    value = (float) (random.nextGaussian() * 20);
+                    break;
+                case 2:
+                    //values around rounding boundaries
+                    value = (random.nextInt(2000001) - 1000000) / 1000f + (random.nextBoolean() ? 0.00005f : -0.00005f);
+                    value = random.nextBoolean() ? Math.nextUp(value) : value;
+                    break;
+                default:
+                    //wide range of magnitudes
+                    value = (float) (random.nextDouble() * Math.pow(10, random.nextInt(20) - 10));
+            }
+            if (FloatFormatter.isSupported(value, 4)) {
+                check(value, 4);
+                check(value, random.nextInt(FloatFormatter.MAX_PRECISION + 1));
+            }
+        }
+    }
+
+    @Test
+    public void specialValues() {
+        float[] values = {0f, -0f, 1f, -1f, 0.5f, 0.00005f, -0.00005f, 0.00015f, 0.00025f, 0.03125f, -0.03125f,
+                0.09375f, 1.03125f, 0.00049f, 0.0005f, 0.001f, 0.0011f, 9999999f, 1e7f, 12345678f,
+                Float.MIN_VALUE, Float.MIN_NORMAL, 999999.99995f, 9.99995f, 0.1f, 2.00005f, 1e11f};
+        for (float value : values) {
+            for (int precision = 0; precision <= FloatFormatter.MAX_PRECISION; precision++) {
+                check(value, precision);
+                check(-value, precision);
+            }
+        }
+        assertFalse(FloatFormatter.isSupported(Float.NaN, 4));
+        assertFalse(FloatFormatter.isSupported(Float.NEGATIVE_INFINITY, 4));
+        assertFalse(FloatFormatter.isSupported(1e12f, 4));
+        assertFalse(FloatFormatter.isSupported(1f, FloatFormatter.MAX_PRECISION + 1));
+    }
+
+    private void check(float value, int precision) {
+        BigDecimal reference = BigDecimal.valueOf(value).setScale(precision, RoundingMode.HALF_EVEN);
+        assertEquals("round " + value + " " + precision,
+                reference.unscaledValue().longValue(), FloatFormatter.round(value, precision));
+        //org.json parses written BigDecimal to Double and prints integral values as long
+        double d = Double.parseDouble(reference.toString());
+        String expected = d == (long) d ? Long.toString((long) d) : Double.toString(d);
+        int length = FloatFormatter.writeJson(value, precision, buf, 0);
+        assertEquals("format " + value + " " + precision, expected, new String(buf, 0, length));
+    }
+}
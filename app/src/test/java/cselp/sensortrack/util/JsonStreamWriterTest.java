@@ -0,0 +1,45 @@
+package cselp.sensortrack.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of JSON value rendering by JsonStreamWriter, expected strings follow org.json presentation.
+ */
+public class JsonStreamWriterTest {
+
+    @Test
+    public void numbers() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        JsonStreamWriter writer = new JsonStreamWriter(bos, 16);
+        writer.beginArray();
+        writer.value(0L).value(-15L).value(Long.MAX_VALUE).value(Long.MIN_VALUE);
+        writer.value(2.0).value(-0.0).value(0.1f).value(1e22).value(Double.NaN);
+        writer.value(1.00004f, 4).value(0.0005f, 4).value(-0.00004f, 4).value(12.34565f, 4).value(Float.NaN, 4);
+        writer.endArray();
+        writer.close();
+        assertEquals("[0,-15,9223372036854775807,-9223372036854775808,"
+                + "2,-0,0.10000000149011612,1.0E22,\"NaN\","
+                + "1,5.0E-4,0,12.3456,\"NaN\"]", bos.toString("UTF-8"));
+    }
+
+    @Test
+    public void stringsAndNesting() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        JsonStreamWriter writer = new JsonStreamWriter(bos, 16);
+        writer.beginObject();
+        writer.name("a/b").value("q\"\\\t\n\u0001");
+        writer.name("empty").beginArray().endArray();
+        writer.name("list").beginArray().beginObject().name("x").value(1L).endObject()
+                .beginObject().endObject().endArray();
+        writer.name("utf").value("\u041b\ud83d\ude00\ud83d");
+        writer.name("null").value((String) null);
+        writer.endObject();
+        writer.close();
+        assertEquals("{\"a\\/b\":\"q\\\"\\\\\\t\\n\\u0001\",\"empty\":[],\"list\":[{\"x\":1},{}],"
+                + "\"utf\":\"\u041b\ud83d\ude00?\",\"null\":null}", bos.toString("UTF-8"));
+    }
+}